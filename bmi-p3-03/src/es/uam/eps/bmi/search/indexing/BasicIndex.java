@@ -19,14 +19,17 @@ package es.uam.eps.bmi.search.indexing;
 import es.uam.eps.bmi.search.TextDocument;
 import es.uam.eps.bmi.search.parsing.BasicParser;
 import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Date;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -37,10 +40,38 @@ import java.util.zip.ZipInputStream;
  */
 public class BasicIndex implements Index {
 
+    /* Maximum size in bytes of the blocks kept in RAM by the writer */
+    protected static final int WRITER_BLOCK_SIZE = 10000000;
+
+    /* Usage of the options accepted by the main methods of the indexes */
+    protected static final String OPTIONS_USAGE
+            = "\t-biwords: Also index pairs of adjacent terms, to speed up phrase queries.\n"
+            + "\t-dedup skip|fold: Skip near-duplicate documents or fold them into the first copy.\n"
+            + "\t-layout docs|freqs|positions: What the postings store (default positions).\n"
+            + "\t-nostore: Do not store the text of the documents for snippets.\n"
+            + "\t-prune k epsilon: Also build a pruned copy of the index in its " + IndexPruner.PRUNED_INDEX_FOLDER + " folder.\n";
+
     /* Attributes */
     protected String indexPath; // Path where the index is stored
     protected IndexWriter writer = null;
     protected IndexReader reader = null;
+    /* Detector of near-duplicate documents, null if disabled */
+    protected NearDuplicateDetector nearDuplicateDetector = null;
+    /* Parameters of the pruned copy of the index, 0 top postings if disabled */
+    protected int pruneTopK = 0;
+    protected double pruneEpsilon = IndexPruner.DEFAULT_EPSILON;
+    /* What the postings of the next build store */
+    protected IndexLayout layout = IndexLayout.POSITIONS;
+    /* Whether builds index pairs of adjacent terms */
+    protected boolean buildBiwords = false;
+    /* Reader of the biword index, null if the index has none */
+    protected IndexReader biwordReader = null;
+    /* Whether builds store the text of the documents */
+    protected boolean storeDocuments = true;
+    /* Store of the text of the documents, null if the index has none */
+    protected DocumentStoreReader documentStore = null;
+    /* Number of times the index has been loaded or closed */
+    private volatile int generation = 0;
 
     /**
      * Builds an index from a collection of text documents.
@@ -67,11 +98,16 @@ public class BasicIndex implements Index {
         System.out.println("Indexing documents from '" + inputCollectionPath + "', this may take a while...");
 
         // Create writer.
-        writer = new IndexWriter(outputIndexPath, 10000000);
-        // Start indexing.
-        indexDocuments(writer, new File(inputCollectionPath), textParser);
-
+        writer = new IndexWriter(outputIndexPath, WRITER_BLOCK_SIZE);
+        writer.setNearDuplicateDetector(nearDuplicateDetector);
+        writer.setLayout(layout);
+        writer.setBiwordIndex(buildBiwords);
+        if (storeDocuments) {
+            writer.setDocumentStore(new DocumentStoreWriter(outputIndexPath));
+        }
         try {
+            // Start indexing.
+            indexDocuments(writer, new File(inputCollectionPath), textParser);
             writer.close();
         } catch (IOException ex) {
             System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
@@ -79,12 +115,143 @@ public class BasicIndex implements Index {
             return;
         }
 
+        // Build the pruned copy of the index.
+        if (pruneTopK > 0) {
+            String prunedIndexPath = (outputIndexPath.endsWith("/") ? outputIndexPath : outputIndexPath + "/")
+                    + IndexPruner.PRUNED_INDEX_FOLDER;
+            IndexPruner pruner = new IndexPruner(prunedIndexPath, pruneTopK, pruneEpsilon);
+            try {
+                pruner.prune(outputIndexPath);
+                System.out.println(pruner.getReport());
+            } catch (IOException ex) {
+                System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+                System.err.println(ex.getMessage());
+            } catch (ClassNotFoundException ex) {
+                System.err.println("Exception reading class from file: " + ex.getClass().getSimpleName());
+                System.err.println(ex.getMessage());
+            }
+        }
+
         // Stop timing and print elapsed time.
         long end = System.nanoTime();
         System.out.println((end - start)/1e6 + " total milliseconds");
         reader = null;
     }
 
+    /**
+     * Enables the detection of near-duplicate documents in the next build.
+     *
+     * @param nearDuplicateDetector detector to use, null to disable detection.
+     */
+    public void setNearDuplicateDetector(NearDuplicateDetector nearDuplicateDetector) {
+        this.nearDuplicateDetector = nearDuplicateDetector;
+    }
+
+    /**
+     * Sets what the postings of the next build store.
+     *
+     * @param layout layout of the index.
+     */
+    public void setLayout(IndexLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Enables or disables indexing pairs of adjacent terms, used to answer
+     * phrase queries, in the next build. Disabled by default.
+     *
+     * @param buildBiwords true to build the biword index.
+     */
+    public void setBiwordIndex(boolean buildBiwords) {
+        this.buildBiwords = buildBiwords;
+    }
+
+    /**
+     * Enables or disables storing the text of the documents, used to show
+     * snippets, in the next build. Enabled by default.
+     *
+     * @param storeDocuments true to store the text of the documents.
+     */
+    public void setStoreDocuments(boolean storeDocuments) {
+        this.storeDocuments = storeDocuments;
+    }
+
+    /**
+     * Enables building a pruned copy of the index, in its
+     * <code>IndexPruner.PRUNED_INDEX_FOLDER</code> folder, after the next
+     * build.
+     *
+     * @param topK number of top postings preserved for every term, 0 to
+     * disable pruning.
+     * @param epsilon fraction of the k-th highest impact of a term below which
+     * its postings are dropped.
+     * @see IndexPruner
+     */
+    public void setPruning(int topK, double epsilon) {
+        this.pruneTopK = topK;
+        this.pruneEpsilon = epsilon;
+    }
+
+    /**
+     * Configures the next build with options given in the command line, as
+     * described in <code>OPTIONS_USAGE</code>.
+     *
+     * @param args command line arguments.
+     * @param from position of the first option in <code>args</code>.
+     * @return true if every option is valid, false otherwise.
+     */
+    public boolean setOptions(String[] args, int from) {
+        for (int i = from; i < args.length; i++) {
+            switch (args[i]) {
+                case "-biwords":
+                    setBiwordIndex(true);
+                    break;
+                case "-dedup":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    try {
+                        NearDuplicateDetector.Mode mode = NearDuplicateDetector.Mode.valueOf(args[i].toUpperCase());
+                        setNearDuplicateDetector(new NearDuplicateDetector(mode));
+                    } catch (IllegalArgumentException ex) {
+                        return false;
+                    }
+                    break;
+                case "-layout":
+                    if (++i == args.length) {
+                        return false;
+                    }
+                    try {
+                        setLayout(IndexLayout.valueOf(args[i].toUpperCase()));
+                    } catch (IllegalArgumentException ex) {
+                        return false;
+                    }
+                    break;
+                case "-nostore":
+                    setStoreDocuments(false);
+                    break;
+                case "-prune":
+                    if (i + 2 >= args.length) {
+                        return false;
+                    }
+                    try {
+                        int topK = Integer.parseInt(args[++i]);
+                        double epsilon = Double.parseDouble(args[++i]);
+                        if (topK < 1 || epsilon < 0 || epsilon > 1) {
+                            return false;
+                        }
+                        setPruning(topK, epsilon);
+                    } catch (NumberFormatException ex) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Stores (partially or completely) a previously created index in memory.
      *
@@ -92,10 +259,15 @@ public class BasicIndex implements Index {
      */
     @Override
     public void load(String indexPath) {
+        generation++;
+        // Files of the index loaded before, closed once the new one is open.
+        IndexReader oldReader = reader;
+        IndexReader oldBiwordReader = biwordReader;
+        DocumentStoreReader oldDocumentStore = documentStore;
         if (writer != null) { //writer already in RAM, build reader from its data.
             try {
                 reader = new IndexReader(writer);
-            } catch (FileNotFoundException ex) {
+            } catch (IOException ex) {
                 System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
                 System.err.println(ex.getMessage());
                 return;
@@ -103,6 +275,7 @@ public class BasicIndex implements Index {
         } else {
             try {
                 reader = new IndexReader(indexPath);
+                this.indexPath = indexPath;
             } catch (IOException ex) {
                 System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
                 System.err.println(ex.getMessage());
@@ -115,6 +288,78 @@ public class BasicIndex implements Index {
         }
 
         writer = null;
+
+        // Open the biword index, if any.
+        biwordReader = null;
+        if (reader != null && new File(reader.indexPath + IndexWriter.BIWORD_INDEX_FOLDER).exists()) {
+            try {
+                biwordReader = new IndexReader(reader.indexPath + IndexWriter.BIWORD_INDEX_FOLDER);
+            } catch (IOException ex) {
+                System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+                System.err.println(ex.getMessage());
+            } catch (ClassNotFoundException ex) {
+                System.err.println("Exception reading class from file: " + ex.getClass().getSimpleName());
+                System.err.println(ex.getMessage());
+            }
+        }
+
+        // Open the document store, if any.
+        documentStore = null;
+        if (reader != null && DocumentStoreReader.exists(reader.indexPath)) {
+            try {
+                documentStore = new DocumentStoreReader(reader.indexPath);
+            } catch (IOException ex) {
+                System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+                System.err.println(ex.getMessage());
+            } catch (ClassNotFoundException ex) {
+                System.err.println("Exception reading class from file: " + ex.getClass().getSimpleName());
+                System.err.println(ex.getMessage());
+            }
+        }
+
+        closeFiles(oldReader != reader ? oldReader : null, oldBiwordReader, oldDocumentStore);
+    }
+
+    /**
+     * Closes the files of a loaded index, which is not loaded anymore.
+     */
+    public void close() {
+        closeFiles(reader, biwordReader, documentStore);
+        reader = null;
+        biwordReader = null;
+        documentStore = null;
+        generation++;
+    }
+
+    /**
+     * Closes the given readers of an index, those not null.
+     */
+    private static void closeFiles(IndexReader reader, IndexReader biwordReader, DocumentStoreReader documentStore) {
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+            if (biwordReader != null) {
+                biwordReader.close();
+            }
+            if (documentStore != null) {
+                documentStore.close();
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of times the index has been loaded or closed. It
+     * changes whenever the data served by the index may have changed, so
+     * results computed with the index can be discarded.
+     *
+     * @return the generation of the index.
+     */
+    public int getGeneration() {
+        return generation;
     }
 
     /**
@@ -127,6 +372,60 @@ public class BasicIndex implements Index {
         return indexPath;
     }
 
+    /**
+     * Returns the names of the near-duplicate documents that were folded into
+     * the document with the given id when the index was built.
+     *
+     * @param docId Id of the document.
+     * @return the names of the documents folded into the given one, an empty
+     * list if there are none.
+     */
+    public List<String> getDocumentAliases(int docId) {
+        return reader.getDocumentAliases(docId);
+    }
+
+    /**
+     * Returns the metadata of the index, such as the order of its docIds.
+     *
+     * @return the metadata of the index.
+     */
+    public IndexMetadata getMetadata() {
+        return reader.getMetadata();
+    }
+
+    /**
+     * Returns a snippet of a document from the document store of the index:
+     * up to <code>maxChars</code> characters of its parsed text, starting at
+     * the first occurrence of one of the terms of the query.
+     *
+     * @param docId Id of the document.
+     * @param query parsed query, terms separated by spaces.
+     * @param maxChars maximum length of the snippet.
+     * @return the snippet, null if the index has no document store or the
+     * document does not contain any of the terms.
+     */
+    public String getSnippet(int docId, String query, int maxChars) {
+        if (documentStore == null) {
+            return null;
+        }
+        try {
+            return documentStore.getSnippet(docId, query.split(" "), maxChars);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the index stores the text of its documents.
+     *
+     * @return true if the index stores the text of its documents.
+     */
+    public boolean hasDocumentStore() {
+        return documentStore != null;
+    }
+
     /**
      * Returns a list of the IDs of indexed documents.
      *
@@ -137,6 +436,17 @@ public class BasicIndex implements Index {
         return reader.getDocIds();
     }
 
+    /**
+     * Returns the number of indexed documents, the size of
+     * <code>getDocIds</code>, without building the list.
+     *
+     * @return the number of indexed documents.
+     */
+    @Override
+    public int getDocsCount() {
+        return reader.getDocsCount();
+    }
+
     /**
      * Returns a document given its Id.
      *
@@ -181,6 +491,104 @@ public class BasicIndex implements Index {
         return null;
     }
 
+    /**
+     * Returns the postings of a pair of adjacent terms, with the positions of
+     * the first one, if the index has a biword index.
+     *
+     * @param first first term of the pair.
+     * @param second second term of the pair.
+     * @return a list of the postings of the pair, empty if the pair does not
+     * occur, or null if the index has no biword index.
+     */
+    @Override
+    public List<Posting> getBiwordPostings(String first, String second) {
+        if (biwordReader == null) {
+            return null;
+        }
+        try {
+            List<Posting> lp = biwordReader.getTermPostings(IndexWriter.biword(first, second));
+            return lp != null ? lp : new ArrayList<>();
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the postings of a term and keeps them in memory, so that
+     * searches never read them from disk again.
+     *
+     * @param term term to pin.
+     * @return the estimated memory used by the postings of the term, in
+     * bytes, 0 if the term is not in the index or it was already pinned.
+     */
+    public long pinTermPostings(String term) {
+        try {
+            return reader.pinTermPostings(term);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * Releases the postings pinned in memory.
+     */
+    public void clearPinnedPostings() {
+        reader.clearPinnedPostings();
+    }
+
+    /**
+     * Returns the estimated memory used by the postings pinned in memory.
+     *
+     * @return the memory used by the pinned postings, in bytes.
+     */
+    public long getPinnedSize() {
+        return reader.getPinnedSize();
+    }
+
+    /**
+     * Returns the cache of the decoded postings of the terms read recently,
+     * shared by every searcher of the index.
+     *
+     * @return the cache of decoded postings.
+     */
+    public PostingsCache getPostingsCache() {
+        return reader.getPostingsCache();
+    }
+
+    /**
+     * Returns the number of indexed documents containing the given term.
+     *
+     * @param term Given term.
+     * @return the number of indexed documents containing the given term.
+     */
+    @Override
+    public int getTermDocFrequency(String term) {
+        try {
+            return reader.getTermDocFrequency(term);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the score bound of a term: the maximum of tf / docMod among its
+     * postings. Multiplied by the idf of the term, it bounds what the term adds
+     * to the TF-IDF score of a document.
+     *
+     * @param term Given term.
+     * @return the score bound of the term, infinite if the index has no
+     * bounds.
+     */
+    public double getTermBound(String term) {
+        return reader.getTermBound(term);
+    }
+
     /**
      * Returns a true if the index is loaded, false otherwise.
      *
@@ -204,6 +612,16 @@ public class BasicIndex implements Index {
         return reader.getDocModule(docId);
     }
 
+    /**
+     * Returns what the postings of the index store.
+     *
+     * @return the layout of the index.
+     */
+    @Override
+    public IndexLayout getLayout() {
+        return reader.getLayout();
+    }
+
     /**
      * Indexes the given file using the given writer.
      *
@@ -212,7 +630,7 @@ public class BasicIndex implements Index {
      * @param textParser the parser used to process documents.
      * @throws IOException If the file or directory cannot be indexed.
      */
-    private void indexDocuments(IndexWriter writer, File file, TextParser textParser) {
+    void indexDocuments(IndexWriter writer, File file, TextParser textParser) throws IOException {
 
         // Make the index if the file/directory is readable.
         if (file.canRead()) {
@@ -240,10 +658,6 @@ public class BasicIndex implements Index {
                         fis.read(byteContent);
                         //Add document to the index
                         writer.add(docname, textParser.parse(new String(byteContent), "\\s+"));
-
-                    } catch (IOException ex) {
-                        System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
-                        System.err.println(ex.getMessage());
                     }
                 }
         }
@@ -259,7 +673,7 @@ public class BasicIndex implements Index {
      * @param textParser the parser used to process documents.
      * @throws IOException If the file or directory cannot be indexed.
      */
-    private void indexZip(IndexWriter writer, File zipFile, TextParser textParser) {
+    private void indexZip(IndexWriter writer, File zipFile, TextParser textParser) throws IOException {
         ZipEntry ze;
         try (FileInputStream fis = new FileInputStream(zipFile);
                 ZipInputStream zis = new ZipInputStream(fis)) {
@@ -267,33 +681,71 @@ public class BasicIndex implements Index {
             while ((ze = zis.getNextEntry()) != null) {
 
                 String docname = zipFile.getPath() + "/" + ze.getName();
+                //add document to the index
+                writer.add(docname, textParser.parse(readEntry(zis)));
+            }
+        }
+    }
 
-                // read file
-                byte[] byteContent = new byte[2048];
-                int justRead;
-                String s = "";
-                while ((justRead = zis.read(byteContent)) > 0) {
-                    s += new String(byteContent, 0, justRead);
+    /**
+     * Indexes the entries of the zip file passed whose position in the central
+     * directory of the file lies in the range [fromEntry, toEntry). Used to
+     * index a slice of a large zip file.
+     *
+     * @param writer Writer to the path where the index will be stored.
+     * @param zipFile Zip file reading.
+     * @param textParser the parser used to process documents.
+     * @param fromEntry position of the first entry to index.
+     * @param toEntry position of the entry after the last one to index.
+     * @throws IOException If the zip file cannot be indexed.
+     */
+    void indexZipEntries(IndexWriter writer, File zipFile, TextParser textParser, int fromEntry, int toEntry) throws IOException {
+        try (ZipFile zf = new ZipFile(zipFile)) {
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            for (int i = 0; i < toEntry; i++) {
+                if (!entries.hasMoreElements()) {
+                    throw new IOException(zipFile.getPath() + " has " + i + " entries, " + toEntry + " expected");
+                }
+                ZipEntry ze = entries.nextElement();
+                if (i < fromEntry) {
+                    continue;
+                }
+                String docname = zipFile.getPath() + "/" + ze.getName();
+                String content;
+                try (InputStream is = zf.getInputStream(ze)) {
+                    content = readEntry(is);
                 }
                 //add document to the index
-                Date st = new Date();
-                writer.add(docname, textParser.parse(s));
-                Date end = new Date();
-
+                writer.add(docname, textParser.parse(content));
             }
-        } catch (IOException ex) {
-            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
-            System.err.println(ex.getMessage());
         }
     }
 
+    /**
+     * Reads the content of a zip entry. The bytes of the whole entry are
+     * decoded at once, so that characters split between two reads are kept.
+     *
+     * @param is stream positioned at the start of the entry.
+     * @return the content of the entry.
+     * @throws IOException If the entry cannot be read.
+     */
+    private static String readEntry(InputStream is) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] byteContent = new byte[2048];
+        int justRead;
+        while ((justRead = is.read(byteContent)) > 0) {
+            content.write(byteContent, 0, justRead);
+        }
+        return content.toString();
+    }
+
     /**
      * Returns true if file passed is a zip file, false otherwise.
      *
      * @param file file to test
      * @return true if file passed is a zip file, false otherwise.
      */
-    private boolean isZipFile(File file) {
+    boolean isZipFile(File file) {
         try (FileInputStream fis = new FileInputStream(file);
                 ZipInputStream zis = new ZipInputStream(fis)) {
             if (zis.getNextEntry() != null) {
@@ -313,20 +765,23 @@ public class BasicIndex implements Index {
      *
      * @param args The following arguments are used: "docs_path": Path to the
      * directory containing the documents to be indexed. "index_path": Path to
-     * the directory to store the index.
+     * the directory to store the index. Optionally followed by the options in
+     * <code>OPTIONS_USAGE</code>.
      */
     public static void main(String[] args) {
+        BasicIndex basicIndex = new BasicIndex();
+
         // Input control
-        if (args.length != 2) {
-            System.err.printf("Usage: %s docs_path index_path\n"
+        if (args.length < 2 || !basicIndex.setOptions(args, 2)) {
+            System.err.printf("Usage: %s docs_path index_path [options]\n"
                     + "\tdocs_path: Path to the directory containing the documents to be used.\n"
-                    + "\tindex_path: Path to a directory to store the index.\n",
+                    + "\tindex_path: Path to a directory to store the index.\n"
+                    + OPTIONS_USAGE,
                     BasicIndex.class.getSimpleName());
             return;
         }
 
         // Build the index
-        BasicIndex basicIndex = new BasicIndex();
         basicIndex.build(args[0], args[1], new BasicParser());
 
         System.out.print("Getting index stats...");
@@ -0,0 +1,733 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * BuildCoordinator class. Builds the index of a large collection with several
+ * local worker JVMs: the collection is split into slices, every slice is
+ * indexed by a <code>SliceIndexer</code> process and the partial indexes are
+ * merged with renumbered docIds by an <code>IndexMerger</code>.<br>
+ * All the coordination state lives in the <code>slices/</code> directory of the
+ * output index, so coordinators started on several machines sharing the same
+ * filesystem split the slices between them. Slices are claimed with lock
+ * files naming their owner, which renews them while it works. A lock not
+ * renewed for a while is taken to be abandoned and is taken over, so the
+ * slices of a coordinator that died are indexed by the others, and a
+ * coordinator run again in the same directory resumes the build: finished
+ * slices are kept and failed ones are run again.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class BuildCoordinator {
+
+    /* Name of the directory, inside the index, holding the coordination files */
+    private static final String WORK_DIR_NAME = "slices/";
+    /* Name of the file written when the slices have been planned */
+    private static final String PLAN_FILE_NAME = "plan";
+    /* Name of the lock used to plan the slices */
+    private static final String PLAN_LOCK_NAME = "plan.lock";
+    /* Name of the lock used to merge the partial indexes */
+    private static final String MERGE_LOCK_NAME = "merge.lock";
+    /* Name format of the files listing the units of each slice */
+    private static final String SLICE_FILE_FORMAT = "slice_%d.list";
+    /* Name format of the partial index of each slice */
+    private static final String SLICE_INDEX_FORMAT = "slice_%d/";
+    /* Suffixes of the state files of each slice */
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String DONE_SUFFIX = ".done";
+    private static final String FAILED_SUFFIX = ".failed";
+    private static final String LOG_SUFFIX = ".log";
+
+    /* Default number of times a failed slice is run again */
+    private static final int DEFAULT_RETRIES = 2;
+    /* Milliseconds between two checks of the work of other coordinators */
+    private static final int POLL_INTERVAL = 1000;
+    /* Default milliseconds after the last renewal of a lock when it is
+        taken to be abandoned */
+    private static final long DEFAULT_LOCK_TIMEOUT = 60 * 1000;
+    /* Number of times a lock is renewed within its timeout */
+    private static final int RENEWALS_PER_TIMEOUT = 6;
+
+    /* Path to the collection */
+    private final String collectionPath;
+    /* Path to save index */
+    private String indexPath;
+    /* Directory holding the coordination files */
+    private final String workPath;
+    /* Name of the parser used by the workers */
+    private final String parserName;
+    /* Number of worker JVMs run at the same time */
+    private final int workers;
+    /* Number of slices the collection is split into */
+    private final int slices;
+    /* Number of times a failed slice is run again */
+    private int retries = DEFAULT_RETRIES;
+    /* Extra JVM options for the workers, for instance the heap size */
+    private final List<String> workerOptions = new ArrayList<>();
+    /* Milliseconds after the last renewal of a lock when it is abandoned */
+    private long lockTimeout = DEFAULT_LOCK_TIMEOUT;
+
+    /* Owner written in the locks of this coordinator */
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName();
+    /* Locks held by this coordinator, renewed periodically */
+    private final Set<File> heldLocks = ConcurrentHashMap.newKeySet();
+
+    /* Number of slices finished by this coordinator */
+    private final AtomicInteger finishedSlices = new AtomicInteger();
+    /* Set when a slice has failed more than <code>retries</code> times */
+    private volatile boolean failed = false;
+
+    /**
+     * Default constructor for <code>BuildCoordinator</code> class.
+     *
+     * @param collectionPath path to the collection to index.
+     * @param indexPath path to save the final index to.
+     * @param parserName name of the parser, as accepted by
+     * <code>SliceIndexer.parserFor</code>.
+     * @param workers number of worker JVMs run at the same time.
+     * @param slices number of slices the collection is split into.
+     */
+    public BuildCoordinator(String collectionPath, String indexPath, String parserName, int workers, int slices) {
+        this.collectionPath = collectionPath;
+        this.indexPath = indexPath;
+        if (!indexPath.endsWith("/")) {
+            this.indexPath += "/";
+        }
+        this.workPath = this.indexPath + WORK_DIR_NAME;
+        this.parserName = parserName;
+        this.workers = workers;
+        this.slices = slices;
+    }
+
+    /**
+     * Sets the number of times a failed slice is run again.
+     *
+     * @param retries number of retries.
+     */
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Sets the time after which a lock that has not been renewed is taken to
+     * be abandoned by a coordinator that died, and is taken over.
+     *
+     * @param lockTimeout timeout of the locks, in milliseconds.
+     */
+    public void setLockTimeout(long lockTimeout) {
+        this.lockTimeout = lockTimeout;
+    }
+
+    /**
+     * Adds a JVM option passed to every worker, for instance "-Xmx4g".
+     *
+     * @param option JVM option.
+     */
+    public void addWorkerOption(String option) {
+        workerOptions.add(option);
+    }
+
+    /**
+     * Builds the index: plans the slices (or waits for another coordinator to
+     * do it), indexes every unclaimed slice, waits for the slices of other
+     * coordinators and merges the partial indexes.
+     *
+     * @return true if the final index has been built, false on error.
+     * @throws java.io.IOException
+     * @throws java.lang.InterruptedException
+     */
+    public boolean build() throws IOException, InterruptedException {
+        new File(workPath).mkdirs();
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lock-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long renewalInterval = Math.max(1, lockTimeout / RENEWALS_PER_TIMEOUT);
+        heartbeat.scheduleWithFixedDelay(this::renewLocks, renewalInterval, renewalInterval, TimeUnit.MILLISECONDS);
+        try {
+            return build(heartbeat);
+        } finally {
+            heartbeat.shutdownNow();
+            heldLocks.clear();
+        }
+    }
+
+    /**
+     * Builds the index while the locks of this coordinator are renewed by the
+     * given heartbeat.
+     */
+    private boolean build(ScheduledExecutorService heartbeat) throws IOException, InterruptedException {
+        int plannedSlices = plan();
+        if (plannedSlices == 0) {
+            System.err.println("No documents found in " + collectionPath);
+            return false;
+        }
+
+        // Slices that failed in a previous run are run again.
+        for (int slice = 0; slice < plannedSlices; slice++) {
+            String prefix = workPath + String.format(SLICE_FILE_FORMAT, slice);
+            if (new File(prefix + FAILED_SUFFIX).delete()) {
+                System.out.println("Slice " + slice + " failed in a previous run, retrying it.");
+            }
+        }
+
+        // Run the workers.
+        ExecutorService execServ = Executors.newFixedThreadPool(Math.min(workers, plannedSlices));
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < Math.min(workers, plannedSlices); w++) {
+            futures.add(execServ.submit(() -> {
+                for (int slice = 0; slice < plannedSlices && !failed; slice++) {
+                    if (claim(slice)) {
+                        runClaimedSlice(slice, plannedSlices);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                System.err.println("Exception caught while running a worker: " + ex.getCause().getClass().getSimpleName());
+                System.err.println(ex.getCause().getMessage());
+                failed = true;
+            }
+        }
+        execServ.shutdown();
+
+        // Wait for the slices claimed by other coordinators.
+        if (!failed && !waitForSlices(plannedSlices)) {
+            failed = true;
+        }
+        if (failed) {
+            System.err.println("Index build failed, see the logs in " + workPath);
+            return false;
+        }
+
+        // Only one coordinator merges the partial indexes.
+        File mergeLock = new File(workPath + MERGE_LOCK_NAME);
+        if (!acquire(mergeLock)) {
+            System.out.println("Partial indexes are being merged by another coordinator.");
+            return true;
+        }
+        System.out.println("Merging " + plannedSlices + " partial indexes...");
+        long start = System.nanoTime();
+        List<String> partialIndexes = new ArrayList<>();
+        for (int slice = 0; slice < plannedSlices; slice++) {
+            partialIndexes.add(workPath + String.format(SLICE_INDEX_FORMAT, slice));
+        }
+        try {
+            new IndexMerger(indexPath).merge(partialIndexes);
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Partial index is corrupted: " + ex.getMessage());
+        } finally {
+            release(mergeLock);
+        }
+        System.out.println("Merged in " + (System.nanoTime() - start) / 1e6 + " milliseconds");
+        heartbeat.shutdownNow();
+        deleteRecursively(new File(workPath));
+        return true;
+    }
+
+    /**
+     * Splits the collection into slices, writing one file per slice. If
+     * another coordinator is already planning, waits for its plan.
+     *
+     * @return the number of slices planned.
+     */
+    private int plan() throws IOException, InterruptedException {
+        File planFile = new File(workPath + PLAN_FILE_NAME);
+        File planLock = new File(workPath + PLAN_LOCK_NAME);
+        // Wait for the plan, unless no other coordinator is writing it.
+        while (!planFile.exists()) {
+            if (!acquire(planLock)) {
+                Thread.sleep(POLL_INTERVAL);
+                continue;
+            }
+            try {
+                if (!planFile.exists()) {
+                    // List every unit of the collection with its size in bytes.
+                    List<String> units = new ArrayList<>();
+                    List<Long> weights = new ArrayList<>();
+                    listUnits(new File(collectionPath), units, weights);
+
+                    // Group consecutive units into slices of similar size.
+                    List<List<String>> sliceUnits = split(units, weights, slices);
+                    for (int slice = 0; slice < sliceUnits.size(); slice++) {
+                        writeLines(new File(workPath + String.format(SLICE_FILE_FORMAT, slice)), sliceUnits.get(slice));
+                    }
+                    writeLines(planFile, Arrays.asList(Integer.toString(sliceUnits.size())));
+                    System.out.println("Collection split into " + sliceUnits.size() + " slices.");
+                }
+            } finally {
+                release(planLock);
+            }
+        }
+        return Integer.parseInt(Files.readAllLines(planFile.toPath(), StandardCharsets.UTF_8).get(0).trim());
+    }
+
+    /**
+     * Groups consecutive units into slices of similar size. Consecutive
+     * entries of the same zip file in a slice are joined into a single unit,
+     * so that the zip file is opened and scanned once per slice.
+     *
+     * @param units units of the collection, in indexing order.
+     * @param weights size of each unit.
+     * @param slices number of slices wanted.
+     * @return the units of every slice, at most <code>slices</code> slices.
+     */
+    static List<List<String>> split(List<String> units, List<Long> weights, int slices) {
+        long totalWeight = 0;
+        for (long weight : weights) {
+            totalWeight += weight;
+        }
+        List<List<String>> result = new ArrayList<>();
+        int nSlices = Math.min(slices, units.size());
+        long accumulated = 0;
+        List<String> sliceUnits = new ArrayList<>();
+        for (int i = 0; i < units.size(); i++) {
+            sliceUnits.add(units.get(i));
+            accumulated += weights.get(i);
+            int remainingUnits = units.size() - i - 1;
+            int remainingSlices = nSlices - result.size() - 1;
+            boolean full = accumulated * nSlices >= totalWeight * (result.size() + 1);
+            if ((full && remainingUnits >= remainingSlices) || remainingUnits == remainingSlices) {
+                result.add(joinZipUnits(sliceUnits));
+                sliceUnits = new ArrayList<>();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Joins consecutive units covering adjacent entries of the same zip file
+     * into a single unit covering all of them.
+     *
+     * @param units units of a slice, in indexing order.
+     * @return the units of the slice, with adjacent zip entries joined.
+     */
+    static List<String> joinZipUnits(List<String> units) {
+        List<String> result = new ArrayList<>();
+        String[] last = null;
+        for (String unit : units) {
+            String[] fields = unit.split(SliceIndexer.UNIT_SEPARATOR);
+            if (last != null && fields[0].equals(SliceIndexer.ZIP_UNIT) && last[0].equals(SliceIndexer.ZIP_UNIT)
+                    && fields[1].equals(last[1]) && fields[2].equals(last[3])) {
+                last[3] = fields[3];
+                result.set(result.size() - 1, String.join(SliceIndexer.UNIT_SEPARATOR, last));
+            } else {
+                last = fields;
+                result.add(unit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists the units of the collection in the same order the documents would
+     * be indexed by <code>BasicIndex</code>. Every zip entry is a unit, every
+     * other file is a unit.
+     *
+     * @param file file or directory to list.
+     * @param units list where units are added.
+     * @param weights list where the size of each unit is added.
+     */
+    static void listUnits(File file, List<String> units, List<Long> weights) {
+        if (!file.canRead()) {
+            return;
+        }
+        if (file.isDirectory()) {
+            String[] files = file.list();
+            if (files != null) {
+                for (String fileInside : files) {
+                    listUnits(new File(file, fileInside), units, weights);
+                }
+            }
+            return;
+        }
+        try (ZipFile zf = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            int entry = 0;
+            while (entries.hasMoreElements()) {
+                ZipEntry ze = entries.nextElement();
+                units.add(SliceIndexer.ZIP_UNIT + SliceIndexer.UNIT_SEPARATOR + file.getPath()
+                        + SliceIndexer.UNIT_SEPARATOR + entry + SliceIndexer.UNIT_SEPARATOR + (entry + 1));
+                weights.add(Math.max(1, ze.getCompressedSize()));
+                entry++;
+            }
+            return;
+        } catch (IOException ex) {
+            // Not a zip file, index it as a whole.
+        }
+        units.add(SliceIndexer.FILE_UNIT + SliceIndexer.UNIT_SEPARATOR + file.getPath());
+        weights.add(Math.max(1, file.length()));
+    }
+
+    /**
+     * Tries to claim a slice for this coordinator: the slice is claimed if it
+     * is neither finished nor failed and its lock is free or abandoned.
+     *
+     * @param slice number of the slice.
+     * @return true if the slice has been claimed.
+     */
+    private boolean claim(int slice) throws IOException {
+        String prefix = workPath + String.format(SLICE_FILE_FORMAT, slice);
+        File done = new File(prefix + DONE_SUFFIX);
+        File failedFile = new File(prefix + FAILED_SUFFIX);
+        if (done.exists() || failedFile.exists()) {
+            return false;
+        }
+        File lock = new File(prefix + LOCK_SUFFIX);
+        if (!acquire(lock)) {
+            return false;
+        }
+        // The slice might have been finished by the previous owner of the lock.
+        if (done.exists() || failedFile.exists()) {
+            release(lock);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indexes a slice claimed by this coordinator, marking it as failed if it
+     * cannot be indexed.
+     *
+     * @param slice number of the slice.
+     * @param plannedSlices total number of slices.
+     */
+    private void runClaimedSlice(int slice, int plannedSlices) throws IOException, InterruptedException {
+        try {
+            runSlice(slice, plannedSlices);
+        } catch (Exception ex) {
+            markFailed(slice);
+            throw ex;
+        }
+    }
+
+    /**
+     * Indexes a slice in a worker JVM, running it again when it fails.
+     *
+     * @param slice number of the slice.
+     * @param plannedSlices total number of slices.
+     */
+    private void runSlice(int slice, int plannedSlices) throws IOException, InterruptedException {
+        String prefix = workPath + String.format(SLICE_FILE_FORMAT, slice);
+        String sliceIndexPath = workPath + String.format(SLICE_INDEX_FORMAT, slice);
+        File log = new File(prefix + LOG_SUFFIX);
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(workerOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(SliceIndexer.class.getName());
+        command.add(prefix);
+        command.add(sliceIndexPath);
+        command.add(parserName);
+
+        for (int attempt = 1; attempt <= retries + 1; attempt++) {
+            deleteRecursively(new File(sliceIndexPath));
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+                    .start();
+            int exitCode;
+            try {
+                exitCode = process.waitFor();
+            } finally {
+                process.destroy();
+            }
+            long end = System.nanoTime();
+            if (exitCode == 0) {
+                new File(prefix + DONE_SUFFIX).createNewFile();
+                release(new File(prefix + LOCK_SUFFIX));
+                System.out.printf("[%d/%d] slice %d indexed in %.2f seconds (attempt %d)\n",
+                        finishedSlices.incrementAndGet(), plannedSlices, slice, (end - start) / 1e9, attempt);
+                return;
+            }
+            System.err.printf("Slice %d failed with exit code %d (attempt %d of %d), see %s\n",
+                    slice, exitCode, attempt, retries + 1, log.getPath());
+        }
+        markFailed(slice);
+    }
+
+    /**
+     * Marks a slice claimed by this coordinator as failed and releases its
+     * lock, so that coordinators run again in the same directory retry it.
+     *
+     * @param slice number of the slice.
+     */
+    private void markFailed(int slice) {
+        String prefix = workPath + String.format(SLICE_FILE_FORMAT, slice);
+        failed = true;
+        try {
+            new File(prefix + FAILED_SUFFIX).createNewFile();
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+        release(new File(prefix + LOCK_SUFFIX));
+    }
+
+    /**
+     * Waits until every slice is done, indexing the slices abandoned by
+     * coordinators that died.
+     *
+     * @param plannedSlices total number of slices.
+     * @return true when every slice is done, false if any of them failed.
+     */
+    private boolean waitForSlices(int plannedSlices) throws IOException, InterruptedException {
+        boolean reported = false;
+        for (int slice = 0; slice < plannedSlices; slice++) {
+            String prefix = workPath + String.format(SLICE_FILE_FORMAT, slice);
+            while (!new File(prefix + DONE_SUFFIX).exists()) {
+                if (new File(prefix + FAILED_SUFFIX).exists()) {
+                    return false;
+                }
+                if (claim(slice)) {
+                    System.out.println("Slice " + slice + " was abandoned by its coordinator, indexing it.");
+                    runClaimedSlice(slice, plannedSlices);
+                    continue;
+                }
+                if (!reported) {
+                    System.out.println("Waiting for slices indexed by other coordinators...");
+                    reported = true;
+                }
+                Thread.sleep(POLL_INTERVAL);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tries to take a lock for this coordinator: the lock is taken if it does
+     * not exist or if its owner has not renewed it within the lock timeout.
+     * Locks taken are renewed until they are released.
+     *
+     * @param lock lock file.
+     * @return true if the lock has been taken.
+     */
+    private boolean acquire(File lock) throws IOException {
+        if (!lock.createNewFile() && !takeOver(lock)) {
+            return false;
+        }
+        writeLines(lock, Arrays.asList(owner, Long.toString(System.currentTimeMillis())));
+        heldLocks.add(lock);
+        return true;
+    }
+
+    /**
+     * Removes a lock abandoned by its owner and creates it again for this
+     * coordinator. The lock is first renamed, which only one coordinator can
+     * do, and given back if it was renewed in the meantime.
+     *
+     * @param lock lock file.
+     * @return true if the lock has been created again by this coordinator.
+     */
+    private boolean takeOver(File lock) throws IOException {
+        List<String> lines = readLock(lock);
+        if (lines == null || System.currentTimeMillis() - getRenewalTime(lock, lines) < lockTimeout) {
+            return false;
+        }
+        File expired = new File(lock.getPath() + "." + owner + ".expired");
+        try {
+            Files.move(lock.toPath(), expired.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            return false; // taken over by another coordinator
+        }
+        if (!lines.equals(readLock(expired))) {
+            try {
+                Files.move(expired.toPath(), lock.toPath());
+            } catch (IOException ex) {
+                expired.delete(); // the lock has been created again
+            }
+            return false;
+        }
+        expired.delete();
+        System.err.println("Lock " + lock.getName() + " of " + (lines.isEmpty() ? "unknown owner" : lines.get(0))
+                + " not renewed in " + lockTimeout + " milliseconds, taking it over.");
+        return lock.createNewFile();
+    }
+
+    /**
+     * Releases a lock of this coordinator.
+     *
+     * @param lock lock file.
+     */
+    private void release(File lock) {
+        heldLocks.remove(lock);
+        lock.delete();
+    }
+
+    /**
+     * Renews the locks held by this coordinator, forgetting those taken over
+     * by other coordinators.
+     */
+    private void renewLocks() {
+        for (File lock : heldLocks) {
+            try {
+                List<String> lines = readLock(lock);
+                if (lines == null || lines.isEmpty() || !lines.get(0).equals(owner)) {
+                    heldLocks.remove(lock);
+                    System.err.println("Lock " + lock.getName() + " was taken over by another coordinator.");
+                    continue;
+                }
+                writeLines(lock, Arrays.asList(owner, Long.toString(System.currentTimeMillis())));
+            } catch (IOException ex) {
+                System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+                System.err.println(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the lines of a lock: its owner and the time of its last renewal.
+     *
+     * @param lock lock file.
+     * @return the lines of the lock, null if it does not exist.
+     */
+    private static List<String> readLock(File lock) throws IOException {
+        try {
+            return Files.readAllLines(lock.toPath(), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the time of the last renewal of a lock, the time it was
+     * modified if it has not been written yet.
+     */
+    private static long getRenewalTime(File lock, List<String> lines) {
+        try {
+            return Long.parseLong(lines.get(1));
+        } catch (IndexOutOfBoundsException | NumberFormatException ex) {
+            return lock.lastModified();
+        }
+    }
+
+    /**
+     * Writes the given lines to a file, replacing it atomically.
+     *
+     * @param f file to write.
+     * @param lines lines to write.
+     */
+    private static void writeLines(File f, List<String> lines) throws IOException {
+        File tmp = File.createTempFile(f.getName(), ".tmp", f.getParentFile());
+        try (FileWriter fw = new FileWriter(tmp, false)) {
+            for (String line : lines) {
+                fw.write(line + "\n");
+            }
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes a file or a directory with all its content.
+     *
+     * @param file file or directory to delete.
+     */
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File fileInside : files) {
+                deleteRecursively(fileInside);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Main method for BuildCoordinator.
+     *
+     * @param args The following arguments are used: "docs_path": Path to the
+     * directory containing the documents to be indexed. "index_path": Path to
+     * the directory to store the index. "parser": basic, stopword or stem.
+     * "workers": number of worker JVMs. "slices": number of slices (by default,
+     * four per worker). Any further argument is passed to the workers as a JVM
+     * option.
+     */
+    public static void main(String[] args) {
+        // Input control
+        if (args.length < 4 || SliceIndexer.parserFor(args[2]) == null) {
+            System.err.printf("Usage: %s docs_path index_path parser workers [slices [jvm_option ...]]\n"
+                    + "\tdocs_path: Path to the directory containing the documents to be used.\n"
+                    + "\tindex_path: Path to a directory to store the index.\n"
+                    + "\tparser: One of %s, %s or %s.\n"
+                    + "\tworkers: Number of worker JVMs to run at the same time.\n"
+                    + "\tslices: Number of slices to split the collection into.\n"
+                    + "\tjvm_option: Option for the worker JVMs, e.g. -Xmx4g.\n",
+                    BuildCoordinator.class.getSimpleName(), SliceIndexer.BASIC_PARSER,
+                    SliceIndexer.STOPWORD_PARSER, SliceIndexer.STEM_PARSER);
+            return;
+        }
+
+        BuildCoordinator coordinator;
+        try {
+            int workers = Integer.parseInt(args[3]);
+            int slices = args.length > 4 ? Integer.parseInt(args[4]) : 4 * workers;
+            coordinator = new BuildCoordinator(args[0], args[1], args[2], workers, slices);
+        } catch (NumberFormatException ex) {
+            System.err.println("workers and slices must be numbers: " + ex.getMessage());
+            return;
+        }
+        for (int i = 5; i < args.length; i++) {
+            coordinator.addWorkerOption(args[i]);
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (coordinator.build()) {
+                System.out.println((System.nanoTime() - start) / 1e6 + " total milliseconds");
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        } catch (InterruptedException ex) {
+            System.err.println("Exception caught while waiting for the workers: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+    }
+}
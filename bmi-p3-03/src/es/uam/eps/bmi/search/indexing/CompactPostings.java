@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list of the postings of a term, decoded once into an array of
+ * ints with the layout of the index, plus the start of every posting.
+ * Postings are built when they are accessed, with a read-only view of their
+ * positions, so the list takes far less memory than a list of
+ * <code>Posting</code> objects. Its docIds, frequencies and positions can
+ * also be read without building the postings.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class CompactPostings extends PostingList {
+
+    /* Term of the postings */
+    private final String term;
+    /* Layout of the postings */
+    private final IndexLayout layout;
+    /* Postings, as stored in the index */
+    private final int[] data;
+    /* Start of every posting in the data */
+    private final int[] starts;
+
+    /**
+     * Decodes the raw postings of a term.
+     *
+     * @param term term of the postings.
+     * @param array raw postings, as stored in the index.
+     * @param layout layout of the index.
+     */
+    public CompactPostings(String term, byte[] array, IndexLayout layout) {
+        this.term = term;
+        this.layout = layout;
+        IntBuffer lb = ByteBuffer.wrap(array).asIntBuffer();
+        data = new int[lb.limit()];
+        lb.get(data);
+        int count = 0;
+        for (int i = 0; i < data.length; i += layout.postingLength(lb, i)) {
+            count++;
+        }
+        starts = new int[count];
+        for (int i = 0, p = 0; i < data.length; i += layout.postingLength(lb, i)) {
+            starts[p++] = i;
+        }
+    }
+
+    /**
+     * Returns the term of the postings.
+     *
+     * @return the term of the postings.
+     */
+    public String getTerm() {
+        return term;
+    }
+
+    /**
+     * Returns the posting at the given position of the list.
+     *
+     * @param index position of the posting.
+     * @return the posting at the given position.
+     */
+    @Override
+    public Posting get(int index) {
+        int start = starts[index];
+        if (!layout.hasPositions()) {
+            return new Posting(term, data[start], getTermFrequency(index));
+        }
+        return new Posting(term, data[start], new Positions(start + 2, data[start + 1]));
+    }
+
+    /**
+     * Returns the number of postings.
+     *
+     * @return the number of postings.
+     */
+    @Override
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Returns the docId of the posting at the given position of the list.
+     *
+     * @param index position of the posting.
+     * @return the docId of the posting.
+     */
+    @Override
+    public int getDocID(int index) {
+        return data[starts[index]];
+    }
+
+    /**
+     * Returns the term frequency of the posting at the given position of the
+     * list.
+     *
+     * @param index position of the posting.
+     * @return the term frequency of the posting.
+     */
+    @Override
+    public int getTermFrequency(int index) {
+        return layout == IndexLayout.DOCS ? 1 : data[starts[index] + 1];
+    }
+
+    /**
+     * Returns the number of positions stored for the posting at the given
+     * position of the list.
+     *
+     * @param index position of the posting.
+     * @return the number of positions of the posting, 0 if the index does not
+     * store positions.
+     */
+    @Override
+    public int getPositionsCount(int index) {
+        return layout.hasPositions() ? data[starts[index] + 1] : 0;
+    }
+
+    /**
+     * Copies the positions of the posting at the given position of the list
+     * to the start of the given array, or of a larger one if it does not fit
+     * them.
+     *
+     * @param index position of the posting.
+     * @param buffer array to copy the positions to, may be null.
+     * @return the array holding the positions, <code>buffer</code> if they
+     * fit in it.
+     */
+    @Override
+    public int[] getPositions(int index, int[] buffer) {
+        int count = getPositionsCount(index);
+        buffer = ensureCapacity(buffer, count);
+        System.arraycopy(data, starts[index] + 2, buffer, 0, count);
+        return buffer;
+    }
+
+    /**
+     * Returns an estimate of the heap memory used by the list, in bytes.
+     *
+     * @return the estimated size of the list in memory.
+     */
+    public long getMemorySize() {
+        return 32 + (16 + 4L * data.length) + (16 + 4L * starts.length);
+    }
+
+    /**
+     * Read-only view of the positions of a posting.
+     */
+    private class Positions extends AbstractList<Integer> implements RandomAccess {
+
+        private final int offset;
+        private final int size;
+
+        private Positions(int offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return data[offset + index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import es.uam.eps.bmi.search.ranking.graph.PageRank;
+import es.uam.eps.bmi.util.MinHash;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * DocIdReassigner class. Renumbers the documents of a finished index so that
+ * documents likely to share terms get close docIds, which makes docId gaps
+ * smaller for gap based codecs, or so that documents with a high static score
+ * come first, which lets searchers stop early.<br>
+ * Postings, document map and modules are rewritten with the new numbering,
+ * and so are the biword index and the stored documents, if any; the order
+ * used is recorded in the metadata of the new index. Pruned and impact
+ * ordered copies are not carried over and must be built again.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class DocIdReassigner {
+
+    /**
+     * Orders the documents can be renumbered in.
+     */
+    public enum Order {
+        /* Document names (paths or URLs) in lexicographic order */
+        NAME,
+        /* Decreasing static score (PageRank), unranked documents last */
+        STATIC,
+        /* Documents with similar sets of terms together, sorting by MinHash
+            signatures of their terms */
+        CLUSTER
+    }
+
+    /* Number of MinHash components used to sort documents by cluster */
+    private static final int CLUSTER_HASHES = 4;
+    /* Seed of the hash functions */
+    private static final long SEED = 0x5eed;
+
+    /* Size of the buffers used to stream index files */
+    private static final int BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /* Path to save renumbered index */
+    private String indexPath;
+
+    /* Layout of the index being renumbered */
+    private IndexLayout layout;
+
+    /* Static scores of the documents, used by Order.STATIC */
+    private PageRank staticScores = null;
+
+    /* Size of the postings using variable byte docId gaps, before and after */
+    private long gapBytesIn = 0;
+    private long gapBytesOut = 0;
+
+    /**
+     * Default constructor for <code>DocIdReassigner</code> class.
+     *
+     * @param indexPath path to save the renumbered index to.
+     */
+    public DocIdReassigner(String indexPath) {
+        this.indexPath = indexPath;
+        if (!indexPath.endsWith("/")) {
+            this.indexPath += "/";
+        }
+    }
+
+    /**
+     * Sets the static scores used by <code>Order.STATIC</code>. Documents are
+     * looked up by their file name without extension.
+     *
+     * @param staticScores loaded PageRank scores.
+     */
+    public void setStaticScores(PageRank staticScores) {
+        this.staticScores = staticScores;
+    }
+
+    /**
+     * Renumbers the documents of the given index in the given order, storing
+     * the result in the path given to the constructor.
+     *
+     * @param inputIndexPath path to the finished index to renumber.
+     * @param order order of the new docIds.
+     * @throws java.io.IOException
+     * @throws java.lang.ClassNotFoundException
+     */
+    public void reassign(String inputIndexPath, Order order) throws IOException, ClassNotFoundException {
+        if (!inputIndexPath.endsWith("/")) {
+            inputIndexPath += "/";
+        }
+        if (order == Order.STATIC && staticScores == null) {
+            throw new IllegalStateException("Static scores are needed to renumber by " + order);
+        }
+        TreeMap<Integer, String> docsmap = IndexReader.readObject(inputIndexPath + IndexWriter.DOCMAP_FILE_NAME);
+        double[] docMod = IndexReader.readObject(inputIndexPath + IndexWriter.DOC_MODULES_FILE_NAME);
+        IndexMetadata metadata = IndexMetadata.read(inputIndexPath);
+        layout = IndexLayout.of(metadata);
+
+        // Sort the documents and number them in that order.
+        Integer[] sorted = docsmap.keySet().toArray(new Integer[0]);
+        Arrays.sort(sorted, comparator(inputIndexPath, order, docsmap));
+        int[] docIdMap = new int[docMod.length];
+        Arrays.fill(docIdMap, -1);
+        for (int newDocId = 0; newDocId < sorted.length; newDocId++) {
+            docIdMap[sorted[newDocId]] = newDocId;
+        }
+
+        // Renumber the index and its biword index, which shares its docIds.
+        gapBytesIn = gapBytesOut = 0;
+        renumberIndex(inputIndexPath, indexPath, sorted, docIdMap, docMod);
+        if (new File(inputIndexPath + IndexWriter.BIWORD_INDEX_FOLDER).exists()) {
+            String biwordPath = inputIndexPath + IndexWriter.BIWORD_INDEX_FOLDER;
+            IndexMetadata biwordMetadata = IndexMetadata.read(biwordPath);
+            layout = IndexLayout.of(biwordMetadata);
+            renumberIndex(biwordPath, indexPath + IndexWriter.BIWORD_INDEX_FOLDER, sorted, docIdMap,
+                    IndexReader.<double[]>readObject(biwordPath + IndexWriter.DOC_MODULES_FILE_NAME));
+            biwordMetadata.set(IndexMetadata.DOCID_ORDER_KEY, order.name());
+            biwordMetadata.write(indexPath + IndexWriter.BIWORD_INDEX_FOLDER);
+            layout = IndexLayout.of(metadata);
+        }
+
+        // Rewrite the stored documents in the new order.
+        if (DocumentStoreReader.exists(inputIndexPath)) {
+            DocumentStoreReader storeReader = new DocumentStoreReader(inputIndexPath);
+            DocumentStoreWriter storeWriter = new DocumentStoreWriter(indexPath);
+            try {
+                for (int newDocId = 0; newDocId < sorted.length; newDocId++) {
+                    String text = storeReader.getText(sorted[newDocId]);
+                    if (text != null) {
+                        storeWriter.add(newDocId, text.split(" "));
+                    }
+                }
+            } finally {
+                storeReader.close();
+                storeWriter.close();
+            }
+        }
+
+        // Folders derived from the postings are not renumbered.
+        for (String derived : new String[]{IndexPruner.PRUNED_INDEX_FOLDER, ImpactIndexConverter.IMPACT_INDEX_FOLDER}) {
+            if (new File(inputIndexPath + derived).exists()) {
+                System.err.println("Warning: " + inputIndexPath + derived + " is not carried over, build it again from the renumbered index.");
+            }
+        }
+
+        metadata.set(IndexMetadata.DOCID_ORDER_KEY, order.name());
+        metadata.write(indexPath);
+    }
+
+    /**
+     * Rewrites the postings, document map, modules and aliases of an index
+     * with the given numbering.
+     *
+     * @param inputIndexPath path to the index to renumber.
+     * @param outputIndexPath path to save the renumbered index to.
+     * @param sorted old docIds, in the new order.
+     * @param docIdMap map from old docIds to new ones.
+     * @param docMod modules of the documents of the index to renumber.
+     */
+    private void renumberIndex(String inputIndexPath, String outputIndexPath, Integer[] sorted, int[] docIdMap,
+            double[] docMod) throws IOException, ClassNotFoundException {
+        TreeMap<Integer, String> docsmap = IndexReader.readObject(inputIndexPath + IndexWriter.DOCMAP_FILE_NAME);
+        new File(outputIndexPath).mkdirs();
+
+        // Rewrite the postings. Entries keep their size, and so the offsets of
+        // the terms.
+        try (IndexEntryInput in = new IndexEntryInput(new File(inputIndexPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE);
+                IndexEntryOutput out = new IndexEntryOutput(new File(outputIndexPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            IndexEntry ie;
+            while ((ie = in.read()) != null) {
+                byte[] array = ie.getRawPostingsData();
+                gapBytesIn += gapSize(array);
+                byte[] renumbered = renumberPostings(array, docIdMap);
+                gapBytesOut += gapSize(renumbered);
+
+                out.write(ie.getTerm(), renumbered);
+            }
+        }
+        Files.copy(new File(inputIndexPath + IndexWriter.TERMOFF_FILE_NAME).toPath(),
+                new File(outputIndexPath + IndexWriter.TERMOFF_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (new File(inputIndexPath + IndexPruner.DOC_FREQS_FILE_NAME).exists()) {
+            Files.copy(new File(inputIndexPath + IndexPruner.DOC_FREQS_FILE_NAME).toPath(),
+                    new File(outputIndexPath + IndexPruner.DOC_FREQS_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Renumber the document files.
+        TreeMap<Integer, String> newDocsmap = new TreeMap<>();
+        double[] newDocMod = new double[sorted.length];
+        for (int newDocId = 0; newDocId < sorted.length; newDocId++) {
+            newDocsmap.put(newDocId, docsmap.get(sorted[newDocId]));
+            newDocMod[newDocId] = docMod[sorted[newDocId]];
+        }
+        writeObject(outputIndexPath + IndexWriter.DOCMAP_FILE_NAME, newDocsmap);
+        writeObject(outputIndexPath + IndexWriter.DOC_MODULES_FILE_NAME, newDocMod);
+        TermBounds.write(outputIndexPath, newDocMod, layout);
+        if (new File(inputIndexPath + IndexWriter.ALIASES_FILE_NAME).exists()) {
+            TreeMap<Integer, List<String>> aliases = IndexReader.readObject(inputIndexPath + IndexWriter.ALIASES_FILE_NAME);
+            TreeMap<Integer, List<String>> newAliases = new TreeMap<>();
+            for (Map.Entry<Integer, List<String>> entry : aliases.entrySet()) {
+                newAliases.put(docIdMap[entry.getKey()], entry.getValue());
+            }
+            writeObject(outputIndexPath + IndexWriter.ALIASES_FILE_NAME, newAliases);
+        }
+    }
+
+    /**
+     * Returns a comparator of old docIds sorting them in the given order.
+     *
+     * @param inputIndexPath path to the input index.
+     * @param order order of the new docIds.
+     * @param docsmap document map of the input index.
+     * @return a comparator of old docIds.
+     */
+    private Comparator<Integer> comparator(String inputIndexPath, Order order, TreeMap<Integer, String> docsmap) throws IOException {
+        switch (order) {
+            case NAME:
+                return Comparator.comparing((Integer docId) -> docsmap.get(docId)).thenComparing(docId -> docId);
+            case STATIC:
+                double[] scores = new double[docsmap.isEmpty() ? 0 : docsmap.lastKey() + 1];
+                for (Map.Entry<Integer, String> doc : docsmap.entrySet()) {
+                    scores[doc.getKey()] = staticScores.getScoreOf(baseName(doc.getValue()));
+                }
+                return Comparator.comparingDouble((Integer docId) -> -scores[docId]).thenComparing(docId -> docId);
+            default:
+                int[][] signatures = termSignatures(inputIndexPath, docsmap);
+                return (Integer d1, Integer d2) -> {
+                    for (int i = 0; i < CLUSTER_HASHES; i++) {
+                        int comparison = Integer.compare(signatures[d1][i], signatures[d2][i]);
+                        if (comparison != 0) {
+                            return comparison;
+                        }
+                    }
+                    return Integer.compare(d1, d2);
+                };
+        }
+    }
+
+    /**
+     * Computes, in a pass over the index, the MinHash signature of the set of
+     * terms of every document.
+     *
+     * @param inputIndexPath path to the input index.
+     * @param docsmap document map of the input index.
+     * @return signatures of the documents, by docId.
+     */
+    private int[][] termSignatures(String inputIndexPath, TreeMap<Integer, String> docsmap) throws IOException {
+        MinHash minHash = new MinHash(CLUSTER_HASHES, SEED);
+        int[][] signatures = new int[docsmap.isEmpty() ? 0 : docsmap.lastKey() + 1][];
+        for (Integer docId : docsmap.keySet()) {
+            signatures[docId] = minHash.emptySignature();
+        }
+        try (IndexEntryInput in = new IndexEntryInput(new File(inputIndexPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            IndexEntry ie;
+            while ((ie = in.read()) != null) {
+                long termHash = ie.getTerm().hashCode();
+                IntBuffer lb = ByteBuffer.wrap(ie.getRawPostingsData()).asIntBuffer();
+                for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+                    minHash.update(signatures[lb.get(i)], termHash);
+                }
+            }
+        }
+        return signatures;
+    }
+
+    /**
+     * Returns a copy of the given postings with their docIds replaced and the
+     * postings sorted by the new docIds.
+     *
+     * @param array raw postings data.
+     * @param docIdMap map from old docIds to new ones.
+     * @return renumbered raw postings data.
+     */
+    private byte[] renumberPostings(byte[] array, int[] docIdMap) {
+        IntBuffer lb = ByteBuffer.wrap(array).asIntBuffer();
+        int docFreq = 0;
+        for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+            docFreq++;
+        }
+        // Sort the starts of the postings by their new docId.
+        long[] keys = new long[docFreq];
+        for (int i = 0, p = 0; i < lb.limit(); i += layout.postingLength(lb, i), p++) {
+            keys[p] = ((long) docIdMap[lb.get(i)] << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        ByteBuffer out = ByteBuffer.allocate(array.length);
+        for (long key : keys) {
+            int start = (int) key;
+            int length = layout.postingLength(lb, start) * Integer.BYTES;
+            out.putInt((int) (key >>> 32));
+            out.put(array, (start + 1) * Integer.BYTES, length - Integer.BYTES);
+        }
+        return out.array();
+    }
+
+    /**
+     * Returns the size the docIds of some postings would take encoded as
+     * variable byte gaps.
+     */
+    private long gapSize(byte[] array) {
+        IntBuffer lb = ByteBuffer.wrap(array).asIntBuffer();
+        long size = 0;
+        int last = 0;
+        for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+            int gap = lb.get(i) - last;
+            last = lb.get(i);
+            do {
+                size++;
+                gap >>>= 7;
+            } while (gap != 0);
+        }
+        return size;
+    }
+
+    /**
+     * Returns a summary of the last renumbering.
+     *
+     * @return a summary of the last renumbering.
+     */
+    public String getReport() {
+        return String.format("DocId gaps (variable byte): %d -> %d bytes (%.2f%% reduction)",
+                gapBytesIn, gapBytesOut, 100.0 * (gapBytesIn - gapBytesOut) / Math.max(1, gapBytesIn));
+    }
+
+    /**
+     * Returns the name of a document without folders or extension.
+     */
+    private static String baseName(String docName) {
+        String name = docName.substring(docName.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Writes an object to the given file.
+     *
+     * @param fileName file to write to.
+     * @param o object to write.
+     */
+    private static void writeObject(String fileName, Object o) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(fileName))) {
+            oos.writeObject(o);
+            oos.flush();
+        }
+    }
+
+    /**
+     * Main method for DocIdReassigner.
+     *
+     * Renumbers the documents of the index given as argument into a new index.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory to store the renumbered index. "input_path": Path to the
+     * directory of the index to renumber. "order": name, static or cluster.
+     * "score_file": PageRank score file, needed by the static order.
+     */
+    public static void main(String[] args) {
+        // Input control
+        Order order = null;
+        if (args.length == 3 || args.length == 4) {
+            try {
+                order = Order.valueOf(args[2].toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                order = null;
+            }
+        }
+        if (order == null || (order == Order.STATIC) != (args.length == 4)) {
+            System.err.printf("Usage: %s index_path input_path order [score_file]\n"
+                    + "\tindex_path: Path to a directory to store the renumbered index.\n"
+                    + "\tinput_path: Path to the directory of the index to renumber.\n"
+                    + "\torder: name, static or cluster.\n"
+                    + "\tscore_file: PageRank score file, only for the static order.\n",
+                    DocIdReassigner.class.getSimpleName());
+            return;
+        }
+
+        long start = System.nanoTime();
+        DocIdReassigner reassigner = new DocIdReassigner(args[0]);
+        try {
+            if (order == Order.STATIC) {
+                PageRank pageRank = new PageRank(null, args[3]);
+                pageRank.loadRanking();
+                reassigner.setStaticScores(pageRank);
+            }
+            reassigner.reassign(args[1], order);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        } catch (ClassNotFoundException ex) {
+            System.err.println("Exception reading class from file: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+        long end = System.nanoTime();
+        System.out.println(reassigner.getReport());
+        System.out.println("Index renumbered in " + (end - start) / 1e6 + " milliseconds");
+    }
+}
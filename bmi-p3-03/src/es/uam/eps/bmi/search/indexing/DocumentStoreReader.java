@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * DocumentStoreReader class. Random access to the documents stored by a
+ * <code>DocumentStoreWriter</code>: a document is read with the decompression
+ * of a single block. The last block read is kept, as consecutive requests
+ * usually hit the same one.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class DocumentStoreReader {
+
+    /* File to read blocks from */
+    private final RandomAccessFile raf;
+    /* Offset of the block of every docId, -1 if not stored */
+    private final long[] blockOffsets;
+
+    /* Last block read */
+    private long lastBlockOffset = -1;
+    private ByteBuffer lastBlock = null;
+
+    /**
+     * Returns true if the index stored in the given path has a document store.
+     *
+     * @param indexPath path to the index.
+     * @return true if the index has a document store, false otherwise.
+     */
+    public static boolean exists(String indexPath) {
+        return new File(indexPath, DocumentStoreWriter.DOCSTORE_OFFSETS_FILE_NAME).exists();
+    }
+
+    /**
+     * Default constructor.
+     *
+     * @param indexPath path to the index the store belongs to.
+     * @throws java.io.IOException
+     * @throws java.lang.ClassNotFoundException
+     */
+    public DocumentStoreReader(String indexPath) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(
+                new File(indexPath, DocumentStoreWriter.DOCSTORE_OFFSETS_FILE_NAME)))) {
+            blockOffsets = (long[]) ois.readObject();
+        }
+        raf = new RandomAccessFile(new File(indexPath, DocumentStoreWriter.DOCSTORE_FILE_NAME), "r");
+    }
+
+    /**
+     * Returns the stored text of a document: its terms separated by single
+     * spaces.
+     *
+     * @param docId id of the document.
+     * @return the stored text of the document, null if it is not stored.
+     * @throws java.io.IOException
+     */
+    public synchronized String getText(int docId) throws IOException {
+        ByteBuffer doc = seekDocument(docId);
+        if (doc == null) {
+            return null;
+        }
+        int positions = doc.getInt();
+        doc.position(doc.position() + positions * Integer.BYTES); //skip offsets
+        return readText(doc);
+    }
+
+    /**
+     * Returns a snippet of a document: up to <code>maxChars</code> characters
+     * of its stored text, starting at the first occurrence of one of the given
+     * terms.
+     *
+     * @param docId id of the document.
+     * @param terms terms to look for.
+     * @param maxChars maximum length of the snippet.
+     * @return the snippet, null if the document is not stored or does not
+     * contain any of the terms.
+     * @throws java.io.IOException
+     */
+    public synchronized String getSnippet(int docId, String[] terms, int maxChars) throws IOException {
+        ByteBuffer doc = seekDocument(docId);
+        if (doc == null) {
+            return null;
+        }
+        int positions = doc.getInt();
+        int[] offsets = new int[positions];
+        for (int i = 0; i < positions; i++) {
+            offsets[i] = doc.getInt();
+        }
+        String text = readText(doc);
+
+        Set<String> termSet = new HashSet<>(Arrays.asList(terms));
+        for (int i = 0; i < positions; i++) {
+            int end = i + 1 < positions ? offsets[i + 1] - 1 : text.length();
+            if (termSet.contains(text.substring(offsets[i], end))) {
+                return text.substring(offsets[i], Math.min(offsets[i] + maxChars, text.length()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the character offset, in the stored text, of the term at the
+     * given position of a document.
+     *
+     * @param docId id of the document.
+     * @param position position of the term, as in its postings.
+     * @return the character offset of the term, -1 if the document is not
+     * stored or has no such position.
+     * @throws java.io.IOException
+     */
+    public synchronized int getCharOffset(int docId, int position) throws IOException {
+        ByteBuffer doc = seekDocument(docId);
+        if (doc == null || position < 0 || position >= doc.getInt(doc.position())) {
+            return -1;
+        }
+        return doc.getInt(doc.position() + (1 + position) * Integer.BYTES);
+    }
+
+    /**
+     * Closes the store.
+     *
+     * @throws java.io.IOException
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * Decompresses the block of a document and returns it positioned at the
+     * number of term positions of the document.
+     */
+    private ByteBuffer seekDocument(int docId) throws IOException {
+        if (docId < 0 || docId >= blockOffsets.length || blockOffsets[docId] < 0) {
+            return null;
+        }
+        ByteBuffer block = readBlock(blockOffsets[docId]);
+        block.rewind();
+        while (block.hasRemaining()) {
+            int storedDocId = block.getInt();
+            if (storedDocId == docId) {
+                return block;
+            }
+            int positions = block.getInt();
+            block.position(block.position() + positions * Integer.BYTES);
+            int length = block.getInt();
+            block.position(block.position() + length * Character.BYTES);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the decompressed block at the given offset.
+     */
+    private ByteBuffer readBlock(long offset) throws IOException {
+        if (offset == lastBlockOffset) {
+            return lastBlock;
+        }
+        raf.seek(offset);
+        byte[] compressed = new byte[raf.readInt()];
+        byte[] raw = new byte[raf.readInt()];
+        raf.readFully(compressed);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            inflater.inflate(raw);
+        } catch (DataFormatException ex) {
+            throw new IOException("Error getting block from document store. File might be corrupted");
+        } finally {
+            inflater.end();
+        }
+        lastBlockOffset = offset;
+        lastBlock = ByteBuffer.wrap(raw);
+        return lastBlock;
+    }
+
+    /**
+     * Reads the text of a document, the buffer positioned at its length.
+     */
+    private static String readText(ByteBuffer doc) {
+        char[] text = new char[doc.getInt()];
+        doc.asCharBuffer().get(text);
+        return new String(text);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * DocumentStoreWriter class. Stores the parsed text of the indexed documents
+ * in compressed blocks, so that snippets can be shown without reading the
+ * original collection.<br>
+ * Every document is stored as its docId, the character offset of each of its
+ * term positions, and its terms separated by single spaces. Documents are
+ * grouped in blocks of about <code>BLOCK_SIZE</code> bytes compressed with
+ * deflate; a table with the offset of the block of every docId is written
+ * when the store is closed.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class DocumentStoreWriter {
+
+    /* Name of the file which contains the compressed blocks */
+    public static final String DOCSTORE_FILE_NAME = "docstore";
+    /* Name of the file which contains the offset of the block of every docId */
+    public static final String DOCSTORE_OFFSETS_FILE_NAME = "docstoreoffsets";
+
+    /* Size in bytes of a block before compression */
+    private static final int BLOCK_SIZE = 64 * 1024; //64KB
+
+    /* Path to save the store */
+    private String indexPath;
+
+    /* Stream to the blocks file, opened with the first block */
+    private DataOutputStream dos = null;
+    /* Offset of the next block in the file */
+    private long currentOffset = 0;
+
+    /* Block being filled */
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE);
+    private final DataOutputStream blockOutput = new DataOutputStream(block);
+    /* DocIds of the documents in the block being filled */
+    private int[] blockDocIds = new int[16];
+    private int blockDocsCount = 0;
+
+    /* Offset of the block of every docId, -1 if not stored */
+    private long[] blockOffsets = new long[1024];
+
+    /* Compressor of the blocks */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * Default constructor for <code>DocumentStoreWriter</code> class.
+     *
+     * @param indexPath path to the index the store belongs to.
+     */
+    public DocumentStoreWriter(String indexPath) {
+        this.indexPath = indexPath;
+        if (!indexPath.endsWith("/")) {
+            this.indexPath += "/";
+        }
+        Arrays.fill(blockOffsets, -1);
+    }
+
+    /**
+     * Adds a document to the store.
+     *
+     * @param docId id of the document in the index.
+     * @param content terms of the document, as given to the index writer.
+     * Empty terms are skipped, as they do not take a position in the index.
+     * @throws java.io.IOException
+     */
+    public void add(int docId, String[] content) throws IOException {
+        int[] offsets = new int[content.length];
+        StringBuilder text = new StringBuilder();
+        int positions = 0;
+        for (String term : content) {
+            if (term.length() == 0) {
+                continue;
+            }
+            if (positions > 0) {
+                text.append(' ');
+            }
+            offsets[positions++] = text.length();
+            text.append(term);
+        }
+
+        blockOutput.writeInt(docId);
+        blockOutput.writeInt(positions);
+        for (int i = 0; i < positions; i++) {
+            blockOutput.writeInt(offsets[i]);
+        }
+        blockOutput.writeInt(text.length());
+        blockOutput.writeChars(text.toString());
+
+        if (blockDocsCount == blockDocIds.length) {
+            blockDocIds = Arrays.copyOf(blockDocIds, 2 * blockDocsCount);
+        }
+        blockDocIds[blockDocsCount++] = docId;
+        if (block.size() >= BLOCK_SIZE) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Compresses the current block and writes it to the blocks file.
+     */
+    private void writeBlock() throws IOException {
+        if (blockDocsCount == 0) {
+            return;
+        }
+        if (dos == null) {
+            new File(indexPath).mkdirs();
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexPath + DOCSTORE_FILE_NAME)));
+        }
+        byte[] raw = block.toByteArray();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            compressed.write(buffer, 0, n);
+        }
+
+        dos.writeInt(compressed.size());
+        dos.writeInt(raw.length);
+        compressed.writeTo(dos);
+
+        for (int i = 0; i < blockDocsCount; i++) {
+            int docId = blockDocIds[i];
+            if (docId >= blockOffsets.length) {
+                int oldLength = blockOffsets.length;
+                blockOffsets = Arrays.copyOf(blockOffsets, Math.max(2 * oldLength, docId + 1));
+                Arrays.fill(blockOffsets, oldLength, blockOffsets.length, -1);
+            }
+            blockOffsets[docId] = currentOffset;
+        }
+        currentOffset += 2 * Integer.BYTES + compressed.size();
+        block.reset();
+        blockDocsCount = 0;
+    }
+
+    /**
+     * Writes the last block and the offsets table.
+     *
+     * @throws java.io.IOException
+     */
+    public void close() throws IOException {
+        writeBlock();
+        if (dos == null) { //no documents, empty store
+            new File(indexPath).mkdirs();
+            dos = new DataOutputStream(new FileOutputStream(indexPath + DOCSTORE_FILE_NAME));
+        }
+        dos.close();
+        deflater.end();
+
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(indexPath + DOCSTORE_OFFSETS_FILE_NAME))) {
+            oos.writeObject(blockOffsets);
+            oos.flush();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Impact index class. Index whose postings are also available ordered by
+ * impact, read in memory from the impact index written by
+ * <code>ImpactIndexConverter</code> in the <code>impact/</code> folder of the
+ * index.<br>
+ * The postings of every term are grouped into segments of postings with the
+ * same impact level, by decreasing level. Segments are stored in flat arrays:
+ * those of the term with id <code>t</code> are from
+ * <code>segmentOffsets[t]</code> to <code>segmentOffsets[t + 1]</code>, and
+ * the docIds of the segment <code>s</code> are from
+ * <code>postingOffsets[s]</code> to <code>postingOffsets[s + 1]</code>.<br>
+ * The rest of the index is read as a <code>BasicIndex</code>.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class ImpactIndex extends BasicIndex {
+
+    /* Size of the buffer used to read the impact index file */
+    private static final int BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /* Term ids, in the order of the impact index file */
+    private HashMap<String, Integer> termIds = null;
+
+    /* Segments of the terms */
+    private int[] segmentOffsets;
+    private int[] segmentLevels;
+    private int[] postingOffsets;
+    private int[] docIds;
+
+    /* Number of impact levels, and score of one level */
+    private int levels;
+    private double scale;
+
+    /**
+     * Loads a previously created index, reading its impact index in memory.
+     *
+     * @param indexPath Path to the directory where the index is stored.
+     */
+    @Override
+    public void load(String indexPath) {
+        super.load(indexPath);
+        if (reader == null) {
+            return;
+        }
+        try {
+            loadSegments(reader.indexPath + ImpactIndexConverter.IMPACT_INDEX_FOLDER);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            reader = null;
+            termIds = null;
+        }
+    }
+
+    /**
+     * Reads the impact index file into the segments arrays.
+     *
+     * @param path path to the impact index.
+     */
+    private void loadSegments(String path) throws IOException {
+        IndexMetadata metadata = IndexMetadata.read(path);
+        if (metadata.get(IndexMetadata.IMPACT_LEVELS_KEY) == null) {
+            throw new IOException("No impact index in " + path);
+        }
+        levels = Integer.parseInt(metadata.get(IndexMetadata.IMPACT_LEVELS_KEY));
+        scale = Double.parseDouble(metadata.get(IndexMetadata.IMPACT_SCALE_KEY));
+
+        int termsCount = 0;
+        int segmentsCount = 0;
+        int postingsCount = 0;
+        termIds = new HashMap<>();
+        segmentOffsets = new int[1025];
+        segmentLevels = new int[1024];
+        postingOffsets = new int[1025];
+        docIds = new int[1024];
+
+        try (IndexEntryInput in = new IndexEntryInput(new File(path + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            IndexEntry ie;
+            while ((ie = in.read()) != null) {
+                // Term
+                if (termsCount + 1 == segmentOffsets.length) {
+                    segmentOffsets = Arrays.copyOf(segmentOffsets, 2 * termsCount + 1);
+                }
+                termIds.put(ie.getTerm(), termsCount);
+                segmentOffsets[termsCount++] = segmentsCount;
+
+                // Segments
+                IntBuffer lb = ByteBuffer.wrap(ie.getRawPostingsData()).asIntBuffer();
+                for (int i = 0; i < lb.limit();) {
+                    int level = lb.get(i++);
+                    int count = lb.get(i++);
+                    if (segmentsCount == segmentLevels.length) {
+                        segmentLevels = Arrays.copyOf(segmentLevels, 2 * segmentsCount);
+                        postingOffsets = Arrays.copyOf(postingOffsets, 2 * segmentsCount + 1);
+                    }
+                    segmentLevels[segmentsCount] = level;
+                    postingOffsets[segmentsCount++] = postingsCount;
+                    while (postingsCount + count > docIds.length) {
+                        docIds = Arrays.copyOf(docIds, 2 * docIds.length);
+                    }
+                    lb.position(i);
+                    lb.get(docIds, postingsCount, count);
+                    postingsCount += count;
+                    i += count;
+                }
+            }
+        }
+
+        // Trim the arrays.
+        segmentOffsets = Arrays.copyOf(segmentOffsets, termsCount + 1);
+        segmentOffsets[termsCount] = segmentsCount;
+        segmentLevels = Arrays.copyOf(segmentLevels, segmentsCount);
+        postingOffsets = Arrays.copyOf(postingOffsets, segmentsCount + 1);
+        postingOffsets[segmentsCount] = postingsCount;
+        docIds = Arrays.copyOf(docIds, postingsCount);
+    }
+
+    /**
+     * Returns the id of a term, used to access its segments.
+     *
+     * @param term term to look for.
+     * @return the id of the term, -1 if it is not in the index.
+     */
+    public int getTermId(String term) {
+        Integer termId = termIds.get(term);
+        return termId == null ? -1 : termId;
+    }
+
+    /**
+     * Returns the position of the first segment of a term.
+     *
+     * @param termId id of the term.
+     * @return the position of the first segment of the term.
+     */
+    public int getSegmentsStart(int termId) {
+        return segmentOffsets[termId];
+    }
+
+    /**
+     * Returns the position after the last segment of a term.
+     *
+     * @param termId id of the term.
+     * @return the position after the last segment of the term.
+     */
+    public int getSegmentsEnd(int termId) {
+        return segmentOffsets[termId + 1];
+    }
+
+    /**
+     * Returns the impact level of a segment.
+     *
+     * @param segment position of the segment.
+     * @return the impact level of the segment.
+     */
+    public int getSegmentLevel(int segment) {
+        return segmentLevels[segment];
+    }
+
+    /**
+     * Returns the position of the first posting of a segment.
+     *
+     * @param segment position of the segment.
+     * @return the position of the first posting of the segment.
+     */
+    public int getPostingsStart(int segment) {
+        return postingOffsets[segment];
+    }
+
+    /**
+     * Returns the position after the last posting of a segment.
+     *
+     * @param segment position of the segment.
+     * @return the position after the last posting of the segment.
+     */
+    public int getPostingsEnd(int segment) {
+        return postingOffsets[segment + 1];
+    }
+
+    /**
+     * Returns the docId of a posting.
+     *
+     * @param posting position of the posting.
+     * @return the docId of the posting.
+     */
+    public int getPostingDocId(int posting) {
+        return docIds[posting];
+    }
+
+    /**
+     * Returns the number of impact levels, the highest impact of the index
+     * being the last one.
+     *
+     * @return the number of impact levels.
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * Returns the TF-IDF score of one impact level. The impact of a posting
+     * is at most its level times this score, and more than its level minus
+     * one times this score.
+     *
+     * @return the score of one impact level.
+     */
+    public double getLevelScore() {
+        return scale;
+    }
+
+    /**
+     * Returns a true if the index is loaded, false otherwise.
+     *
+     * @return true if index is loaded, false otherwise.
+     */
+    @Override
+    public boolean isLoaded() {
+        return super.isLoaded() && termIds != null;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * ImpactIndexConverter class. Converts a finished index into an impact index,
+ * stored in its <code>impact/</code> folder and read by
+ * <code>ImpactIndex</code>.<br>
+ * The impact of a posting is its TF-IDF weight, tf * idf / docMod, quantized
+ * into levels of the same size from 0 to the highest impact of the index,
+ * rounding up. The postings of every term are grouped into segments of the
+ * same level, stored by decreasing level, each one with its docIds in
+ * increasing order. Every segment is stored as its level, its number of
+ * postings and its docIds.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class ImpactIndexConverter {
+
+    /* Folder, inside the original index, where the impact index is stored */
+    public static final String IMPACT_INDEX_FOLDER = "impact/";
+    /* Default number of impact levels */
+    public static final int DEFAULT_LEVELS = 255;
+
+    /* Size of the buffers used to stream index files */
+    private static final int BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /* Number of impact levels */
+    private final int levels;
+
+    /* Stats of the last conversion */
+    private long termsCount = 0;
+    private long postingsCount = 0;
+    private long segmentsCount = 0;
+    private long bytesOut = 0;
+
+    /**
+     * Default constructor.
+     *
+     * @param levels number of impact levels, the highest impact of the index
+     * being the last one.
+     */
+    public ImpactIndexConverter(int levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Converts the given index, writing the impact index in its folder.
+     *
+     * @param indexPath path to the finished index.
+     * @throws java.io.IOException
+     * @throws java.lang.ClassNotFoundException
+     */
+    public void convert(String indexPath) throws IOException, ClassNotFoundException {
+        if (!indexPath.endsWith("/")) {
+            indexPath += "/";
+        }
+        double[] docMod = IndexReader.readObject(indexPath + IndexWriter.DOC_MODULES_FILE_NAME);
+        TreeMap<Integer, String> docsmap = IndexReader.readObject(indexPath + IndexWriter.DOCMAP_FILE_NAME);
+        TreeMap<String, Integer> docFreqs = null;
+        if (new File(indexPath + IndexPruner.DOC_FREQS_FILE_NAME).exists()) {
+            docFreqs = IndexReader.readObject(indexPath + IndexPruner.DOC_FREQS_FILE_NAME);
+        }
+        double docsCount = docsmap.size();
+        IndexLayout layout = IndexLayout.of(IndexMetadata.read(indexPath));
+
+        // Highest impact of the index.
+        double maxImpact = 0;
+        try (IndexEntryInput in = new IndexEntryInput(new File(indexPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            IndexEntry ie;
+            while ((ie = in.read()) != null) {
+                double[] impacts = getImpacts(ie, layout, docMod, docsCount, docFreqs);
+                for (double impact : impacts) {
+                    maxImpact = Math.max(maxImpact, impact);
+                }
+            }
+        }
+        double scale = maxImpact > 0 ? maxImpact / levels : 1;
+
+        // Segments of every term.
+        String impactPath = indexPath + IMPACT_INDEX_FOLDER;
+        new File(impactPath).mkdirs();
+        termsCount = postingsCount = segmentsCount = bytesOut = 0;
+        try (IndexEntryInput in = new IndexEntryInput(new File(indexPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE);
+                IndexEntryOutput out = new IndexEntryOutput(new File(impactPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            IndexEntry ie;
+            while ((ie = in.read()) != null) {
+                double[] impacts = getImpacts(ie, layout, docMod, docsCount, docFreqs);
+                IntBuffer lb = ByteBuffer.wrap(ie.getRawPostingsData()).asIntBuffer();
+
+                // Postings sorted by decreasing level, then by docId.
+                long[] keys = new long[impacts.length];
+                for (int i = 0, p = 0; i < lb.limit(); i += layout.postingLength(lb, i), p++) {
+                    int level = Math.min(levels, (int) Math.ceil(impacts[p] / scale));
+                    keys[p] = ((long) (levels - level) << 32) | lb.get(i);
+                }
+                Arrays.sort(keys);
+
+                byte[] segments = toSegments(keys);
+                out.write(ie.getTerm(), segments);
+                termsCount++;
+                postingsCount += keys.length;
+                bytesOut += IndexEntryOutput.entrySize(ie.getTerm(), segments.length);
+            }
+        }
+
+        IndexMetadata metadata = new IndexMetadata();
+        metadata.set(IndexMetadata.IMPACT_LEVELS_KEY, Integer.toString(levels));
+        metadata.set(IndexMetadata.IMPACT_SCALE_KEY, Double.toString(scale));
+        metadata.write(impactPath);
+    }
+
+    /**
+     * Returns the impact of every posting of a term.
+     *
+     * @param ie entry of the term in the index.
+     * @param layout layout of the index.
+     * @param docMod squared document modules.
+     * @param docsCount number of documents in the index.
+     * @param docFreqs original document frequency of the terms of a pruned
+     * index, null if not pruned.
+     * @return the impact of every posting, in docId order.
+     */
+    private double[] getImpacts(IndexEntry ie, IndexLayout layout, double[] docMod, double docsCount, TreeMap<String, Integer> docFreqs) {
+        IntBuffer lb = ByteBuffer.wrap(ie.getRawPostingsData()).asIntBuffer();
+        int docFreq = 0;
+        for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+            docFreq++;
+        }
+        double[] impacts = new double[docFreq];
+        Integer originalDocFreq = docFreqs == null ? null : docFreqs.get(ie.getTerm());
+        double idf = Math.log(docsCount / (originalDocFreq == null ? docFreq : originalDocFreq)) / Math.log(2);
+        for (int i = 0, p = 0; i < lb.limit(); i += layout.postingLength(lb, i), p++) {
+            double tf = 1 + (Math.log(layout.frequency(lb, i)) / Math.log(2));
+            double mod = Math.sqrt(docMod[lb.get(i)]);
+            impacts[p] = mod > 0 ? Math.max(0, tf * idf / mod) : 0;
+        }
+        return impacts;
+    }
+
+    /**
+     * Groups sorted postings into segments of the same level.
+     *
+     * @param keys postings, as the distance of their level to the highest one
+     * in the high half and the docId in the low half, sorted.
+     * @return raw data of the segments.
+     */
+    private byte[] toSegments(long[] keys) {
+        int segments = 0;
+        for (int p = 0; p < keys.length; p++) {
+            if (p == 0 || (keys[p] >>> 32) != (keys[p - 1] >>> 32)) {
+                segments++;
+            }
+        }
+        segmentsCount += segments;
+        ByteBuffer out = ByteBuffer.allocate((2 * segments + keys.length) * Integer.BYTES);
+        for (int p = 0; p < keys.length;) {
+            long distance = keys[p] >>> 32;
+            int end = p;
+            while (end < keys.length && (keys[end] >>> 32) == distance) {
+                end++;
+            }
+            out.putInt(levels - (int) distance);
+            out.putInt(end - p);
+            for (; p < end; p++) {
+                out.putInt((int) keys[p]);
+            }
+        }
+        return out.array();
+    }
+
+    /**
+     * Returns a summary of the last conversion.
+     *
+     * @return a summary of the last conversion.
+     */
+    public String getReport() {
+        return String.format("Terms: %d\nPostings: %d\nSegments: %d (%.2f per term)\nIndex size: %d bytes",
+                termsCount, postingsCount, segmentsCount, (double) segmentsCount / Math.max(1, termsCount), bytesOut);
+    }
+
+    /**
+     * Main method for ImpactIndexConverter.
+     *
+     * Converts the index given as argument into an impact index, stored in
+     * its impact folder.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory of the index to convert. "levels": Optionally, number of
+     * impact levels.
+     */
+    public static void main(String[] args) {
+        // Input control
+        int levels = DEFAULT_LEVELS;
+        try {
+            if (args.length > 1) {
+                levels = Integer.parseInt(args[1]);
+            }
+        } catch (NumberFormatException ex) {
+            levels = -1;
+        }
+        if (args.length < 1 || args.length > 2 || levels < 1) {
+            System.err.printf("Usage: %s index_path [levels]\n"
+                    + "\tindex_path: Path to the directory of the index to convert.\n"
+                    + "\tlevels: Number of impact levels (default %d).\n",
+                    ImpactIndexConverter.class.getSimpleName(), DEFAULT_LEVELS);
+            return;
+        }
+
+        long start = System.nanoTime();
+        ImpactIndexConverter converter = new ImpactIndexConverter(levels);
+        try {
+            converter.convert(args[0]);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        } catch (ClassNotFoundException ex) {
+            System.err.println("Exception reading class from file: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+        long end = System.nanoTime();
+        System.out.println(converter.getReport());
+        System.out.println("Index converted in " + (end - start) / 1e6 + " milliseconds");
+    }
+}
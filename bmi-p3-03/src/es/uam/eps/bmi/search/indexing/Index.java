@@ -59,6 +59,14 @@ public interface Index {
      */
     public List<Integer> getDocIds();
 
+    /**
+     * Returns the number of indexed documents, the size of
+     * <code>getDocIds</code>, without building the list.
+     *
+     * @return the number of indexed documents.
+     */
+    public int getDocsCount();
+
     /**
      * Returns a document given its Id.
      *
@@ -82,6 +90,16 @@ public interface Index {
      */
     public List<Posting> getTermPostings(String term);
 
+    /**
+     * Returns the number of indexed documents containing the given term. It
+     * may be greater than the number of postings of the term if the index has
+     * been pruned.
+     *
+     * @param term Given term.
+     * @return the number of indexed documents containing the given term.
+     */
+    public int getTermDocFrequency(String term);
+
     /**
      * Returns a true if the index is loaded, false otherwise.
      *
@@ -97,4 +115,23 @@ public interface Index {
      */
     public double getDocModule(int docID);
 
+    /**
+     * Returns what the postings of the index store. Searchers that need term
+     * positions must check it.
+     *
+     * @return the layout of the index.
+     */
+    public IndexLayout getLayout();
+
+    /**
+     * Returns the postings of a pair of adjacent terms, with the positions of
+     * the first one, if the index has a biword index.
+     *
+     * @param first first term of the pair.
+     * @param second second term of the pair.
+     * @return a list of the postings of the pair, empty if the pair does not
+     * occur, or null if the index has no biword index.
+     */
+    public List<Posting> getBiwordPostings(String first, String second);
+
 }
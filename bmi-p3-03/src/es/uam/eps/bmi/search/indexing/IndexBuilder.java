@@ -17,10 +17,13 @@
 package es.uam.eps.bmi.search.indexing;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
@@ -35,6 +38,9 @@ public class IndexBuilder {
     public final static String XML_INPUT = "index-settings.xml";
     public final static String COLLECTION_TAG_NAME = "collection-folder";
     public final static String OUTPATH_TAG_NAME = "index-folder";
+    public final static String DEDUP_TAG_NAME = "near-duplicates";
+    public final static String LAYOUT_TAG_NAME = "layout";
+    public final static String BIWORDS_TAG_NAME = "biwords";
     public final static String BASIC_I_APPEND = "basic/";
     public final static String STOP_I_APPEND = "stopword/";
     public final static String STEM_I_APPEND = "stem/";
@@ -43,10 +49,15 @@ public class IndexBuilder {
      * Main method for IndexBuilder.
      * Builds a BasicIndex, StopwordIndex and StemIndex reading
      * collection path and output from XML_INPUT file.
+     * The optional DEDUP_TAG_NAME tag (skip or fold) enables near-duplicate
+     * detection, and the optional LAYOUT_TAG_NAME tag (docs, freqs or
+     * positions) sets what the postings store. The optional BIWORDS_TAG_NAME
+     * tag, set to true, builds the biword index used by phrase queries.
      * @param args ignored.
      */
     public static void main(String[] args) {
         String collectionPath, outPath;
+        List<String> options = new ArrayList<>();
         
         DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
         DocumentBuilder dBuilder;
@@ -56,6 +67,20 @@ public class IndexBuilder {
             doc.getDocumentElement().normalize();
             collectionPath = doc.getElementsByTagName(COLLECTION_TAG_NAME).item(0).getTextContent();
             outPath = doc.getElementsByTagName(OUTPATH_TAG_NAME).item(0).getTextContent();
+            NodeList dedup = doc.getElementsByTagName(DEDUP_TAG_NAME);
+            if (dedup.getLength() > 0) {
+                options.add("-dedup");
+                options.add(dedup.item(0).getTextContent().trim());
+            }
+            NodeList layout = doc.getElementsByTagName(LAYOUT_TAG_NAME);
+            if (layout.getLength() > 0) {
+                options.add("-layout");
+                options.add(layout.item(0).getTextContent().trim());
+            }
+            NodeList biwords = doc.getElementsByTagName(BIWORDS_TAG_NAME);
+            if (biwords.getLength() > 0 && Boolean.parseBoolean(biwords.item(0).getTextContent().trim())) {
+                options.add("-biwords");
+            }
         } catch (ParserConfigurationException | SAXException ex) {
             System.err.println("Exception caught while configurating XML parser: " + ex.getClass().getSimpleName());
             System.err.println(ex.getMessage());
@@ -72,17 +97,33 @@ public class IndexBuilder {
         
         //Build basic index
         System.out.println("Creating Basic Index");
-        BasicIndex.main(new String[]{collectionPath, outPath + BASIC_I_APPEND});
+        BasicIndex.main(buildArgs(collectionPath, outPath + BASIC_I_APPEND, options));
         System.out.println();
         
         //Build stopword index
         System.out.println("Creating Stopword Index");
-        StopwordIndex.main(new String[]{collectionPath, outPath + STOP_I_APPEND});
+        StopwordIndex.main(buildArgs(collectionPath, outPath + STOP_I_APPEND, options));
         System.out.println();
         
         //Build stem index
         System.out.println("Creating Stem Index");
-        StemIndex.main(new String[]{collectionPath, outPath + STEM_I_APPEND});
+        StemIndex.main(buildArgs(collectionPath, outPath + STEM_I_APPEND, options));
         System.out.println();
     }
+
+    /**
+     * Returns the arguments for the main method of an index.
+     *
+     * @param collectionPath path to the collection.
+     * @param indexPath path to store the index.
+     * @param options build options.
+     * @return the arguments for the main method of an index.
+     */
+    private static String[] buildArgs(String collectionPath, String indexPath, List<String> options) {
+        List<String> args = new ArrayList<>();
+        args.add(collectionPath);
+        args.add(indexPath);
+        args.addAll(options);
+        return args.toArray(new String[0]);
+    }
 }
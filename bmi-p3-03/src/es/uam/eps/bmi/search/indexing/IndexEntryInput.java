@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * IndexEntryInput class. Reads the entries of an index file, in the format
+ * described in <code>IndexEntry</code>, through a window of the file kept in a
+ * buffer. The window is refilled with a single read of the channel whenever
+ * the next entry is not completely inside it, so entries are parsed from
+ * memory and files are read in large sequential chunks.<br>
+ * Seeking inside the window does not touch the file.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class IndexEntryInput implements Closeable {
+
+    /* Default size of the window, suited for sequential reads */
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /* Channel to read the file from */
+    private final FileChannel channel;
+    /* Window of the file, bytes not read yet between position and limit */
+    private final ByteBuffer buffer;
+    /* Offset in the file of the first byte of the window */
+    private long bufferStart = 0;
+
+    /* Term being read */
+    private final StringBuilder term = new StringBuilder();
+
+    /**
+     * Default constructor, with a window of <code>DEFAULT_BUFFER_SIZE</code>
+     * bytes.
+     *
+     * @param file index file to read.
+     * @throws java.io.IOException
+     */
+    public IndexEntryInput(File file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor with a given window size.
+     *
+     * @param file index file to read.
+     * @param bufferSize size of the window in bytes.
+     * @throws java.io.IOException
+     */
+    public IndexEntryInput(File file, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Reads the next entry of the file.
+     *
+     * @return the entry read, null at the end of the file.
+     * @throws java.io.IOException if the file ends in the middle of an entry.
+     */
+    public IndexEntry read() throws IOException {
+        // Term
+        term.setLength(0);
+        if (!fill(Character.BYTES)) {
+            if (buffer.hasRemaining()) {
+                throw corrupted();
+            }
+            return null; //end of file
+        }
+        char read;
+        while ((read = buffer.getChar()) != IndexEntry.DELIMITER) {
+            term.append(read);
+            if (!fill(Character.BYTES)) {
+                throw corrupted();
+            }
+        }
+
+        // Postings
+        if (!fill(Integer.BYTES)) {
+            throw corrupted();
+        }
+        int postingsSize = buffer.getInt();
+        byte[] rawPostingsData = new byte[postingsSize];
+        for (int done = 0; done < postingsSize;) {
+            if (!fill(1)) {
+                throw corrupted();
+            }
+            int length = Math.min(buffer.remaining(), postingsSize - done);
+            buffer.get(rawPostingsData, done, length);
+            done += length;
+        }
+        return new IndexEntry(term.toString(), postingsSize, rawPostingsData);
+    }
+
+    /**
+     * Moves to the given offset of the file, which must be the start of an
+     * entry.
+     *
+     * @param offset offset in the file.
+     * @throws java.io.IOException
+     */
+    public void seek(long offset) throws IOException {
+        if (offset >= bufferStart && offset <= bufferStart + buffer.limit()) {
+            buffer.position((int) (offset - bufferStart));
+            return;
+        }
+        channel.position(offset);
+        bufferStart = offset;
+        buffer.clear();
+        buffer.limit(0);
+    }
+
+    /**
+     * Returns the offset in the file of the next entry to read.
+     *
+     * @return the offset of the next entry.
+     */
+    public long position() {
+        return bufferStart + buffer.position();
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws java.io.IOException
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads ahead until the window holds at least the given number of bytes
+     * not read yet.
+     *
+     * @return false if the file ends before.
+     */
+    private boolean fill(int bytes) throws IOException {
+        while (buffer.remaining() < bytes) {
+            bufferStart += buffer.position();
+            buffer.compact();
+            int read = channel.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the exception thrown when the file ends in the middle of an
+     * entry.
+     */
+    private static IOException corrupted() {
+        return new IOException("Error getting entry from index file. File might be corrupted");
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * IndexEntryOutput class. Writes entries to an index file, in the format
+ * described in <code>IndexEntry</code>. Entries are put into a buffer which
+ * is written to the file with a single write of the channel when it is full.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class IndexEntryOutput implements Closeable {
+
+    /* Default size of the buffer */
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /* Channel to write the file to */
+    private final FileChannel channel;
+    /* Bytes not written yet */
+    private final ByteBuffer buffer;
+
+    /**
+     * Default constructor, with a buffer of <code>DEFAULT_BUFFER_SIZE</code>
+     * bytes. The file is created, or truncated if it exists.
+     *
+     * @param file index file to write.
+     * @throws java.io.IOException
+     */
+    public IndexEntryOutput(File file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor with a given buffer size. The file is created, or truncated
+     * if it exists.
+     *
+     * @param file index file to write.
+     * @param bufferSize size of the buffer in bytes.
+     * @throws java.io.IOException
+     */
+    public IndexEntryOutput(File file, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns the number of bytes an entry takes in an index file.
+     *
+     * @param term term of the entry.
+     * @param postingsSize size in bytes of the postings of the entry.
+     * @return the size of the entry in bytes.
+     */
+    public static int entrySize(String term, int postingsSize) {
+        return (term.length() + 1) * Character.BYTES + Integer.BYTES + postingsSize;
+    }
+
+    /**
+     * Writes an entry.
+     *
+     * @param entry entry to write.
+     * @throws java.io.IOException
+     */
+    public void write(IndexEntry entry) throws IOException {
+        write(entry.getTerm(), entry.getRawPostingsData());
+    }
+
+    /**
+     * Writes an entry given its term and its raw postings.
+     *
+     * @param term term of the entry.
+     * @param rawPostingsData postings of the entry, as stored in the file.
+     * @throws java.io.IOException
+     */
+    public void write(String term, byte[] rawPostingsData) throws IOException {
+        writeHeader(term, rawPostingsData.length);
+        for (int done = 0; done < rawPostingsData.length;) {
+            ensure(1);
+            int length = Math.min(buffer.remaining(), rawPostingsData.length - done);
+            buffer.put(rawPostingsData, done, length);
+            done += length;
+        }
+    }
+
+    /**
+     * Writes the term of an entry and the size of its postings, which must be
+     * followed by the postings.
+     *
+     * @param term term of the entry.
+     * @param postingsSize size in bytes of the postings of the entry.
+     * @throws java.io.IOException
+     */
+    public void writeHeader(String term, int postingsSize) throws IOException {
+        for (int i = 0; i < term.length(); i++) {
+            ensure(Character.BYTES);
+            buffer.putChar(term.charAt(i));
+        }
+        ensure(Character.BYTES + Integer.BYTES);
+        buffer.putChar(IndexEntry.DELIMITER);
+        buffer.putInt(postingsSize);
+    }
+
+    /**
+     * Writes an int of the postings of an entry.
+     *
+     * @param value int to write.
+     * @throws java.io.IOException
+     */
+    public void writeInt(int value) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes the buffered entries to the file.
+     *
+     * @throws java.io.IOException
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the buffered entries and closes the file.
+     *
+     * @throws java.io.IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Flushes the buffer if it has not room for the given number of bytes.
+     */
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.nio.IntBuffer;
+
+/**
+ * What the postings of an index store. Postings are consecutive ints:<br>
+ * <code>DOCS</code>: #docID<br>
+ * <code>FREQS</code>: #docID,#frequency<br>
+ * <code>POSITIONS</code>: #docID,#frequency,position1,...,positionN
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public enum IndexLayout {
+
+    /* Only docIds, every term frequency is taken as 1 */
+    DOCS,
+    /* DocIds and term frequencies */
+    FREQS,
+    /* DocIds, term frequencies and term positions */
+    POSITIONS;
+
+    /**
+     * Returns the layout recorded in the metadata of an index. Indexes with no
+     * layout recorded store positions.
+     *
+     * @param metadata metadata of the index.
+     * @return the layout of the index.
+     */
+    public static IndexLayout of(IndexMetadata metadata) {
+        String layout = metadata.get(IndexMetadata.LAYOUT_KEY);
+        return layout == null ? POSITIONS : valueOf(layout);
+    }
+
+    /**
+     * Returns true if postings with this layout store term positions.
+     *
+     * @return true if postings store term positions.
+     */
+    public boolean hasPositions() {
+        return this == POSITIONS;
+    }
+
+    /**
+     * Returns the number of ints of the posting that starts at the given
+     * index of a buffer.
+     *
+     * @param lb buffer with postings.
+     * @param i index of the first int of the posting.
+     * @return the number of ints of the posting.
+     */
+    public int postingLength(IntBuffer lb, int i) {
+        switch (this) {
+            case DOCS:
+                return 1;
+            case FREQS:
+                return 2;
+            default:
+                return 2 + lb.get(i + 1);
+        }
+    }
+
+    /**
+     * Returns the term frequency of the posting that starts at the given index
+     * of a buffer.
+     *
+     * @param lb buffer with postings.
+     * @param i index of the first int of the posting.
+     * @return the term frequency of the posting.
+     */
+    public int frequency(IntBuffer lb, int i) {
+        return this == DOCS ? 1 : lb.get(i + 1);
+    }
+}
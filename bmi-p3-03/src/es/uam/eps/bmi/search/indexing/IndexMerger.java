@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * IndexMerger class. Combines several finished indexes (built independently,
+ * for instance on different machines) into a single index. Documents of every
+ * input index are renumbered into one docId space in the order the indexes are
+ * given, the sorted entries of every index file are merged in a single
+ * sequential pass, and the dictionary and document modules are rebuilt using
+ * the global number of documents.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class IndexMerger {
+
+    /* Size of the buffers used to stream index files */
+    private static final int BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /* Path to save merged index */
+    private String indexPath;
+
+    /* TreeMap to store document names and given numeric id */
+    private TreeMap<Integer, String> docsmap;
+    /* Map containing offsets of terms in final index */
+    private TreeMap<String, Integer> termsoffset;
+    /* Doc modules, position i of array will correspond to document with docid i */
+    private double[] docMod;
+
+    /**
+     * Default constructor for <code>IndexMerger</code> class.
+     *
+     * @param indexPath path to save the merged index to.
+     */
+    public IndexMerger(String indexPath) {
+        this.indexPath = indexPath;
+        if (!indexPath.endsWith("/")) {
+            this.indexPath += "/";
+        }
+    }
+
+    /**
+     * Merges the given indexes into a single index stored in the path given to
+     * the constructor. Documents keep the relative order they had in their
+     * index, and indexes are appended in the order of the list.
+     *
+     * @param inputIndexPaths paths to the indexes to merge.
+     * @throws java.io.IOException
+     * @throws java.lang.ClassNotFoundException
+     */
+    public void merge(List<String> inputIndexPaths) throws IOException, ClassNotFoundException {
+        int inputs = inputIndexPaths.size();
+        String[] paths = new String[inputs];
+        for (int i = 0; i < inputs; i++) {
+            paths[i] = inputIndexPaths.get(i);
+            if (!paths[i].endsWith("/")) {
+                paths[i] += "/";
+            }
+        }
+
+        // Every index must store the same postings.
+        IndexLayout layout = IndexLayout.of(IndexMetadata.read(paths[0]));
+        for (int i = 1; i < inputs; i++) {
+            if (IndexLayout.of(IndexMetadata.read(paths[i])) != layout) {
+                throw new IOException("Indexes to merge have different layouts: " + paths[0] + ", " + paths[i]);
+            }
+        }
+
+        // Remap docIds of every index into a single id space.
+        int[][] docIdMaps = remapDocIds(paths);
+        docMod = new double[docsmap.size()];
+        termsoffset = new TreeMap<>();
+
+        File parent = new File(indexPath);
+        parent.mkdirs();
+
+        // Stream merge the sorted entries of every index.
+        PriorityQueue<MergeSource> heap = new PriorityQueue<>(Math.max(1, inputs));
+        List<MergeSource> sources = new ArrayList<>();
+        try (IndexEntryOutput out = new IndexEntryOutput(new File(indexPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            for (int i = 0; i < inputs; i++) {
+                MergeSource source = new MergeSource(i, paths[i] + IndexWriter.INDEX_FILE_NAME, docIdMaps[i]);
+                sources.add(source);
+                if (source.advance()) {
+                    heap.add(source);
+                }
+            }
+
+            int currentTermGap = IndexWriter.TERM_MAP_SIZE; //ensures that the first term is added to map with offset 0
+            int currentOffset = 0;
+            List<MergeSource> sameTerm = new ArrayList<>();
+            while (!heap.isEmpty()) {
+                // Pop every source whose current entry has the smallest term.
+                sameTerm.clear();
+                sameTerm.add(heap.poll());
+                String term = sameTerm.get(0).current.getTerm();
+                while (!heap.isEmpty() && heap.peek().current.getTerm().equals(term)) {
+                    sameTerm.add(heap.poll());
+                }
+
+                // Sources are popped in input order for equal terms, so the
+                // concatenation keeps postings sorted by the new docIds.
+                IndexEntry entryOut = null;
+                for (MergeSource source : sameTerm) {
+                    byte[] remapped = Posting.remapDocIds(source.current.getRawPostingsData(), source.docIdMap, layout);
+                    IndexEntry remappedEntry = new IndexEntry(term, remapped.length, remapped);
+                    entryOut = IndexEntry.mergeEntries(entryOut, remappedEntry);
+                    if (source.advance()) {
+                        heap.add(source);
+                    }
+                }
+
+                // Write the merged entry and rebuild dictionary and modules.
+                out.write(entryOut);
+                if (currentTermGap == IndexWriter.TERM_MAP_SIZE) { //save term to map
+                    termsoffset.put(term, currentOffset);
+                    currentTermGap = 0;
+                }
+                currentOffset += IndexEntryOutput.entrySize(term, entryOut.getPostingsSize());
+                currentTermGap++;
+                updateDocModules(Posting.listFromBytes(term, entryOut.getRawPostingsData(), layout));
+            }
+        } finally {
+            for (MergeSource source : sources) {
+                source.close();
+            }
+        }
+
+        //Save map files to it's file.
+        writeObject(indexPath + IndexWriter.TERMOFF_FILE_NAME, termsoffset);
+        writeObject(indexPath + IndexWriter.DOCMAP_FILE_NAME, docsmap);
+        writeObject(indexPath + IndexWriter.DOC_MODULES_FILE_NAME, docMod);
+        TermBounds.write(indexPath, docMod, layout);
+        IndexMetadata metadata = new IndexMetadata();
+        metadata.set(IndexMetadata.LAYOUT_KEY, layout.name());
+        metadata.write(indexPath);
+    }
+
+    /**
+     * Reads the document map of every input index and assigns each document a
+     * new id, building the merged document map.
+     *
+     * @param paths paths to the input indexes.
+     * @return for every input index, an array mapping old docIds to new ones.
+     */
+    private int[][] remapDocIds(String[] paths) throws IOException, ClassNotFoundException {
+        int[][] docIdMaps = new int[paths.length][];
+        docsmap = new TreeMap<>();
+        int nextDocId = 0;
+        for (int i = 0; i < paths.length; i++) {
+            TreeMap<Integer, String> inputDocs = IndexReader.readObject(paths[i] + IndexWriter.DOCMAP_FILE_NAME);
+            int[] docIdMap = new int[inputDocs.isEmpty() ? 0 : inputDocs.lastKey() + 1];
+            Arrays.fill(docIdMap, -1);
+            for (Integer oldDocId : inputDocs.keySet()) {
+                docIdMap[oldDocId] = nextDocId;
+                docsmap.put(nextDocId, inputDocs.get(oldDocId));
+                nextDocId++;
+            }
+            docIdMaps[i] = docIdMap;
+        }
+        return docIdMaps;
+    }
+
+    /**
+     * Calculates the module of documents as this function is called with every
+     * Posting list in the merged index.
+     *
+     * @param lp list of postings to update document modules with
+     */
+    private void updateDocModules(List<Posting> lp) {
+        if (lp == null) {
+            return;
+        }
+        int docsCount = docMod.length;
+        int docNoAppearance = lp.size();
+        lp.stream().forEach((p) -> {
+            double tf = 1 + (Math.log(p.getTermFrequency()) / Math.log(2));
+            double idf = Math.log((docsCount * 1.0) / docNoAppearance) / Math.log(2);
+            docMod[p.getDocID()] += Math.pow(tf, 2) * Math.pow(idf, 2);
+        });
+    }
+
+    /**
+     * Writes an object to the given file.
+     *
+     * @param fileName file to write to.
+     * @param o object to write.
+     */
+    private void writeObject(String fileName, Object o) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(fileName))) {
+            oos.writeObject(o);
+            oos.flush();
+        }
+    }
+
+    /**
+     * Sequential reader over the entries of one of the input indexes.
+     */
+    private static class MergeSource implements Comparable<MergeSource> {
+
+        /* Position of the index in the input list, breaks ties between terms */
+        private final int order;
+        /* Map from docIds of this index to merged docIds */
+        private final int[] docIdMap;
+        /* Reader of the index file */
+        private final IndexEntryInput in;
+        /* Entry currently at the head of this source */
+        private IndexEntry current;
+
+        public MergeSource(int order, String fileName, int[] docIdMap) throws IOException {
+            this.order = order;
+            this.docIdMap = docIdMap;
+            this.in = new IndexEntryInput(new File(fileName), BUFFER_SIZE);
+        }
+
+        /**
+         * Reads the next entry of the index.
+         *
+         * @return false when there are no more entries.
+         */
+        public boolean advance() throws IOException {
+            current = in.read();
+            return current != null;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public int compareTo(MergeSource other) {
+            int comparison = current.getTerm().compareTo(other.current.getTerm());
+            if (comparison != 0) {
+                return comparison;
+            }
+            return Integer.compare(order, other.order);
+        }
+    }
+
+    /**
+     * Main method for IndexMerger.
+     *
+     * Merges the indexes given as arguments into a new index.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory to store the merged index. "input_paths": Paths to the
+     * directories of the indexes to merge.
+     */
+    public static void main(String[] args) {
+        // Input control
+        if (args.length < 2) {
+            System.err.printf("Usage: %s index_path input_path [input_path ...]\n"
+                    + "\tindex_path: Path to a directory to store the merged index.\n"
+                    + "\tinput_path: Path to the directory of an index to merge.\n",
+                    IndexMerger.class.getSimpleName());
+            return;
+        }
+
+        long start = System.nanoTime();
+        IndexMerger merger = new IndexMerger(args[0]);
+        try {
+            merger.merge(Arrays.asList(args).subList(1, args.length));
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        } catch (ClassNotFoundException ex) {
+            System.err.println("Exception reading class from file: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+        long end = System.nanoTime();
+        System.out.println("Merged " + (args.length - 1) + " indexes in " + (end - start) / 1e6 + " milliseconds");
+    }
+}
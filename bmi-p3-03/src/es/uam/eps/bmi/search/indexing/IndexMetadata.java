@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * IndexMetadata class. Properties describing how an index was built, stored
+ * as a text file in the index folder. Indexes without the file have no
+ * properties.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class IndexMetadata {
+
+    /* Name of the file which contains the metadata of the index */
+    public static final String METADATA_FILE_NAME = "metadata";
+
+    /* Order of the docIds, one of DocIdReassigner.Order. Missing if docIds
+        follow the order in which documents were indexed */
+    public static final String DOCID_ORDER_KEY = "docid.order";
+    /* What the postings store, one of IndexLayout. Missing if they store
+        positions */
+    public static final String LAYOUT_KEY = "layout";
+    /* Number of shards of a ShardedIndex. Missing in other indexes */
+    public static final String SHARDS_KEY = "shards";
+    /* Number of impact levels of an impact index, and score of one level.
+        Missing in other indexes */
+    public static final String IMPACT_LEVELS_KEY = "impact.levels";
+    public static final String IMPACT_SCALE_KEY = "impact.scale";
+
+    /* Properties of the index */
+    private final Properties properties = new Properties();
+
+    /**
+     * Reads the metadata of the index stored in the given path.
+     *
+     * @param indexPath path to the index.
+     * @return the metadata of the index, empty if it has none.
+     * @throws java.io.IOException
+     */
+    public static IndexMetadata read(String indexPath) throws IOException {
+        IndexMetadata metadata = new IndexMetadata();
+        File f = new File(indexPath, METADATA_FILE_NAME);
+        if (f.exists()) {
+            try (InputStream is = new FileInputStream(f)) {
+                metadata.properties.load(is);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Writes the metadata to the index stored in the given path.
+     *
+     * @param indexPath path to the index.
+     * @throws java.io.IOException
+     */
+    public void write(String indexPath) throws IOException {
+        try (OutputStream os = new FileOutputStream(new File(indexPath, METADATA_FILE_NAME))) {
+            properties.store(os, null);
+        }
+    }
+
+    /**
+     * Returns the value of a property.
+     *
+     * @param key name of the property.
+     * @return the value of the property, null if it is not set.
+     */
+    public String get(String key) {
+        return properties.getProperty(key);
+    }
+
+    /**
+     * Sets the value of a property.
+     *
+     * @param key name of the property.
+     * @param value value of the property.
+     */
+    public void set(String key, String value) {
+        properties.setProperty(key, value);
+    }
+}
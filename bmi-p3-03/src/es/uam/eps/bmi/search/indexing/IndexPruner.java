@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * IndexPruner class. Builds a smaller copy of a finished index keeping, for
+ * every term, only the postings with a high impact on TF-IDF scores.<br>
+ * The policy is the top-k preservation of Carmel et al.: being
+ * <code>z_t</code> the k-th highest impact (tf * idf / docMod) among the
+ * postings of term <code>t</code>, postings with an impact lower than
+ * <code>epsilon * z_t</code> are dropped. Every query term then loses at most
+ * <code>epsilon * z_t</code> of the score of a document, so the top-k results
+ * of short queries are approximately preserved.<br>
+ * Document modules and the original document frequency of pruned terms are
+ * kept, so the remaining postings score as in the original index.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class IndexPruner {
+
+    /* Name of the file which contains the document frequency the pruned terms
+        had in the original index*/
+    public static final String DOC_FREQS_FILE_NAME = "docfreqs";
+    /* Folder, inside the original index, where builds with pruning enabled
+        store the pruned index*/
+    public static final String PRUNED_INDEX_FOLDER = "pruned/";
+
+    /* Default number of top postings preserved per term */
+    public static final int DEFAULT_TOP_K = 10;
+    /* Default fraction of the k-th impact below which postings are dropped */
+    public static final double DEFAULT_EPSILON = 0.5;
+
+    /* Size of the buffers used to stream index files */
+    private static final int BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /* Path to save pruned index */
+    private String indexPath;
+    /* Policy parameters */
+    private final int topK;
+    private final double epsilon;
+
+    /* Map containing offsets of terms in pruned index */
+    private TreeMap<String, Integer> termsoffset;
+    /* Original document frequency of the terms that lost postings */
+    private TreeMap<String, Integer> docFreqs;
+
+    /* Stats of the last pruning */
+    private long postingsIn = 0;
+    private long postingsOut = 0;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+
+    /**
+     * Default constructor for <code>IndexPruner</code> class.
+     *
+     * @param indexPath path to save the pruned index to.
+     * @param topK number of top postings preserved for every term.
+     * @param epsilon fraction of the k-th highest impact of a term below which
+     * its postings are dropped, between 0 and 1.
+     */
+    public IndexPruner(String indexPath, int topK, double epsilon) {
+        this.indexPath = indexPath;
+        if (!indexPath.endsWith("/")) {
+            this.indexPath += "/";
+        }
+        this.topK = topK;
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Prunes the given index into the path given to the constructor.
+     *
+     * @param inputIndexPath path to the finished index to prune.
+     * @throws java.io.IOException
+     * @throws java.lang.ClassNotFoundException
+     */
+    public void prune(String inputIndexPath) throws IOException, ClassNotFoundException {
+        if (!inputIndexPath.endsWith("/")) {
+            inputIndexPath += "/";
+        }
+        double[] docMod = IndexReader.readObject(inputIndexPath + IndexWriter.DOC_MODULES_FILE_NAME);
+        TreeMap<Integer, String> docsmap = IndexReader.readObject(inputIndexPath + IndexWriter.DOCMAP_FILE_NAME);
+        double docsCount = docsmap.size();
+        IndexLayout layout = IndexLayout.of(IndexMetadata.read(inputIndexPath));
+
+        termsoffset = new TreeMap<>();
+        docFreqs = new TreeMap<>();
+        postingsIn = postingsOut = bytesIn = bytesOut = 0;
+
+        File parent = new File(indexPath);
+        parent.mkdirs();
+
+        try (IndexEntryInput in = new IndexEntryInput(new File(inputIndexPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE);
+                IndexEntryOutput out = new IndexEntryOutput(new File(indexPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            int currentTermGap = IndexWriter.TERM_MAP_SIZE; //ensures that the first term is added to map with offset 0
+            IndexEntry ie;
+            while ((ie = in.read()) != null) {
+                String term = ie.getTerm();
+                bytesIn += IndexEntryOutput.entrySize(term, ie.getPostingsSize());
+
+                byte[] pruned = prunePostings(term, ie.getRawPostingsData(), layout, docMod, docsCount);
+
+                out.write(term, pruned);
+                if (currentTermGap == IndexWriter.TERM_MAP_SIZE) { //save term to map
+                    termsoffset.put(term, (int) bytesOut);
+                    currentTermGap = 0;
+                }
+                bytesOut += IndexEntryOutput.entrySize(term, pruned.length);
+                currentTermGap++;
+            }
+        }
+
+        // Documents and their modules are those of the original index.
+        writeObject(indexPath + IndexWriter.TERMOFF_FILE_NAME, termsoffset);
+        writeObject(indexPath + DOC_FREQS_FILE_NAME, docFreqs);
+        copyFile(inputIndexPath, IndexWriter.DOCMAP_FILE_NAME);
+        copyFile(inputIndexPath, IndexWriter.DOC_MODULES_FILE_NAME);
+        TermBounds.write(indexPath, docMod, layout);
+        if (new File(inputIndexPath + IndexWriter.ALIASES_FILE_NAME).exists()) {
+            copyFile(inputIndexPath, IndexWriter.ALIASES_FILE_NAME);
+        }
+        if (new File(inputIndexPath + IndexMetadata.METADATA_FILE_NAME).exists()) {
+            copyFile(inputIndexPath, IndexMetadata.METADATA_FILE_NAME);
+        }
+        if (DocumentStoreReader.exists(inputIndexPath)) {
+            copyFile(inputIndexPath, DocumentStoreWriter.DOCSTORE_FILE_NAME);
+            copyFile(inputIndexPath, DocumentStoreWriter.DOCSTORE_OFFSETS_FILE_NAME);
+        }
+    }
+
+    /**
+     * Applies the pruning policy to the postings of a term.
+     *
+     * @param term term of the postings.
+     * @param array raw postings data of the term.
+     * @param layout layout of the index.
+     * @param docMod squared document modules.
+     * @param docsCount number of documents in the index.
+     * @return raw postings data of the postings kept.
+     */
+    private byte[] prunePostings(String term, byte[] array, IndexLayout layout, double[] docMod, double docsCount) {
+        IntBuffer lb = ByteBuffer.wrap(array).asIntBuffer();
+
+        // Find the start and impact of every posting.
+        int docFreq = 0;
+        for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+            docFreq++;
+        }
+        postingsIn += docFreq;
+        if (docFreq <= topK) {
+            postingsOut += docFreq;
+            return array;
+        }
+        int[] starts = new int[docFreq];
+        double[] impacts = new double[docFreq];
+        double idf = Math.log(docsCount / docFreq) / Math.log(2);
+        for (int i = 0, p = 0; i < lb.limit(); i += layout.postingLength(lb, i), p++) {
+            double tf = 1 + (Math.log(layout.frequency(lb, i)) / Math.log(2));
+            starts[p] = i;
+            double mod = Math.sqrt(docMod[lb.get(i)]);
+            impacts[p] = mod > 0 ? tf * idf / mod : 0;
+        }
+
+        // Threshold from the k-th highest impact.
+        double[] sorted = impacts.clone();
+        Arrays.sort(sorted);
+        double threshold = epsilon * sorted[docFreq - topK];
+
+        // Copy the postings kept, in docId order.
+        ByteBuffer out = ByteBuffer.allocate(array.length);
+        int kept = 0;
+        for (int p = 0; p < docFreq; p++) {
+            if (impacts[p] >= threshold) {
+                int from = starts[p] * Integer.BYTES;
+                int to = p + 1 < docFreq ? starts[p + 1] * Integer.BYTES : array.length;
+                out.put(array, from, to - from);
+                kept++;
+            }
+        }
+        postingsOut += kept;
+        if (kept < docFreq) {
+            docFreqs.put(term, docFreq);
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Returns a summary of the last pruning.
+     *
+     * @return a summary of the last pruning.
+     */
+    public String getReport() {
+        return String.format("Postings kept: %d of %d (%.2f%%)\n"
+                + "Index size: %d of %d bytes (%.2f%% reduction)\n"
+                + "Terms pruned: %d",
+                postingsOut, postingsIn, 100.0 * postingsOut / Math.max(1, postingsIn),
+                bytesOut, bytesIn, 100.0 * (bytesIn - bytesOut) / Math.max(1, bytesIn),
+                docFreqs.size());
+    }
+
+    /**
+     * Writes an object to the given file.
+     *
+     * @param fileName file to write to.
+     * @param o object to write.
+     */
+    private void writeObject(String fileName, Object o) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(fileName))) {
+            oos.writeObject(o);
+            oos.flush();
+        }
+    }
+
+    /**
+     * Copies a file of the input index into the pruned index.
+     *
+     * @param inputIndexPath path to the input index.
+     * @param fileName name of the file to copy.
+     */
+    private void copyFile(String inputIndexPath, String fileName) throws IOException {
+        Files.copy(new File(inputIndexPath + fileName).toPath(), new File(indexPath + fileName).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Main method for IndexPruner.
+     *
+     * Prunes the index given as argument into a new index.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory to store the pruned index. "input_path": Path to the directory
+     * of the index to prune. Optional "k" and "epsilon": parameters of the
+     * pruning policy.
+     */
+    public static void main(String[] args) {
+        // Input control
+        int topK = DEFAULT_TOP_K;
+        double epsilon = DEFAULT_EPSILON;
+        try {
+            if (args.length > 2) {
+                topK = Integer.parseInt(args[2]);
+            }
+            if (args.length > 3) {
+                epsilon = Double.parseDouble(args[3]);
+            }
+        } catch (NumberFormatException ex) {
+            topK = -1;
+        }
+        if (args.length < 2 || args.length > 4 || topK < 1 || epsilon < 0 || epsilon > 1) {
+            System.err.printf("Usage: %s index_path input_path [k [epsilon]]\n"
+                    + "\tindex_path: Path to a directory to store the pruned index.\n"
+                    + "\tinput_path: Path to the directory of the index to prune.\n"
+                    + "\tk: Number of top postings preserved per term (default %d).\n"
+                    + "\tepsilon: Fraction of the k-th impact below which postings are dropped (default %.2f).\n",
+                    IndexPruner.class.getSimpleName(), DEFAULT_TOP_K, DEFAULT_EPSILON);
+            return;
+        }
+
+        long start = System.nanoTime();
+        IndexPruner pruner = new IndexPruner(args[0], topK, epsilon);
+        try {
+            pruner.prune(args[1]);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        } catch (ClassNotFoundException ex) {
+            System.err.println("Exception reading class from file: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+        long end = System.nanoTime();
+        System.out.println(pruner.getReport());
+        System.out.println("Index pruned in " + (end - start) / 1e6 + " milliseconds");
+    }
+}
@@ -22,14 +22,17 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * IndexReader class.
+ * IndexReader class. The reader is thread-safe: postings pinned or cached
+ * are returned without locking, and the index file is read by one thread at
+ * a time.
  *
  * @author Enrique Cabrerizo Fernández
  * @author Guillermo Ruiz Álvarez
@@ -50,6 +53,14 @@ public class IndexReader {
     /* Name of the file which contains the list of terms and its offset in the
         final index*/
     protected static final String DOC_MODULES_FILE_NAME = IndexWriter.DOC_MODULES_FILE_NAME;
+    /* Name of the file which contains, for every document, the names of the
+        near-duplicates folded into it*/
+    protected static final String ALIASES_FILE_NAME = IndexWriter.ALIASES_FILE_NAME;
+    /* Name of the file which contains the original document frequency of
+        the terms of a pruned index*/
+    protected static final String DOC_FREQS_FILE_NAME = IndexPruner.DOC_FREQS_FILE_NAME;
+    /* Name of the file which contains the score bound of every term */
+    protected static final String TERM_BOUNDS_FILE_NAME = TermBounds.TERM_BOUNDS_FILE_NAME;
     /* Path to save index */
     protected String indexPath;
 
@@ -57,9 +68,22 @@ public class IndexReader {
     protected TreeMap<Integer, String> docsmap;
     /* Map containing offsets of terms in final index */
     protected TreeMap<String, Integer> termsoffset;
+    /* Names of the near-duplicates folded into each document, null if none */
+    protected TreeMap<Integer, List<String>> aliases;
+    /* Original document frequency of the terms pruned, null if not pruned */
+    protected TreeMap<String, Integer> docFreqs;
+    /* Score bound of every term, null if the index has none */
+    protected TreeMap<String, Double> termBounds;
+    /* Metadata of the index */
+    protected IndexMetadata metadata;
+    /* What the postings store */
+    protected IndexLayout layout;
 
     /* File to read index from */
-    private final RandomAccessFile raf;
+    private final IndexEntryInput input;
+    /* Size of the window of the index file kept in memory, enough for a few
+        blocks of TERM_MAP_SIZE terms */
+    private static final int READ_BUFFER_SIZE = 256 * 1024; //256KB
 
     /* Indicates the number of terms gap in termMapFile so that
         only 1 of every termMapSize terms will be written to termMapFile file */
@@ -69,6 +93,15 @@ public class IndexReader {
     private String lastRead = "";
     /* last term read offset in block */
     private int lastReadOffset = 0;
+    /* postings of the last term found */
+    private volatile CompactPostings lastPostings = null;
+
+    /* Decoded postings of the terms pinned in memory, never released */
+    private final ConcurrentHashMap<String, List<Posting>> pinnedPostings = new ConcurrentHashMap<>();
+    /* Estimated memory used by the pinned postings, in bytes */
+    private long pinnedSize = 0;
+    /* Decoded postings of the terms read recently, bounded by memory */
+    private final PostingsCache postingsCache = new PostingsCache(PostingsCache.DEFAULT_MAX_BYTES);
 
     /**
      * Default constructor.
@@ -82,25 +115,46 @@ public class IndexReader {
         if (!indexPath.endsWith("/")) {
             this.indexPath += "/";
         }
-        raf = new RandomAccessFile(new File(this.indexPath + INDEX_FILE_NAME), "r");
-        docsmap = (TreeMap<Integer, String>) (new ObjectInputStream(new FileInputStream(this.indexPath + DOCMAP_FILE_NAME))).readObject();
-        termsoffset = (TreeMap<String, Integer>) (new ObjectInputStream(new FileInputStream(this.indexPath + TERMOFF_FILE_NAME))).readObject();
-        docMod = (double[]) (new ObjectInputStream(new FileInputStream(this.indexPath + DOC_MODULES_FILE_NAME))).readObject();
+        input = new IndexEntryInput(new File(this.indexPath + INDEX_FILE_NAME), READ_BUFFER_SIZE);
+        docsmap = readObject(this.indexPath + DOCMAP_FILE_NAME);
+        termsoffset = readObject(this.indexPath + TERMOFF_FILE_NAME);
+        docMod = readObject(this.indexPath + DOC_MODULES_FILE_NAME);
+        if (new File(this.indexPath + ALIASES_FILE_NAME).exists()) {
+            aliases = readObject(this.indexPath + ALIASES_FILE_NAME);
+        }
+        if (new File(this.indexPath + DOC_FREQS_FILE_NAME).exists()) {
+            docFreqs = readObject(this.indexPath + DOC_FREQS_FILE_NAME);
+        }
+        if (new File(this.indexPath + TERM_BOUNDS_FILE_NAME).exists()) {
+            termBounds = readObject(this.indexPath + TERM_BOUNDS_FILE_NAME);
+        }
+        metadata = IndexMetadata.read(this.indexPath);
+        layout = IndexLayout.of(metadata);
     }
 
     /**
      * Constructor from an IndexWriter.
      *
      * @param iw IndexWriter to build reader from.
-     * @throws java.io.FileNotFoundException
+     * @throws java.io.IOException
      *
      */
-    public IndexReader(IndexWriter iw) throws FileNotFoundException {
+    public IndexReader(IndexWriter iw) throws IOException {
         this.docMod = iw.docMod;
         this.docsmap = iw.docsmap;
         this.indexPath = iw.indexPath;
         this.termsoffset = iw.termsoffset;
-        raf = new RandomAccessFile(new File(this.indexPath + INDEX_FILE_NAME), "r");
+        this.aliases = iw.aliases;
+        this.metadata = iw.metadata;
+        this.layout = iw.layout;
+        input = new IndexEntryInput(new File(this.indexPath + INDEX_FILE_NAME), READ_BUFFER_SIZE);
+        if (new File(this.indexPath + TERM_BOUNDS_FILE_NAME).exists()) {
+            try {
+                termBounds = readObject(this.indexPath + TERM_BOUNDS_FILE_NAME);
+            } catch (ClassNotFoundException ex) {
+                throw new IOException(ex);
+            }
+        }
     }
 
     /**
@@ -112,6 +166,15 @@ public class IndexReader {
         return new ArrayList<>(docsmap.keySet());
     }
 
+    /**
+     * Returns the number of documents of the index.
+     *
+     * @return the number of documents of the index.
+     */
+    int getDocsCount() {
+        return docsmap.size();
+    }
+
     /**
      * Returns a <code>TextDocument</code> corresponding to id passed or null if
      * such document does not exist in index.
@@ -127,6 +190,39 @@ public class IndexReader {
         return new TextDocument(docId, docname);
     }
 
+    /**
+     * Returns the names of the near-duplicate documents folded into the
+     * document with the given id.
+     *
+     * @param docId document numeric ID to look for
+     * @return the names of the documents folded into the given one, an empty
+     * list if there are none.
+     */
+    public List<String> getDocumentAliases(int docId) {
+        if (aliases == null || !aliases.containsKey(docId)) {
+            return new ArrayList<>();
+        }
+        return aliases.get(docId);
+    }
+
+    /**
+     * Returns the metadata of the index.
+     *
+     * @return the metadata of the index.
+     */
+    public IndexMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Returns what the postings of the index store.
+     *
+     * @return the layout of the index.
+     */
+    public IndexLayout getLayout() {
+        return layout;
+    }
+
     /**
      * Returns the module of the document corresponding to the id passed as
      * argument
@@ -145,12 +241,12 @@ public class IndexReader {
      * @return List of terms in the index
      * @throws java.io.IOException
      */
-    public List<String> getTerms() throws IOException {
+    public synchronized List<String> getTerms() throws IOException {
         List<String> terms = new ArrayList<>();
         IndexEntry ie;
-        raf.seek(0);
+        input.seek(0);
 
-        while ((ie = IndexEntry.readEntry(raf)) != null) {
+        while ((ie = input.read()) != null) {
             terms.add(ie.getTerm());
         }
         return terms;
@@ -165,6 +261,27 @@ public class IndexReader {
      * @throws java.io.IOException
      */
     public List<Posting> getTermPostings(String term) throws IOException {
+        List<Posting> pinned = pinnedPostings.get(term);
+        if (pinned != null) {
+            return pinned;
+        }
+        CompactPostings cached = postingsCache.get(term);
+        if (cached != null) {
+            return cached;
+        }
+        return readTermPostings(term);
+    }
+
+    /**
+     * Seeks for a term in the index file and decodes its postings, caching
+     * them.
+     *
+     * @param term term to seek in the index.
+     * @return List of Postings associated to the term if it exists in the
+     * index.
+     * @throws java.io.IOException
+     */
+    private synchronized List<Posting> readTermPostings(String term) throws IOException {
         Entry<String, Integer> lowerBound = termsoffset.floorEntry(term);
         if (lowerBound == null) //term string is less than the first entry in the map.
         {
@@ -173,25 +290,166 @@ public class IndexReader {
         //find if term is after last read term but in the same block. In that
         //case, there is no need to move the reading pointer in the file.
         if ((lastRead.compareTo(lowerBound.getKey()) < 0) || (lastRead.compareTo(term) >= 0)) {
-            raf.seek(lowerBound.getValue());
+            input.seek(lowerBound.getValue());
             lastReadOffset = 0;
         }
 
         for (int i = lastReadOffset; i < TERM_MAP_SIZE; i++, lastReadOffset++) {
-            IndexEntry ie = IndexEntry.readEntry(raf);
+            IndexEntry ie = input.read();
             if (ie == null) //end of file
             {
                 break;
             }
-            if (term.compareTo(ie.getTerm()) == 0) {
+            int comparison = term.compareTo(ie.getTerm());
+            if (comparison == 0) {
                 lastRead = ie.getTerm();
                 lastReadOffset++;
-                return Posting.listFromBytes(term, ie.getRawPostingsData());
+                CompactPostings postings = new CompactPostings(term, ie.getRawPostingsData(), layout);
+                postingsCache.put(term, postings);
+                lastPostings = postings;
+                return postings;
+            }
+            if (comparison < 0) //terms are sorted, the term is not in the index
+            {
+                break;
             }
         }
         lastRead = "";
         lastReadOffset = 0;
+        lastPostings = null;
         return null;
     }
 
+    /**
+     * Decodes the postings of a term and keeps them in memory, so that they
+     * are never read from the index file again.
+     *
+     * @param term term to pin.
+     * @return the estimated memory used by the postings of the term, in
+     * bytes, 0 if the term is not in the index or it was already pinned.
+     * @throws java.io.IOException
+     */
+    public synchronized long pinTermPostings(String term) throws IOException {
+        if (pinnedPostings.containsKey(term)) {
+            return 0;
+        }
+        List<Posting> postings = getTermPostings(term);
+        if (postings == null) {
+            return 0;
+        }
+        long size = getMemorySize(postings);
+        // Compact postings are already read-only.
+        pinnedPostings.put(term, postings instanceof CompactPostings ? postings : Collections.unmodifiableList(postings));
+        pinnedSize += size;
+        return size;
+    }
+
+    /**
+     * Releases the postings pinned in memory.
+     */
+    public synchronized void clearPinnedPostings() {
+        pinnedPostings.clear();
+        pinnedSize = 0;
+    }
+
+    /**
+     * Returns the estimated memory used by the postings pinned.
+     *
+     * @return the memory used by the pinned postings, in bytes.
+     */
+    public synchronized long getPinnedSize() {
+        return pinnedSize;
+    }
+
+    /**
+     * Returns the cache of the decoded postings of the terms read recently,
+     * shared by every searcher of the index.
+     *
+     * @return the cache of decoded postings.
+     */
+    public PostingsCache getPostingsCache() {
+        return postingsCache;
+    }
+
+    /**
+     * Returns an estimate of the heap memory used by a list of postings.
+     *
+     * @param postings list of postings.
+     * @return the estimated size of the list in memory, in bytes.
+     */
+    public static long getMemorySize(List<Posting> postings) {
+        if (postings instanceof CompactPostings) {
+            return ((CompactPostings) postings).getMemorySize();
+        }
+        long size = 40 + 4 * postings.size(); //list and array
+        for (Posting posting : postings) {
+            size += posting.getMemorySize();
+        }
+        return size;
+    }
+
+    /**
+     * Closes the index file. The reader cannot be used afterwards.
+     *
+     * @throws java.io.IOException
+     */
+    public synchronized void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Returns the score bound of a term: the maximum of tf / docMod among its
+     * postings (see <code>TermBounds</code>).
+     *
+     * @param term term to seek in the index.
+     * @return the score bound of the term, infinite if the index has no
+     * bounds, 0 if the term does not exist in the index.
+     */
+    public double getTermBound(String term) {
+        if (termBounds == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        Double bound = termBounds.get(term);
+        return bound == null ? 0 : bound;
+    }
+
+    /**
+     * Returns the number of documents containing a term. In a pruned index
+     * this is the number of documents the term had before pruning, which may
+     * be greater than the number of its postings.
+     *
+     * @param term term to seek in the index.
+     * @return the number of documents containing the term, 0 if the term does
+     * not exist in the index.
+     * @throws java.io.IOException
+     */
+    public int getTermDocFrequency(String term) throws IOException {
+        // docFreqs is never modified once loaded, so it is read without locking.
+        Integer docFreq = docFreqs == null ? null : docFreqs.get(term);
+        if (docFreq != null) {
+            return docFreq;
+        }
+        // Postings of the last term read are not read again.
+        CompactPostings last = lastPostings;
+        List<Posting> postings = last != null && term.equals(last.getTerm()) ? last : getTermPostings(term);
+        return postings == null ? 0 : postings.size();
+    }
+
+
+    /**
+     * Reads a serialized object of an index from the given file. The caller
+     * gives the type of the object, which is not checked.
+     *
+     * @param <T> type of the object.
+     * @param fileName file to read from.
+     * @return the object read.
+     * @throws java.io.IOException
+     * @throws java.lang.ClassNotFoundException
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T readObject(String fileName) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(fileName))) {
+            return (T) ois.readObject();
+        }
+    }
 }
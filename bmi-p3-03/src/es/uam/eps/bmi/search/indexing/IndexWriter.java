@@ -16,10 +16,7 @@
  */
 package es.uam.eps.bmi.search.indexing;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
@@ -44,10 +41,10 @@ public class IndexWriter {
     /* Attributes */
  /* default block size to keep in RAM */
     private static final int BLOCK_DEFAULT = 128 * 1024 * 1024; //128MB
+    /* size of the buffers used to read and write index files while merging */
+    private static final int MERGE_BUFFER_SIZE = 1024 * 1024; //1MB
     /* when block size is greater than this value, a block will be written to disc */
     private int maxBlockSize;
-    /* maximum amount of RAM to use before writing to disc */
-    private int currentBlockSize;
     /* Indicates the number of terms gap in termMapFile so that
         only 1 of every termMapSize terms will be written to termMapFile file */
     public static final int TERM_MAP_SIZE = 100;
@@ -72,19 +69,39 @@ public class IndexWriter {
     /* Name of the file which contains the list of terms and its offset in the
         final index*/
     public static final String DOC_MODULES_FILE_NAME = "modules";
+    /* Name of the file which contains, for every document, the names of the
+        near-duplicates folded into it*/
+    public static final String ALIASES_FILE_NAME = "aliases";
+    /* Folder, inside the index, of the index of pairs of adjacent terms */
+    public static final String BIWORD_INDEX_FOLDER = "biword/";
+    /* Separator of the two terms of a biword. Terms never contain whitespace */
+    public static final char BIWORD_SEPARATOR = '\t';
     /* Path to save index */
     protected String indexPath;
 
     /* TreeMap to store document names and given numeric id */
     protected TreeMap<Integer, String> docsmap;
-    /* TreeMap to store current block dictionary */
-    private TreeMap<String, List<Posting>> termmap;
+    /* Current block dictionary and postings, kept off the heap */
+    private OffHeapBlock block;
     /* Map containing offsets of terms in final index */
     protected TreeMap<String, Integer> termsoffset;
 
     /* Checks if index is already merged so no new files can be added */
     private boolean closed = false;
 
+    /* Detector of near-duplicate documents, null if disabled */
+    private NearDuplicateDetector nearDuplicateDetector = null;
+    /* Store of the text of the documents, null if disabled */
+    private DocumentStoreWriter documentStore = null;
+    /* Writer of the index of pairs of adjacent terms, null if disabled */
+    private IndexWriter biwordWriter = null;
+    /* What the postings store */
+    protected IndexLayout layout = IndexLayout.POSITIONS;
+    /* Metadata of the index, written when the writer is closed */
+    protected IndexMetadata metadata = new IndexMetadata();
+    /* Names of the near-duplicates folded into each document */
+    protected TreeMap<Integer, List<String>> aliases = null;
+
     /**
      * Default constructor for <code>IndexWriter</code> class.
      *
@@ -104,13 +121,67 @@ public class IndexWriter {
         this.indexPath = indexPath;
         this.maxBlockSize = maxBlockSize;
         this.docsmap = new TreeMap<>();
-        this.termmap = new TreeMap<>();
+        this.block = new OffHeapBlock(layout);
         this.termsoffset = new TreeMap<>();
         if (!indexPath.endsWith("/")) {
             this.indexPath += "/";
         }
     }
 
+    /**
+     * Enables the detection of near-duplicate documents. Documents found to be
+     * near-duplicates of an already added one are not indexed.
+     *
+     * @param nearDuplicateDetector detector to use, null to disable detection.
+     */
+    public void setNearDuplicateDetector(NearDuplicateDetector nearDuplicateDetector) {
+        this.nearDuplicateDetector = nearDuplicateDetector;
+    }
+
+    /**
+     * Sets what the postings of the index store. Must be called before adding
+     * any document.
+     *
+     * @param layout layout of the index.
+     */
+    public void setLayout(IndexLayout layout) {
+        this.layout = layout;
+        this.block = new OffHeapBlock(layout);
+    }
+
+    /**
+     * Stores the text of the documents added from now on in the given
+     * document store, which is closed with the writer.
+     *
+     * @param documentStore store to use, null to disable it.
+     */
+    public void setDocumentStore(DocumentStoreWriter documentStore) {
+        this.documentStore = documentStore;
+    }
+
+    /**
+     * Enables or disables the index of pairs of adjacent terms (biwords),
+     * built in the <code>BIWORD_INDEX_FOLDER</code> folder of the index. Every
+     * biword has the postings of its first term's positions. Must be called
+     * before adding any document.
+     *
+     * @param biwords true to build the biword index.
+     */
+    public void setBiwordIndex(boolean biwords) {
+        this.biwordWriter = biwords ? new IndexWriter(indexPath + BIWORD_INDEX_FOLDER, maxBlockSize) : null;
+    }
+
+    /**
+     * Returns the biword made of two terms, as stored in the biword index.
+     *
+     * @param first first term.
+     * @param second second term.
+     * @return the biword of both terms.
+     */
+    public static String biword(String first, String second) {
+        return first + BIWORD_SEPARATOR + second;
+    }
+
     /**
      * Adds document passed to the index.<br>
      * Assumes that every term in content is separated by spaces.
@@ -135,42 +206,53 @@ public class IndexWriter {
         if (closed) {
             return;
         }
+        if (nearDuplicateDetector != null && nearDuplicateDetector.check(currentDocId, docName, content) >= 0) {
+            return; //near-duplicate of a document already in the index
+        }
+        if (documentStore != null) {
+            documentStore.add(currentDocId, content);
+        }
+        if (biwordWriter != null) {
+            addBiwords(docName, content);
+        }
         for (String term : content) {
             if (term.length() == 0) {
                 continue; //avoid empty strings
             }
-            List<Posting> lp;
-            if (termmap.containsKey(term)) { //get term list of postings and add this position
-                lp = termmap.get(term);
-                Posting lastposting = lp.get(lp.size() - 1); //get last postings and check docid
-                if (lastposting.getDocID() == currentDocId) { //a list of postings for this document already exists, add position.
-                    lastposting.addPosition(termPosition);
-                    currentBlockSize += Integer.BYTES;
-                } else { // create a new posting and add it to the list
-                    Posting p = new Posting(term, currentDocId, new ArrayList<>());
-                    p.addPosition(termPosition);
-                    lp.add(p);
-                    currentBlockSize += p.positionsToBytesSize();
-                }
-            } else { //create a new entry in Dictionary and add a new posting for the term.
-                Posting p = new Posting(term, currentDocId, new ArrayList<>());
-                p.addPosition(termPosition);
-                lp = new ArrayList<>();
-                lp.add(p);
-                currentBlockSize += ((term + Character.toString(IndexEntry.DELIMITER)).length()) * Character.BYTES
-                        + Integer.BYTES + (1 + p.positionsToBytesSize());
-            }
-            termmap.put(term, lp);
+            block.add(term, currentDocId, termPosition);
             termPosition++;
         }
 
-        if (currentBlockSize >= maxBlockSize) {
+        if (block.getSize() >= maxBlockSize) {
             writeBlock();
         }
         docsmap.put(currentDocId, docName);
         currentDocId++;
     }
 
+    /**
+     * Adds the biwords of a document to the biword index, so that the docId
+     * of the document and the position of every biword match those of its
+     * first term in this index.
+     *
+     * @param docName name of the document.
+     * @param content tokens of the document.
+     */
+    private void addBiwords(String docName, String[] content) throws IOException {
+        List<String> biwords = new ArrayList<>();
+        String previous = null;
+        for (String term : content) {
+            if (term.length() == 0) {
+                continue; //empty strings do not take positions
+            }
+            if (previous != null) {
+                biwords.add(biword(previous, term));
+            }
+            previous = term;
+        }
+        biwordWriter.add(docName, biwords.toArray(new String[biwords.size()]));
+    }
+
     /**
      * Finishes the creation of the index. This method must be called after last
      * document is added so the index can be closed and every temp file merged
@@ -182,7 +264,7 @@ public class IndexWriter {
 
         ExecutorService execServ = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
-        if (currentBlockSize > 0) {
+        if (!block.isEmpty()) {
             writeBlock();
         }
         int remainingFiles = currentBlockId;
@@ -235,6 +317,33 @@ public class IndexWriter {
         oos.writeObject(docMod);
         oos.flush();
         oos.close();
+        if (docMod != null) {
+            TermBounds.write(indexPath, docMod, layout);
+        }
+
+        if (documentStore != null) {
+            documentStore.close();
+        }
+        if (biwordWriter != null) {
+            biwordWriter.close();
+        }
+
+        metadata.set(IndexMetadata.LAYOUT_KEY, layout.name());
+        metadata.write(indexPath);
+
+        //Report near-duplicates and save the folded ones.
+        if (nearDuplicateDetector != null) {
+            nearDuplicateDetector.writeReport(new File(indexPath + NearDuplicateDetector.REPORT_FILE_NAME), docsmap);
+            System.out.println(nearDuplicateDetector.getDuplicatesCount() + " near-duplicates found in "
+                    + nearDuplicateDetector.getClusters().size() + " clusters");
+            if (nearDuplicateDetector.getMode() == NearDuplicateDetector.Mode.FOLD) {
+                aliases = nearDuplicateDetector.getClusters();
+                oos = new ObjectOutputStream(new FileOutputStream(indexPath + ALIASES_FILE_NAME));
+                oos.writeObject(aliases);
+                oos.flush();
+                oos.close();
+            }
+        }
 
         closed = true;
     }
@@ -245,87 +354,46 @@ public class IndexWriter {
     private void merge(File src1, File src2, File dst, boolean lastMerge) throws IOException {
         int currentTermGap = TERM_MAP_SIZE; //ensures that the first term is added to map with offset 0
         int currentOffset = 0;
-        int bytesWritten;
-        DataInputStream dis1, dis2 = null;
-        DataOutputStream dos;
         IndexEntry e1, e2 = null, entryOut;
         if ((src2 == null) && (lastMerge != true)) { //odd number of files, just rename for next iteration and return
             src1.renameTo(dst);
             return;
         }
-        dis1 = new DataInputStream(new FileInputStream(src1));
-        dos = new DataOutputStream(new FileOutputStream(dst));
-        e1 = IndexEntry.readEntry(dis1);
-        if (src2 != null) {
-            dis2 = new DataInputStream(new FileInputStream(src2));
-            e2 = IndexEntry.readEntry(dis2);
-        }
-        while (e1 != null && e2 != null) //compare terms read and write to the new file.
-        {
-            int comparison = e1.getTerm().compareTo(e2.getTerm());
-            if (comparison < 0) //e2 term is greater than e1, write e1 to disc 
-            {
-                entryOut = e1;
-                e1 = IndexEntry.readEntry(dis1);
-            } else if (comparison > 0) //e1 term is greater than e2, write e2 to disc
-            {
-                entryOut = e2;
-                e2 = IndexEntry.readEntry(dis2);
-            } else { //same term, concatenate postings
-                entryOut = IndexEntry.mergeEntries(e1, e2);
-                e1 = IndexEntry.readEntry(dis1);
-                e2 = IndexEntry.readEntry(dis2);
+        try (IndexEntryInput in1 = new IndexEntryInput(src1, MERGE_BUFFER_SIZE);
+                IndexEntryInput in2 = src2 != null ? new IndexEntryInput(src2, MERGE_BUFFER_SIZE) : null;
+                IndexEntryOutput out = new IndexEntryOutput(dst, MERGE_BUFFER_SIZE)) {
+            e1 = in1.read();
+            if (in2 != null) {
+                e2 = in2.read();
             }
-            dos.writeChars(entryOut.getTerm() + Character.toString(IndexEntry.DELIMITER));
-            dos.writeInt(entryOut.getPostingsSize());
-            dos.write(entryOut.getRawPostingsData());
-            if (lastMerge) { //if merging last two files, update termOffset and document modules
-                bytesWritten = (entryOut.getTerm() + Character.toString(IndexEntry.DELIMITER)).length() * Character.BYTES
-                        + Integer.BYTES + entryOut.getPostingsSize();
-                if (currentTermGap == TERM_MAP_SIZE) { //save term to map
-                    termsoffset.put(entryOut.getTerm(), currentOffset);
-                    currentTermGap = 0;
+            while (e1 != null || e2 != null) //compare terms read and write to the new file.
+            {
+                int comparison = e1 == null ? 1 : e2 == null ? -1 : e1.getTerm().compareTo(e2.getTerm());
+                if (comparison < 0) //e2 term is greater than e1, write e1 to disc
+                {
+                    entryOut = e1;
+                    e1 = in1.read();
+                } else if (comparison > 0) //e1 term is greater than e2, write e2 to disc
+                {
+                    entryOut = e2;
+                    e2 = in2.read();
+                } else { //same term, concatenate postings
+                    entryOut = IndexEntry.mergeEntries(e1, e2);
+                    e1 = in1.read();
+                    e2 = in2.read();
                 }
-                currentOffset += bytesWritten;
-                currentTermGap++;
-                updateDocModules(Posting.listFromBytes(entryOut.getTerm(), entryOut.getRawPostingsData()));
-            }
-        }
-
-        DataInputStream remainingStream = null;
-        entryOut = null;
-        if (e1 != null) { //src2 file ended, copy rest of content from dis1 file to dos
-            remainingStream = dis1;
-            entryOut = e1;
-        } else if (e2 != null) { //src1 file ended, copy rest of content from dis2 to dos
-            remainingStream = dis2;
-            entryOut = e2;
-        }
-        while (entryOut != null) {
-            dos.writeChars(entryOut.getTerm() + Character.toString(IndexEntry.DELIMITER));
-            dos.writeInt(entryOut.getPostingsSize());
-            dos.write(entryOut.getRawPostingsData());
-            if (lastMerge) { //if merging last two files, update termOffset and document modules
-                bytesWritten = (entryOut.getTerm() + Character.toString(IndexEntry.DELIMITER)).length() * Character.BYTES
-                        + Integer.BYTES + entryOut.getPostingsSize();
-                if (currentTermGap == TERM_MAP_SIZE) { //save term to map
-                    termsoffset.put(entryOut.getTerm(), currentOffset);
-                    currentTermGap = 0;
+                out.write(entryOut);
+                if (lastMerge) { //if merging last two files, update termOffset and document modules
+                    if (currentTermGap == TERM_MAP_SIZE) { //save term to map
+                        termsoffset.put(entryOut.getTerm(), currentOffset);
+                        currentTermGap = 0;
+                    }
+                    currentOffset += IndexEntryOutput.entrySize(entryOut.getTerm(), entryOut.getPostingsSize());
+                    currentTermGap++;
+                    updateDocModules(Posting.listFromBytes(entryOut.getTerm(), entryOut.getRawPostingsData(), layout));
                 }
-                currentOffset += bytesWritten;
-                currentTermGap++;
-                updateDocModules(Posting.listFromBytes(entryOut.getTerm(), entryOut.getRawPostingsData()));
             }
-            entryOut = IndexEntry.readEntry(remainingStream);
         }
-        dis1.close();
-        if (src2 != null) {
-            if (dis2 != null) {
-                dis2.close();
-            }
-        }
-        dos.flush();
-        dos.close();
     }
 
     /**
@@ -342,25 +410,13 @@ public class IndexWriter {
                 parent.mkdirs();
             }
         }
-        try (
-                // for every term, write it followed by a ' ' and then, the size of the
-                // postings list and the list itself.
-                DataOutputStream dos = new DataOutputStream(new FileOutputStream(f))) {
-            for (String term : termmap.keySet()) {
-                List<Posting> lp = termmap.get(term);
-                int size = 0;
-                size = lp.stream().map((p) -> p.positionsToBytesSize()).reduce(size, Integer::sum);
-                dos.writeChars(term + Character.toString(IndexEntry.DELIMITER));
-                dos.writeInt(size);
-                for (Posting p : lp) {
-                    dos.write(p.positionsToBytes());
-                }
-            }
-            dos.flush();
+        // for every term, write it followed by a ' ' and then, the size of the
+        // postings list and the list itself.
+        try (IndexEntryOutput out = new IndexEntryOutput(f, MERGE_BUFFER_SIZE)) {
+            block.write(out);
         }
         currentBlockId++;
-        currentBlockSize = 0;
-        termmap.clear();
+        block.clear();
     }
 
     /**
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.TextDocument;
+import es.uam.eps.bmi.util.MinHeap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * LocalShard class. Shard whose index is loaded in this process. Documents are
+ * scored term at a time, adding the weights of the terms in query order.<br>
+ * Indexes are not thread-safe, so requests are served one at a time.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class LocalShard implements Shard {
+
+    /* Index of the shard */
+    private final Index index;
+    /* Number of documents of the shard */
+    private final int documentsCount;
+
+    /* Score of every document, and documents with a score */
+    private final double[] scores;
+    private final boolean[] seen;
+    private final int[] touched;
+
+    /**
+     * Default constructor.
+     *
+     * @param index index of the shard, must be loaded.
+     */
+    public LocalShard(Index index) {
+        this.index = index;
+        List<Integer> docIds = index.getDocIds();
+        this.documentsCount = docIds.size();
+        int size = docIds.isEmpty() ? 0 : Collections.max(docIds) + 1;
+        this.scores = new double[size];
+        this.seen = new boolean[size];
+        this.touched = new int[size];
+    }
+
+    /**
+     * Returns the index of the shard.
+     *
+     * @return the index of the shard.
+     */
+    public Index getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the number of documents of the shard.
+     *
+     * @return the number of documents of the shard.
+     */
+    @Override
+    public int getDocumentsCount() {
+        return documentsCount;
+    }
+
+    /**
+     * Returns the top documents of the shard for a query, with TF-IDF scores.
+     *
+     * @param terms terms of the query.
+     * @param idfs idf of every term in the whole collection.
+     * @param topResultsNumber maximum number of results to retrieve.
+     * @return a ranking of documents of the shard sorted by decrementing
+     * score.
+     */
+    @Override
+    public synchronized List<ScoredTextDocument> search(String[] terms, double[] idfs, int topResultsNumber) {
+        int touchedCount = 0;
+        for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
+            PostingList termPostings = PostingList.of(index.getTermPostings(terms[termIndex]));
+            if (termPostings == null) {
+                continue;
+            }
+            for (int p = 0; p < termPostings.size(); p++) {
+                int docId = termPostings.getDocID(p);
+                double tf = 1 + (Math.log(termPostings.getTermFrequency(p)) / Math.log(2));
+                if (!seen[docId]) {
+                    seen[docId] = true;
+                    touched[touchedCount++] = docId;
+                }
+                scores[docId] += tf * idfs[termIndex] / index.getDocModule(docId);
+            }
+        }
+
+        // Top results, offered in docId order.
+        Arrays.sort(touched, 0, touchedCount);
+        MinHeap<ScoredTextDocument> minHeap = new MinHeap<>(topResultsNumber);
+        for (int i = 0; i < touchedCount; i++) {
+            int docId = touched[i];
+            minHeap.add(new ScoredTextDocument(docId, scores[docId]));
+            scores[docId] = 0;
+            seen[docId] = false;
+        }
+        List<ScoredTextDocument> result = minHeap.asList();
+        Collections.sort(result, Collections.reverseOrder());
+        return result;
+    }
+
+    /**
+     * Returns a copy of the postings of a term in the shard.
+     *
+     * @param term term to look for.
+     * @return the postings of the term, null if the term is not in the shard.
+     */
+    @Override
+    public synchronized List<Posting> getTermPostings(String term) {
+        List<Posting> postings = index.getTermPostings(term);
+        return postings == null ? null : new ArrayList<>(postings);
+    }
+
+    /**
+     * Returns the name of a document of the shard.
+     *
+     * @param docId id of the document in the shard.
+     * @return the name of the document, null if it does not exist.
+     */
+    @Override
+    public synchronized String getDocumentName(int docId) {
+        TextDocument document = index.getDocument(docId);
+        return document == null ? null : document.getName();
+    }
+
+    /**
+     * Returns the module of a document of the shard.
+     *
+     * @param docId id of the document in the shard.
+     * @return the module of the document.
+     */
+    @Override
+    public synchronized double getDocModule(int docId) {
+        return index.getDocModule(docId);
+    }
+
+    /**
+     * Closes the index of the shard.
+     */
+    @Override
+    public synchronized void close() {
+        if (index instanceof BasicIndex) {
+            ((BasicIndex) index).close();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import es.uam.eps.bmi.util.MinHash;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * NearDuplicateDetector class. Finds documents that are near-duplicates of
+ * already indexed ones, comparing MinHash signatures of the shingles of their
+ * token streams. Candidates are found with LSH banding: signatures are split
+ * into bands and two documents are candidates when any band is equal; a
+ * candidate is a near-duplicate when the estimated Jaccard similarity reaches
+ * the threshold.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class NearDuplicateDetector {
+
+    /**
+     * What the index does with a near-duplicate document.
+     */
+    public enum Mode {
+        /* The document is not indexed */
+        SKIP,
+        /* The document is not indexed, its name is kept as an alias of the
+            canonical document */
+        FOLD
+    }
+
+    /* Default number of tokens per shingle */
+    public static final int DEFAULT_SHINGLE_SIZE = 4;
+    /* Default number of bands and rows per band of the signatures */
+    public static final int DEFAULT_BANDS = 20;
+    public static final int DEFAULT_ROWS = 5;
+    /* Default similarity from which two documents are near-duplicates */
+    public static final double DEFAULT_THRESHOLD = 0.8;
+    /* Seed of the hash functions */
+    private static final long SEED = 0x5eed;
+
+    /* Name of the file where the clusters found are reported */
+    public static final String REPORT_FILE_NAME = "duplicates";
+
+    /* Attributes */
+    private final Mode mode;
+    private final int shingleSize;
+    private final int bands;
+    private final int rows;
+    private final double threshold;
+    private final MinHash minHash;
+
+    /* For each band, documents indexed by the hash of their band */
+    private final List<HashMap<Long, List<Integer>>> buckets;
+    /* Signatures of the indexed documents */
+    private final HashMap<Integer, int[]> signatures;
+    /* Near-duplicates found, by canonical docId */
+    private final TreeMap<Integer, List<String>> clusters;
+    /* Number of near-duplicates found */
+    private int duplicates = 0;
+
+    /**
+     * Default constructor.
+     *
+     * @param mode what to do with near-duplicates.
+     */
+    public NearDuplicateDetector(Mode mode) {
+        this(mode, DEFAULT_SHINGLE_SIZE, DEFAULT_BANDS, DEFAULT_ROWS, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mode what to do with near-duplicates.
+     * @param shingleSize number of tokens per shingle.
+     * @param bands number of bands of the signatures.
+     * @param rows number of rows per band.
+     * @param threshold similarity from which two documents are near-duplicates.
+     */
+    public NearDuplicateDetector(Mode mode, int shingleSize, int bands, int rows, double threshold) {
+        this.mode = mode;
+        this.shingleSize = shingleSize;
+        this.bands = bands;
+        this.rows = rows;
+        this.threshold = threshold;
+        this.minHash = new MinHash(bands * rows, SEED);
+        this.buckets = new ArrayList<>();
+        for (int i = 0; i < bands; i++) {
+            buckets.add(new HashMap<>());
+        }
+        this.signatures = new HashMap<>();
+        this.clusters = new TreeMap<>();
+    }
+
+    /**
+     * Returns what the index does with near-duplicates.
+     *
+     * @return what the index does with near-duplicates.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Checks whether a document is a near-duplicate of an already indexed one.
+     * If it is not, the document is registered as indexed with the given id.
+     *
+     * @param docId id the document will have if it is indexed.
+     * @param docName name of the document.
+     * @param tokens parsed token stream of the document.
+     * @return the id of the canonical document if the document is a
+     * near-duplicate, -1 otherwise.
+     */
+    public int check(int docId, String docName, String[] tokens) {
+        int[] signature = minHash.shingleSignature(tokens, shingleSize);
+        if (signature[0] == Integer.MAX_VALUE) { //no tokens
+            return -1;
+        }
+
+        // Look for a candidate sharing a band and similar enough.
+        long[] bandHashes = new long[bands];
+        for (int band = 0; band < bands; band++) {
+            bandHashes[band] = bandHash(signature, band);
+            List<Integer> candidates = buckets.get(band).get(bandHashes[band]);
+            if (candidates == null) {
+                continue;
+            }
+            for (int candidate : candidates) {
+                if (MinHash.similarity(signature, signatures.get(candidate)) >= threshold) {
+                    List<String> cluster = clusters.get(candidate);
+                    if (cluster == null) {
+                        cluster = new ArrayList<>();
+                        clusters.put(candidate, cluster);
+                    }
+                    cluster.add(docName);
+                    duplicates++;
+                    return candidate;
+                }
+            }
+        }
+
+        // Not a duplicate, register it.
+        for (int band = 0; band < bands; band++) {
+            List<Integer> bucket = buckets.get(band).get(bandHashes[band]);
+            if (bucket == null) {
+                bucket = new ArrayList<>(1);
+                buckets.get(band).put(bandHashes[band], bucket);
+            }
+            bucket.add(docId);
+        }
+        signatures.put(docId, signature);
+        return -1;
+    }
+
+    /**
+     * Returns the near-duplicates found, by canonical docId.
+     *
+     * @return the near-duplicates found, by canonical docId.
+     */
+    public TreeMap<Integer, List<String>> getClusters() {
+        return clusters;
+    }
+
+    /**
+     * Returns the number of near-duplicates found.
+     *
+     * @return the number of near-duplicates found.
+     */
+    public int getDuplicatesCount() {
+        return duplicates;
+    }
+
+    /**
+     * Writes a report with every cluster found: the name of the canonical
+     * document followed by the names of its near-duplicates, one per line.
+     *
+     * @param f file to write the report to.
+     * @param docsmap map from docIds to names of the indexed documents.
+     * @throws java.io.IOException
+     */
+    public void writeReport(File f, Map<Integer, String> docsmap) throws IOException {
+        try (FileWriter fw = new FileWriter(f, false)) {
+            fw.write(String.format("%d near-duplicates in %d clusters (%s)\n", duplicates, clusters.size(), mode));
+            for (Map.Entry<Integer, List<String>> cluster : clusters.entrySet()) {
+                fw.write(cluster.getKey() + " " + docsmap.get(cluster.getKey()) + "\n");
+                for (String duplicate : cluster.getValue()) {
+                    fw.write("\t" + duplicate + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Hash of the rows of a band of a signature.
+     */
+    private long bandHash(int[] signature, int band) {
+        long h = band;
+        for (int i = band * rows; i < (band + 1) * rows; i++) {
+            h = 31 * h + signature[i];
+        }
+        return h;
+    }
+}
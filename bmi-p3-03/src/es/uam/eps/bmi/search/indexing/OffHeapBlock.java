@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * OffHeapBlock class. Block of postings being built by an
+ * <code>IndexWriter</code>, kept in direct memory so that large blocks do not
+ * fill the heap with objects for the garbage collector to trace.<br>
+ * Memory is taken in pages which are kept when the block is cleared, so
+ * clearing a block releases all its terms and postings at once and the next
+ * block reuses the same memory:
+ * <ul>
+ * <li>Term pool: characters of the terms.</li>
+ * <li>Record pool: for every term, where its characters and postings are and
+ * the state of its last posting.</li>
+ * <li>Postings pool: postings of every term, stored as ints in the format of
+ * the layout of the index, in linked slices of fixed size.</li>
+ * </ul>
+ * Terms are found through an open addressing hash table of term ids.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class OffHeapBlock {
+
+    /* Size of the pages of memory, 1MB */
+    private static final int PAGE_SHIFT = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /* Bytes of a slice of postings, the first int links to the next slice */
+    private static final int SLICE_SIZE = 16 * Integer.BYTES;
+    private static final int SLICE_MASK = SLICE_SIZE - 1;
+
+    /* Fields of a term record, in bytes from its start */
+    private static final int RECORD_SIZE = 8 * Integer.BYTES;
+    private static final int TERM_START = 0; //address of the characters
+    private static final int TERM_LENGTH = 4; //number of characters
+    private static final int TERM_HASH = 8; //hash code of the term
+    private static final int FIRST_SLICE = 12; //address of the first slice
+    private static final int WRITE = 16; //address of the next int to write
+    private static final int LAST_DOC = 20; //docId of the last posting
+    private static final int FREQUENCY = 24; //address of the frequency of the last posting
+    private static final int INTS = 28; //number of ints of the postings
+
+    /* Initial number of slots of the hash table */
+    private static final int TABLE_SIZE = 1024;
+
+    /* What the postings store */
+    private final IndexLayout layout;
+
+    /* Memory of the block */
+    private final Pool terms = new Pool();
+    private final Pool records = new Pool();
+    private final Pool postings = new Pool();
+    /* Term id + 1 of each slot, 0 if empty */
+    private IntBuffer table;
+    private int tableMask;
+    /* Number of terms in the block */
+    private int termsCount = 0;
+
+    /**
+     * Default constructor.
+     *
+     * @param layout what the postings of the block store.
+     */
+    public OffHeapBlock(IndexLayout layout) {
+        this.layout = layout;
+        newTable(TABLE_SIZE);
+        clear();
+    }
+
+    /**
+     * Adds an occurrence of a term to the block. Occurrences must be added in
+     * increasing order of docId and, for a docId, of position.
+     *
+     * @param term term found.
+     * @param docId id of the document.
+     * @param position position of the term in the document.
+     */
+    public void add(String term, int docId, int position) {
+        int hash = term.hashCode();
+        int termId = find(term, hash);
+        if (termId < 0) {
+            termId = newTerm(term, hash, -termId - 1);
+        }
+        int record = termId * RECORD_SIZE;
+
+        if (records.getInt(record + LAST_DOC) != docId) { //new posting
+            records.putInt(record + LAST_DOC, docId);
+            append(record, docId);
+            if (layout != IndexLayout.DOCS) {
+                records.putInt(record + FREQUENCY, append(record, 1));
+            }
+        } else if (layout != IndexLayout.DOCS) { //one more occurrence in the last posting
+            int frequency = records.getInt(record + FREQUENCY);
+            postings.putInt(frequency, postings.getInt(frequency) + 1);
+        }
+        if (layout.hasPositions()) {
+            append(record, position);
+        }
+    }
+
+    /**
+     * Returns true if the block has no terms.
+     *
+     * @return true if the block has no terms.
+     */
+    public boolean isEmpty() {
+        return termsCount == 0;
+    }
+
+    /**
+     * Returns the memory used by the block, in bytes.
+     *
+     * @return the memory used by the block.
+     */
+    public int getSize() {
+        return terms.size() + records.size() + postings.size() + table.capacity() * Integer.BYTES;
+    }
+
+    /**
+     * Writes the entries of the block, sorted by term.
+     *
+     * @param out output to write the entries to.
+     * @throws java.io.IOException
+     */
+    public void write(IndexEntryOutput out) throws IOException {
+        String[] names = new String[termsCount];
+        Integer[] order = new Integer[termsCount];
+        for (int termId = 0; termId < termsCount; termId++) {
+            names[termId] = getTerm(termId);
+            order[termId] = termId;
+        }
+        Arrays.sort(order, (Integer t1, Integer t2) -> names[t1].compareTo(names[t2]));
+
+        for (int termId : order) {
+            int record = termId * RECORD_SIZE;
+            int ints = records.getInt(record + INTS);
+            out.writeHeader(names[termId], ints * Integer.BYTES);
+            int address = records.getInt(record + FIRST_SLICE) + Integer.BYTES;
+            for (int i = 0; i < ints; i++, address += Integer.BYTES) {
+                if ((address & SLICE_MASK) == 0) { //end of slice, follow the link
+                    address = postings.getInt(address - SLICE_SIZE) + Integer.BYTES;
+                }
+                out.writeInt(postings.getInt(address));
+            }
+        }
+    }
+
+    /**
+     * Removes every term and posting from the block, keeping its memory for
+     * the next ones.
+     */
+    public void clear() {
+        terms.clear();
+        records.clear();
+        postings.clear();
+        postings.alloc(SLICE_SIZE); //address 0 means no slice
+        for (int i = 0; i < table.capacity(); i++) {
+            table.put(i, 0);
+        }
+        termsCount = 0;
+    }
+
+    /**
+     * Returns the id of a term, or -(slot + 1) with the slot of the hash table
+     * where it should be inserted if it is not in the block.
+     */
+    private int find(String term, int hash) {
+        int slot = mix(hash) & tableMask;
+        while (true) {
+            int termId = table.get(slot) - 1;
+            if (termId < 0) {
+                return -(slot + 1);
+            }
+            int record = termId * RECORD_SIZE;
+            if (records.getInt(record + TERM_HASH) == hash && records.getInt(record + TERM_LENGTH) == term.length()) {
+                int start = records.getInt(record + TERM_START);
+                int i = 0;
+                while (i < term.length() && terms.getChar(start + i * Character.BYTES) == term.charAt(i)) {
+                    i++;
+                }
+                if (i == term.length()) {
+                    return termId;
+                }
+            }
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    /**
+     * Stores a new term, with no postings, in the given slot of the hash
+     * table.
+     *
+     * @return the id of the term.
+     */
+    private int newTerm(String term, int hash, int slot) {
+        int termId = termsCount++;
+        int record = records.alloc(RECORD_SIZE);
+        int start = terms.alloc(term.length() * Character.BYTES);
+        for (int i = 0; i < term.length(); i++) {
+            terms.putChar(start + i * Character.BYTES, term.charAt(i));
+        }
+        int slice = postings.alloc(SLICE_SIZE);
+        postings.putInt(slice, 0);
+
+        records.putInt(record + TERM_START, start);
+        records.putInt(record + TERM_LENGTH, term.length());
+        records.putInt(record + TERM_HASH, hash);
+        records.putInt(record + FIRST_SLICE, slice);
+        records.putInt(record + WRITE, slice + Integer.BYTES);
+        records.putInt(record + LAST_DOC, -1);
+        records.putInt(record + INTS, 0);
+
+        table.put(slot, termId + 1);
+        if (2 * termsCount > table.capacity()) {
+            newTable(2 * table.capacity());
+            for (int id = 0; id < termsCount; id++) {
+                int s = mix(records.getInt(id * RECORD_SIZE + TERM_HASH)) & tableMask;
+                while (table.get(s) != 0) {
+                    s = (s + 1) & tableMask;
+                }
+                table.put(s, id + 1);
+            }
+        }
+        return termId;
+    }
+
+    /**
+     * Appends an int to the postings of a term.
+     *
+     * @return the address of the int.
+     */
+    private int append(int record, int value) {
+        int address = records.getInt(record + WRITE);
+        if ((address & SLICE_MASK) == 0) { //slice full, link a new one
+            int slice = postings.alloc(SLICE_SIZE);
+            postings.putInt(slice, 0);
+            postings.putInt(address - SLICE_SIZE, slice);
+            address = slice + Integer.BYTES;
+        }
+        postings.putInt(address, value);
+        records.putInt(record + WRITE, address + Integer.BYTES);
+        records.putInt(record + INTS, records.getInt(record + INTS) + 1);
+        return address;
+    }
+
+    /**
+     * Returns the term with the given id.
+     */
+    private String getTerm(int termId) {
+        int record = termId * RECORD_SIZE;
+        int start = records.getInt(record + TERM_START);
+        char[] chars = new char[records.getInt(record + TERM_LENGTH)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = terms.getChar(start + i * Character.BYTES);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Replaces the hash table by an empty one with the given number of slots,
+     * a power of two.
+     */
+    private void newTable(int size) {
+        table = ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        tableMask = size - 1;
+    }
+
+    /**
+     * Spreads the bits of a hash code, so that similar terms do not fall in
+     * consecutive slots.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Memory made of direct pages, addressed in bytes. Allocations never
+     * cross pages. Pages are kept when the pool is cleared.
+     */
+    private static class Pool {
+
+        private final List<ByteBuffer> pages = new ArrayList<>();
+        /* Address of the first free byte */
+        private int used = 0;
+
+        /**
+         * Returns the address of a new area of the given size.
+         */
+        int alloc(int bytes) {
+            if (bytes > PAGE_SIZE) {
+                throw new IllegalArgumentException("Cannot allocate " + bytes + " bytes in a block");
+            }
+            if ((used & PAGE_MASK) + bytes > PAGE_SIZE) { //skip to the next page
+                used = (used | PAGE_MASK) + 1;
+            }
+            while (pages.size() <= (used + bytes - 1) >>> PAGE_SHIFT) {
+                pages.add(ByteBuffer.allocateDirect(PAGE_SIZE).order(ByteOrder.nativeOrder()));
+            }
+            int address = used;
+            used += bytes;
+            return address;
+        }
+
+        int getInt(int address) {
+            return pages.get(address >>> PAGE_SHIFT).getInt(address & PAGE_MASK);
+        }
+
+        void putInt(int address, int value) {
+            pages.get(address >>> PAGE_SHIFT).putInt(address & PAGE_MASK, value);
+        }
+
+        char getChar(int address) {
+            return pages.get(address >>> PAGE_SHIFT).getChar(address & PAGE_MASK);
+        }
+
+        void putChar(int address, char value) {
+            pages.get(address >>> PAGE_SHIFT).putChar(address & PAGE_MASK, value);
+        }
+
+        int size() {
+            return used;
+        }
+
+        void clear() {
+            used = 0;
+        }
+    }
+}
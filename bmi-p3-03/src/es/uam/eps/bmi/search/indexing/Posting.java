@@ -58,6 +58,20 @@ public class Posting {
         this.termFrequency = this.termPositions.size();
     }
 
+    /**
+     * Constructor for postings without positions.
+     *
+     * @param term term associated to the posting.
+     * @param docID ID of the document.
+     * @param termFrequency Amount of times the term appears in the document.
+     */
+    public Posting(String term, int docID, int termFrequency) {
+        this.term = term;
+        this.docID = docID;
+        this.termPositions = new ArrayList<>();
+        this.termFrequency = termFrequency;
+    }
+
     /**
      * Returns the associated term.
      *
@@ -78,7 +92,7 @@ public class Posting {
 
     /**
      * Returns a list containing the term position within the associated
-     * document.
+     * document, empty if the index does not store positions.
      *
      * @return a list containing the term position within the associated
      * document.
@@ -96,6 +110,23 @@ public class Posting {
         return termFrequency;
     }
 
+    /**
+     * Returns an estimate of the heap memory used by the posting, in bytes:
+     * the object, its list of positions and the boxed positions which are not
+     * shared by the <code>Integer</code> cache.
+     *
+     * @return the estimated size of the posting in memory.
+     */
+    public int getMemorySize() {
+        int size = 32 + 40 + 4 * termPositions.size(); //posting, list and array
+        for (int position : termPositions) {
+            if (position > 127) {
+                size += 16;
+            }
+        }
+        return size;
+    }
+
     /**
      * Adds a new position to the posting
      *
@@ -114,12 +145,28 @@ public class Posting {
      * @return array of bytes with format explained
      */
     public byte[] positionsToBytes() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        return positionsToBytes(IndexLayout.POSITIONS);
+    }
+
+    /**
+     * Returns an array of bytes with postings information as stored by the
+     * given layout.
+     *
+     * @param layout layout of the index.
+     * @throws java.io.IOException
+     * @return array of bytes with the format of the layout.
+     */
+    public byte[] positionsToBytes(IndexLayout layout) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(positionsToBytesSize(layout));
         try (DataOutputStream dos = new DataOutputStream(baos)) {
             dos.writeInt(docID);
-            dos.writeInt(termFrequency);
-            for (int l : termPositions) {
-                dos.writeInt(l);
+            if (layout != IndexLayout.DOCS) {
+                dos.writeInt(termFrequency);
+            }
+            if (layout.hasPositions()) {
+                for (int l : termPositions) {
+                    dos.writeInt(l);
+                }
             }
             dos.flush();
         }
@@ -132,7 +179,25 @@ public class Posting {
      * @return the size of the array returned by positionsToBytes
      */
     public int positionsToBytesSize() {
-        return (termFrequency + 2) * Integer.BYTES;
+        return positionsToBytesSize(IndexLayout.POSITIONS);
+    }
+
+    /**
+     * Returns the size of the array returned by positionsToBytes with the
+     * given layout.
+     *
+     * @param layout layout of the index.
+     * @return the size of the array returned by positionsToBytes
+     */
+    public int positionsToBytesSize(IndexLayout layout) {
+        switch (layout) {
+            case DOCS:
+                return Integer.BYTES;
+            case FREQS:
+                return 2 * Integer.BYTES;
+            default:
+                return (termFrequency + 2) * Integer.BYTES;
+        }
     }
 
     /**
@@ -145,6 +210,21 @@ public class Posting {
      * @return a List of Postings recovered from array.
      */
     public static List<Posting> listFromBytes(String term, byte[] array) {
+        return listFromBytes(term, array, IndexLayout.POSITIONS);
+    }
+
+    /**
+     * Receives a byte array with consecutive packages formated as the output of
+     * <code>positionToBytes</code> with the given layout and builds a List of
+     * Postings from it.
+     *
+     * @param term term String, every posting in the list will be associated to
+     * this term.
+     * @param array array containing postings.
+     * @param layout layout of the index.
+     * @return a List of Postings recovered from array.
+     */
+    public static List<Posting> listFromBytes(String term, byte[] array, IndexLayout layout) {
         List<Posting> lp = new ArrayList<>();
 
         if ((array.length % Integer.BYTES) != 0) { //array is malformed
@@ -152,6 +232,12 @@ public class Posting {
         }
         IntBuffer lb = ByteBuffer.wrap(array).asIntBuffer();
 
+        if (!layout.hasPositions()) {
+            for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+                lp.add(new Posting(term, lb.get(i), layout.frequency(lb, i)));
+            }
+            return lp;
+        }
         for (int i = 0; i < lb.limit();) {
             int docid = lb.get();
             int postingsSize = lb.get();
@@ -165,4 +251,43 @@ public class Posting {
         }
         return lp;
     }
+
+    /**
+     * Receives a byte array with consecutive packages formated as the output of
+     * <code>positionToBytes</code> and returns a copy where every docID has
+     * been replaced by its value in the given map.
+     *
+     * @param array array containing postings.
+     * @param docIdMap map from old docIDs (array index) to new docIDs.
+     * @return a copy of the array with its docIDs replaced, or null if the array
+     * is malformed.
+     */
+    public static byte[] remapDocIds(byte[] array, int[] docIdMap) {
+        return remapDocIds(array, docIdMap, IndexLayout.POSITIONS);
+    }
+
+    /**
+     * Receives a byte array with consecutive packages formated as the output of
+     * <code>positionToBytes</code> with the given layout and returns a copy
+     * where every docID has been replaced by its value in the given map.
+     *
+     * @param array array containing postings.
+     * @param docIdMap map from old docIDs (array index) to new docIDs.
+     * @param layout layout of the index.
+     * @return a copy of the array with its docIDs replaced, or null if the array
+     * is malformed.
+     */
+    public static byte[] remapDocIds(byte[] array, int[] docIdMap, IndexLayout layout) {
+        if ((array.length % Integer.BYTES) != 0) { //array is malformed
+            return null;
+        }
+        byte[] remapped = array.clone();
+        IntBuffer lb = ByteBuffer.wrap(remapped).asIntBuffer();
+
+        for (int i = 0; i < lb.limit();) {
+            lb.put(i, docIdMap[lb.get(i)]);
+            i += layout.postingLength(lb, i);
+        }
+        return remapped;
+    }
 }
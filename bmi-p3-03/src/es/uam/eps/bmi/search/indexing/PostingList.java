@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list of the postings of a term whose docIds, frequencies and
+ * positions can be read by position in the list, without building
+ * <code>Posting</code> objects. Searchers read postings through this class,
+ * so that lists kept in primitive arrays are never boxed on the query path;
+ * any other list of postings is wrapped by <code>of</code>.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public abstract class PostingList extends AbstractList<Posting> implements RandomAccess {
+
+    /**
+     * Returns the docId of the posting at the given position of the list.
+     *
+     * @param index position of the posting.
+     * @return the docId of the posting.
+     */
+    public abstract int getDocID(int index);
+
+    /**
+     * Returns the term frequency of the posting at the given position of the
+     * list.
+     *
+     * @param index position of the posting.
+     * @return the term frequency of the posting.
+     */
+    public abstract int getTermFrequency(int index);
+
+    /**
+     * Returns the number of positions stored for the posting at the given
+     * position of the list.
+     *
+     * @param index position of the posting.
+     * @return the number of positions of the posting, 0 if the index does not
+     * store positions.
+     */
+    public abstract int getPositionsCount(int index);
+
+    /**
+     * Copies the positions of the posting at the given position of the list
+     * to the start of the given array, or of a larger one if it does not fit
+     * them, so that callers can reuse the same array for every posting.
+     *
+     * @param index position of the posting.
+     * @param buffer array to copy the positions to, may be null.
+     * @return the array holding the positions, <code>buffer</code> if they
+     * fit in it.
+     */
+    public abstract int[] getPositions(int index, int[] buffer);
+
+    /**
+     * Returns an array of at least the given length, the given one if it is
+     * large enough.
+     *
+     * @param buffer array to reuse, may be null.
+     * @param length length needed.
+     * @return an array of at least the given length.
+     */
+    protected static int[] ensureCapacity(int[] buffer, int length) {
+        if (buffer == null) {
+            return new int[Math.max(16, length)];
+        }
+        if (buffer.length < length) {
+            return Arrays.copyOf(buffer, Math.max(2 * buffer.length, length));
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the given postings as a <code>PostingList</code>: the list
+     * itself if it already is one, or a view reading its postings otherwise.
+     *
+     * @param postings list of postings, may be null.
+     * @return the postings as a <code>PostingList</code>, null if the given
+     * list is null.
+     */
+    public static PostingList of(List<Posting> postings) {
+        if (postings == null || postings instanceof PostingList) {
+            return (PostingList) postings;
+        }
+        return new PostingListView(postings);
+    }
+
+    /**
+     * View of a list of <code>Posting</code> objects.
+     */
+    private static class PostingListView extends PostingList {
+
+        private final List<Posting> postings;
+
+        private PostingListView(List<Posting> postings) {
+            this.postings = postings;
+        }
+
+        @Override
+        public Posting get(int index) {
+            return postings.get(index);
+        }
+
+        @Override
+        public int size() {
+            return postings.size();
+        }
+
+        @Override
+        public int getDocID(int index) {
+            return postings.get(index).getDocID();
+        }
+
+        @Override
+        public int getTermFrequency(int index) {
+            return postings.get(index).getTermFrequency();
+        }
+
+        @Override
+        public int getPositionsCount(int index) {
+            return postings.get(index).getTermPositions().size();
+        }
+
+        @Override
+        public int[] getPositions(int index, int[] buffer) {
+            List<Integer> positions = postings.get(index).getTermPositions();
+            buffer = ensureCapacity(buffer, positions.size());
+            for (int i = 0; i < positions.size(); i++) {
+                buffer[i] = positions.get(i);
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PostingsCache class. Keeps the decoded postings of the terms read recently
+ * by an <code>IndexReader</code>, so that every searcher of the index reads
+ * them from memory.
+ * <ul>
+ * <li>Postings are kept as <code>CompactPostings</code>.</li>
+ * <li>The cache is bounded by the estimated memory of the postings, not by
+ * their number of terms: the least recently used terms are evicted until the
+ * new ones fit, and the postings of a term taking more than a fraction of
+ * the cache are not kept, so that a single long list cannot evict the rest.
+ * </li>
+ * <li>Hits and misses are counted for every term looked up recently: once
+ * the statistics of more terms than twice those cached, and at least
+ * <code>MIN_TRACKED_TERMS</code>, are kept, those of the terms looked up
+ * least recently are dropped.</li>
+ * </ul>
+ * The cache is thread-safe. Lookups do not lock, so concurrent queries read
+ * the cache in parallel: only insertions and evictions are serialized, and a
+ * hit moves its term in the eviction order only if no other thread is
+ * updating it.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class PostingsCache {
+
+    /* Default maximum memory used by the postings */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024; //16MB
+    /* Maximum fraction of the cache taken by the postings of a term */
+    private static final int MAX_ENTRY_FRACTION = 4;
+    /* Minimum number of terms whose hits and misses are kept */
+    private static final int MIN_TRACKED_TERMS = 1024;
+
+    /* Maximum memory used by the postings */
+    private volatile long maxBytes;
+    /* Postings by term */
+    private final ConcurrentHashMap<String, CompactPostings> postings = new ConcurrentHashMap<>();
+    /* Lock guarding the eviction order and the memory of the postings */
+    private final ReentrantLock lock = new ReentrantLock();
+    /* Terms cached, in access order, and the estimated memory of their postings */
+    private final LinkedHashMap<String, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    /* Hits and misses of the terms looked up recently */
+    private final ConcurrentHashMap<String, TermStats> termStats = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Default constructor.
+     *
+     * @param maxBytes maximum estimated memory used by the postings, 0 to
+     * disable the cache.
+     */
+    public PostingsCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the postings of a term, if cached, counting a hit or a miss.
+     *
+     * @param term term to look for.
+     * @return the postings of the term, null if not cached.
+     */
+    public CompactPostings get(String term) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        CompactPostings cached = postings.get(term);
+        TermStats stats = termStats.get(term);
+        if (stats == null) {
+            stats = termStats.computeIfAbsent(term, t -> new TermStats());
+        }
+        stats.lastLookup = System.nanoTime();
+        if (cached != null) {
+            hits.increment();
+            stats.hits.increment();
+            // A busy lock means another thread is updating the order: a
+            // missed touch only makes the term a bit older.
+            if (lock.tryLock()) {
+                try {
+                    order.get(term);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } else {
+            misses.increment();
+            stats.misses.increment();
+            if (termStats.size() > 2 * getTrackedLimit() && lock.tryLock()) {
+                try {
+                    trimStats();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Caches the postings of a term, evicting the least recently used ones
+     * until they fit.
+     *
+     * @param term term of the postings.
+     * @param termPostings postings of the term.
+     */
+    public void put(String term, CompactPostings termPostings) {
+        long size = getMemorySize(term, termPostings);
+        lock.lock();
+        try {
+            if (size > maxBytes / MAX_ENTRY_FRACTION) {
+                return;
+            }
+            CompactPostings old = postings.put(term, termPostings);
+            if (old != null) {
+                bytes -= getMemorySize(term, old);
+            }
+            order.put(term, Boolean.TRUE);
+            bytes += size;
+            evict(maxBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least recently used postings until the cache takes at most
+     * the given memory. Must be called holding the lock.
+     */
+    private void evict(long limit) {
+        Iterator<String> it = order.keySet().iterator();
+        while (bytes > limit && it.hasNext()) {
+            String term = it.next();
+            bytes -= getMemorySize(term, postings.remove(term));
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Returns the number of terms whose statistics are kept.
+     */
+    private int getTrackedLimit() {
+        return Math.max(MIN_TRACKED_TERMS, 2 * postings.size());
+    }
+
+    /**
+     * Drops the statistics of the terms looked up least recently, keeping
+     * those of <code>getTrackedLimit</code> terms. Must be called holding the
+     * lock.
+     */
+    private void trimStats() {
+        List<Map.Entry<String, TermStats>> terms = new ArrayList<>(termStats.entrySet());
+        terms.sort((e1, e2) -> Long.compare(e2.getValue().lastLookup, e1.getValue().lastLookup));
+        for (Map.Entry<String, TermStats> term : terms.subList(Math.min(getTrackedLimit(), terms.size()), terms.size())) {
+            termStats.remove(term.getKey(), term.getValue());
+        }
+    }
+
+    /**
+     * Returns the estimated memory of the entry of a term.
+     */
+    private static long getMemorySize(String term, CompactPostings termPostings) {
+        return 64 + 40 + 2L * term.length() + termPostings.getMemorySize(); //entry and term
+    }
+
+    /**
+     * Sets the maximum memory used by the postings, evicting postings if
+     * needed.
+     *
+     * @param maxBytes maximum estimated memory used by the postings, 0 to
+     * disable the cache.
+     */
+    public void setMaxBytes(long maxBytes) {
+        lock.lock();
+        try {
+            this.maxBytes = maxBytes;
+            evict(Math.max(0, maxBytes));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the postings and statistics.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            postings.clear();
+            order.clear();
+            termStats.clear();
+            bytes = 0;
+            hits.reset();
+            misses.reset();
+            evictions.reset();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the estimated memory used by the cached postings.
+     *
+     * @return the estimated memory used, in bytes.
+     */
+    public long getMemorySize() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of terms cached.
+     *
+     * @return the number of terms cached.
+     */
+    public int getSize() {
+        return postings.size();
+    }
+
+    /**
+     * Returns the fraction of lookups of a term found in the cache.
+     *
+     * @param term term to look for.
+     * @return the hit rate of the term, 0 if not looked up recently.
+     */
+    public double getHitRate(String term) {
+        TermStats stats = termStats.get(term);
+        return stats == null ? 0 : stats.getHitRate();
+    }
+
+    /**
+     * Returns a summary of the cache, with the hit rates of the terms looked
+     * up the most.
+     *
+     * @param topTerms maximum number of terms listed.
+     * @return a summary of the cache.
+     */
+    public String getReport(int topTerms) {
+        long hitsCount = hits.sum();
+        long missesCount = misses.sum();
+        StringBuilder report = new StringBuilder(String.format(
+                "Terms cached: %d\tMemory: %d bytes\nHits: %d (%.2f%%)\tMisses: %d\tEvictions: %d\n",
+                postings.size(), getMemorySize(), hitsCount, 100.0 * hitsCount / Math.max(1, hitsCount + missesCount),
+                missesCount, evictions.sum()));
+        List<Map.Entry<String, TermStats>> terms = new ArrayList<>(termStats.entrySet());
+        terms.sort((e1, e2) -> Long.compare(e2.getValue().getLookups(), e1.getValue().getLookups()));
+        for (Map.Entry<String, TermStats> term : terms.subList(0, Math.min(topTerms, terms.size()))) {
+            TermStats stats = term.getValue();
+            report.append(String.format("%s\t%d lookups\t%.2f%% hits\n",
+                    term.getKey(), stats.getLookups(), 100.0 * stats.getHitRate()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Hits and misses of a term, and the time of its last lookup.
+     */
+    private static class TermStats {
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private volatile long lastLookup;
+
+        private long getLookups() {
+            return hits.sum() + misses.sum();
+        }
+
+        private double getHitRate() {
+            long lookups = getLookups();
+            return lookups == 0 ? 0 : (double) hits.sum() / lookups;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * RAM index class. Index whose postings are kept in memory, so that searches
+ * never touch the filesystem. The index file is read once, sequentially, when
+ * the index is loaded. Postings are stored in flat arrays: the postings of the
+ * term with id <code>t</code> are those from <code>termOffsets[t]</code> to
+ * <code>termOffsets[t + 1]</code>, and the positions of posting
+ * <code>p</code> those from <code>positionOffsets[p]</code> to
+ * <code>positionOffsets[p + 1]</code>. The postings of a term are returned as
+ * a view of those arrays.<br>
+ * Indexes are built as a <code>BasicIndex</code>, and any basic, stopword or
+ * stem index can be loaded as a <code>RAMIndex</code>.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class RAMIndex extends BasicIndex {
+
+    /* Option of the search entry points to load indexes as RAM indexes */
+    public static final String IN_MEMORY_OPTION = "-ram";
+
+    /* Size of the buffer used to read the index file */
+    private static final int BUFFER_SIZE = 1024 * 1024; //1MB
+    /* Relative error of the document modules rounded to floats, with some
+        margin */
+    private static final double NORMS_ROUNDING = 1e-6;
+
+    /* Term ids, in the order of the index file */
+    private HashMap<String, Integer> termIds = null;
+    private String[] terms;
+    /* Number of documents containing each term */
+    private int[] docFreqs;
+
+    /* Postings of the terms */
+    private int[] termOffsets;
+    private int[] docIds;
+    private int[] frequencies;
+    /* Positions of the postings */
+    private int[] positionOffsets;
+    private int[] positions;
+
+    /* Document modules */
+    private float[] norms;
+
+    /**
+     * Loads a previously created index in memory.
+     *
+     * @param indexPath Path to the directory where the index is stored.
+     */
+    @Override
+    public void load(String indexPath) {
+        super.load(indexPath);
+        if (reader == null) {
+            return;
+        }
+        try {
+            loadPostings(reader.indexPath);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            reader = null;
+            termIds = null;
+            return;
+        }
+
+        // Document modules.
+        norms = new float[reader.docMod.length];
+        for (int docId = 0; docId < norms.length; docId++) {
+            norms[docId] = (float) reader.getDocModule(docId);
+        }
+    }
+
+    /**
+     * Reads the whole index file into the postings arrays.
+     *
+     * @param path path to the index.
+     */
+    private void loadPostings(String path) throws IOException {
+        int termsCount = 0;
+        int postingsCount = 0;
+        int positionsCount = 0;
+        IndexLayout layout = reader.getLayout();
+        termIds = new HashMap<>();
+        terms = new String[1024];
+        termOffsets = new int[1025];
+        docIds = new int[1024];
+        frequencies = new int[1024];
+        positionOffsets = new int[1025];
+        positions = new int[1024];
+
+        try (IndexEntryInput in = new IndexEntryInput(new File(path + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            IndexEntry ie;
+            while ((ie = in.read()) != null) {
+                // Term
+                if (termsCount == terms.length) {
+                    terms = Arrays.copyOf(terms, 2 * termsCount);
+                    termOffsets = Arrays.copyOf(termOffsets, 2 * termsCount + 1);
+                }
+                terms[termsCount] = ie.getTerm();
+                termIds.put(terms[termsCount], termsCount);
+                termOffsets[termsCount] = postingsCount;
+                termsCount++;
+
+                // Postings
+                IntBuffer lb = ByteBuffer.wrap(ie.getRawPostingsData()).asIntBuffer();
+                for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+                    if (postingsCount == docIds.length) {
+                        docIds = Arrays.copyOf(docIds, 2 * postingsCount);
+                        frequencies = Arrays.copyOf(frequencies, 2 * postingsCount);
+                        positionOffsets = Arrays.copyOf(positionOffsets, 2 * postingsCount + 1);
+                    }
+                    int frequency = layout.frequency(lb, i);
+                    docIds[postingsCount] = lb.get(i);
+                    frequencies[postingsCount] = frequency;
+                    positionOffsets[postingsCount] = positionsCount;
+                    postingsCount++;
+                    if (layout.hasPositions()) {
+                        if (positionsCount + frequency > positions.length) {
+                            positions = Arrays.copyOf(positions, Math.max(2 * positions.length, positionsCount + frequency));
+                        }
+                        lb.position(i + 2);
+                        lb.get(positions, positionsCount, frequency);
+                        positionsCount += frequency;
+                    }
+                }
+            }
+        }
+
+        // Trim the arrays.
+        terms = Arrays.copyOf(terms, termsCount);
+        termOffsets = Arrays.copyOf(termOffsets, termsCount + 1);
+        termOffsets[termsCount] = postingsCount;
+        docIds = Arrays.copyOf(docIds, postingsCount);
+        frequencies = Arrays.copyOf(frequencies, postingsCount);
+        positionOffsets = Arrays.copyOf(positionOffsets, postingsCount + 1);
+        positionOffsets[postingsCount] = positionsCount;
+        positions = Arrays.copyOf(positions, positionsCount);
+
+        // Document frequencies, the original ones if the index was pruned.
+        docFreqs = new int[termsCount];
+        for (int termId = 0; termId < termsCount; termId++) {
+            Integer docFreq = reader.docFreqs == null ? null : reader.docFreqs.get(terms[termId]);
+            docFreqs[termId] = docFreq != null ? docFreq : termOffsets[termId + 1] - termOffsets[termId];
+        }
+    }
+
+    /**
+     * Returns the id of a term, used to access its postings.
+     *
+     * @param term term to look for.
+     * @return the id of the term, -1 if it is not in the index.
+     */
+    public int getTermId(String term) {
+        Integer termId = termIds.get(term);
+        return termId == null ? -1 : termId;
+    }
+
+    /**
+     * Returns the list of terms extracted from the indexed documents.
+     *
+     * @return the list of terms extracted from the indexed documents.
+     */
+    @Override
+    public List<String> getTerms() {
+        return new ArrayList<>(Arrays.asList(terms));
+    }
+
+    /**
+     * Returns a list of postings of the given term. The list is a view of the
+     * postings arrays, which searchers read without building
+     * <code>Posting</code> objects.
+     *
+     * @param term Given term used to get the list of postings.
+     * @return a list of the postings of the given term, null if the term is
+     * not in the index.
+     */
+    @Override
+    public List<Posting> getTermPostings(String term) {
+        int termId = getTermId(term);
+        if (termId < 0) {
+            return null;
+        }
+        return new TermPostings(term, termOffsets[termId], termOffsets[termId + 1]);
+    }
+
+    /**
+     * Returns the number of indexed documents containing the given term.
+     *
+     * @param term Given term.
+     * @return the number of indexed documents containing the given term.
+     */
+    @Override
+    public int getTermDocFrequency(String term) {
+        int termId = getTermId(term);
+        return termId < 0 ? 0 : docFreqs[termId];
+    }
+
+    /**
+     * Returns a true if the index is loaded, false otherwise.
+     *
+     * @return true if index is loaded, false otherwise.
+     */
+    @Override
+    public boolean isLoaded() {
+        return super.isLoaded() && termIds != null;
+    }
+
+    /**
+     * Returns the module of the document corresponding to the id passed as
+     * argument
+     *
+     * @param docId numeric id of the document to retrieve it's module.
+     * @return the module of the document corresponding to the id passed as
+     * argument.
+     */
+    @Override
+    public double getDocModule(int docId) {
+        return norms[docId];
+    }
+
+    /**
+     * Returns the score bound of a term, widened to cover the rounding of the
+     * document modules to floats.
+     *
+     * @param term Given term.
+     * @return the score bound of the term, infinite if the index has no
+     * bounds.
+     */
+    @Override
+    public double getTermBound(String term) {
+        return super.getTermBound(term) * (1 + NORMS_ROUNDING);
+    }
+
+    /**
+     * Read-only view of the postings of a term in the postings arrays.
+     */
+    private class TermPostings extends PostingList {
+
+        private final String term;
+        private final int start;
+        private final int end;
+
+        private TermPostings(String term, int start, int end) {
+            this.term = term;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Posting get(int index) {
+            int p = start + index;
+            if (positionOffsets[p] == positionOffsets[p + 1]) { //no positions stored
+                return new Posting(term, docIds[p], frequencies[p]);
+            }
+            List<Integer> termPositions = new ArrayList<>(frequencies[p]);
+            for (int i = positionOffsets[p]; i < positionOffsets[p + 1]; i++) {
+                termPositions.add(positions[i]);
+            }
+            return new Posting(term, docIds[p], termPositions);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+
+        @Override
+        public int getDocID(int index) {
+            return docIds[start + index];
+        }
+
+        @Override
+        public int getTermFrequency(int index) {
+            return frequencies[start + index];
+        }
+
+        @Override
+        public int getPositionsCount(int index) {
+            return positionOffsets[start + index + 1] - positionOffsets[start + index];
+        }
+
+        @Override
+        public int[] getPositions(int index, int[] buffer) {
+            int count = getPositionsCount(index);
+            buffer = ensureCapacity(buffer, count);
+            System.arraycopy(positions, positionOffsets[start + index], buffer, 0, count);
+            return buffer;
+        }
+    }
+
+    /**
+     * Main method for RAM index.
+     *
+     * Loads an index in memory and prints its size and load time.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the index is stored.
+     */
+    public static void main(String[] args) {
+        // Input control
+        if (args.length != 1) {
+            System.err.printf("Usage: %s index_path\n"
+                    + "\tindex_path: Path to the directory where the index is stored.\n",
+                    RAMIndex.class.getSimpleName());
+            return;
+        }
+
+        long start = System.nanoTime();
+        RAMIndex index = new RAMIndex();
+        index.load(args[0]);
+        long end = System.nanoTime();
+        if (!index.isLoaded()) {
+            return;
+        }
+        System.out.println("Terms: " + index.terms.length + "\tPostings: " + index.docIds.length
+                + "\tPositions: " + index.positions.length);
+        System.out.println("Index loaded in " + (end - start) / 1e6 + " milliseconds");
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RemoteShard class. Shard served by a <code>ShardServer</code>, usually in a
+ * local worker JVM started with <code>launch</code>. Requests are sent through
+ * a single connection, one at a time.<br>
+ * A request fails if the server does not answer in time. After a request
+ * fails, the connection may be out of step with the server, so the shard is
+ * broken and every later request fails too.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class RemoteShard implements Shard {
+
+    /* Time to wait for the answer of the server, in milliseconds */
+    private static final int READ_TIMEOUT = 60 * 1000;
+
+    /* Connection to the server */
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    /* Worker running the server, null if it was not started by this shard */
+    private final Process worker;
+    /* Whether a request failed, leaving the connection unusable */
+    private volatile boolean broken = false;
+
+    /**
+     * Constructor connecting to a running server.
+     *
+     * @param host host of the server.
+     * @param port port of the server.
+     * @throws java.io.IOException
+     */
+    public RemoteShard(String host, int port) throws IOException {
+        this(new Socket(host, port), null);
+    }
+
+    /**
+     * Constructor from an open connection.
+     */
+    private RemoteShard(Socket socket, Process worker) throws IOException {
+        this.socket = socket;
+        this.worker = worker;
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(READ_TIMEOUT);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), ShardServer.BUFFER_SIZE));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), ShardServer.BUFFER_SIZE));
+    }
+
+    /**
+     * Starts a worker JVM serving a shard and connects to it. The worker is
+     * stopped when the shard is closed.
+     *
+     * @param shardPath path to the index of the shard.
+     * @param jvmOptions options of the worker JVM, for instance the heap size.
+     * @return the shard served by the worker.
+     * @throws java.io.IOException if the worker could not be started.
+     */
+    public static RemoteShard launch(String shardPath, List<String> jvmOptions) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardServer.class.getName());
+        command.add(shardPath);
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        // The worker prints the port once the shard is loaded.
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line = reader.readLine();
+        if (line == null || !line.startsWith(ShardServer.PORT_PREFIX)) {
+            process.destroy();
+            throw new IOException("Worker for shard " + shardPath + " could not be started");
+        }
+        int port = Integer.parseInt(line.substring(ShardServer.PORT_PREFIX.length()).trim());
+        try {
+            return new RemoteShard(new Socket(InetAddress.getLoopbackAddress(), port), process);
+        } catch (IOException ex) {
+            process.destroy();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the number of documents of the shard.
+     *
+     * @return the number of documents of the shard.
+     * @throws java.io.IOException
+     */
+    @Override
+    public synchronized int getDocumentsCount() throws IOException {
+        checkBroken();
+        try {
+            out.writeByte(ShardServer.COUNT);
+            out.flush();
+            return in.readInt();
+        } catch (IOException ex) {
+            broken = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the top documents of the shard for a query, with TF-IDF scores.
+     *
+     * @param terms terms of the query.
+     * @param idfs idf of every term in the whole collection.
+     * @param topResultsNumber maximum number of results to retrieve.
+     * @return a ranking of documents of the shard sorted by decrementing
+     * score.
+     * @throws java.io.IOException
+     */
+    @Override
+    public synchronized List<ScoredTextDocument> search(String[] terms, double[] idfs, int topResultsNumber) throws IOException {
+        checkBroken();
+        try {
+            out.writeByte(ShardServer.SEARCH);
+            out.writeInt(terms.length);
+            for (String term : terms) {
+                out.writeUTF(term);
+            }
+            for (double idf : idfs) {
+                out.writeDouble(idf);
+            }
+            out.writeInt(topResultsNumber);
+            out.flush();
+
+            int count = in.readInt();
+            List<ScoredTextDocument> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int docId = in.readInt();
+                results.add(new ScoredTextDocument(docId, in.readDouble()));
+            }
+            return results;
+        } catch (IOException ex) {
+            broken = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the postings of a term in the shard.
+     *
+     * @param term term to look for.
+     * @return the postings of the term, null if the term is not in the shard.
+     * @throws java.io.IOException
+     */
+    @Override
+    public synchronized List<Posting> getTermPostings(String term) throws IOException {
+        checkBroken();
+        try {
+            out.writeByte(ShardServer.POSTINGS);
+            out.writeUTF(term);
+            out.flush();
+
+            int count = in.readInt();
+            if (count < 0) {
+                return null;
+            }
+            List<Posting> postings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int docId = in.readInt();
+                int frequency = in.readInt();
+                int positionsCount = in.readInt();
+                if (positionsCount == 0) {
+                    postings.add(new Posting(term, docId, frequency));
+                    continue;
+                }
+                List<Integer> positions = new ArrayList<>(positionsCount);
+                for (int j = 0; j < positionsCount; j++) {
+                    positions.add(in.readInt());
+                }
+                postings.add(new Posting(term, docId, positions));
+            }
+            return postings;
+        } catch (IOException ex) {
+            broken = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the name of a document of the shard.
+     *
+     * @param docId id of the document in the shard.
+     * @return the name of the document, null if it does not exist.
+     * @throws java.io.IOException
+     */
+    @Override
+    public synchronized String getDocumentName(int docId) throws IOException {
+        checkBroken();
+        try {
+            out.writeByte(ShardServer.DOCUMENT);
+            out.writeInt(docId);
+            out.flush();
+            boolean exists = in.readBoolean();
+            String name = in.readUTF();
+            return exists ? name : null;
+        } catch (IOException ex) {
+            broken = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the module of a document of the shard.
+     *
+     * @param docId id of the document in the shard.
+     * @return the module of the document.
+     * @throws java.io.IOException
+     */
+    @Override
+    public synchronized double getDocModule(int docId) throws IOException {
+        checkBroken();
+        try {
+            out.writeByte(ShardServer.MODULE);
+            out.writeInt(docId);
+            out.flush();
+            return in.readDouble();
+        } catch (IOException ex) {
+            broken = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Fails if a previous request left the connection unusable.
+     */
+    private void checkBroken() throws IOException {
+        if (broken) {
+            throw new IOException("Connection to the shard was broken by a previous request");
+        }
+    }
+
+    /**
+     * Closes the connection, and stops the worker if it was started by this
+     * shard.
+     *
+     * @throws java.io.IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            socket.close();
+        } finally {
+            if (worker != null) {
+                worker.destroy();
+            }
+        }
+    }
+}
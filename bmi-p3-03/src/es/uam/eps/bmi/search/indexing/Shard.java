@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Interface for the shards of a <code>ShardedIndex</code>. A shard holds a
+ * part of the documents of the collection, with docIds from 0 to the number
+ * of its documents, and scores them with the statistics of the whole
+ * collection given by the caller.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public interface Shard {
+
+    /**
+     * Returns the number of documents of the shard.
+     *
+     * @return the number of documents of the shard.
+     * @throws java.io.IOException
+     */
+    public int getDocumentsCount() throws IOException;
+
+    /**
+     * Returns the top documents of the shard for a query, with TF-IDF scores.
+     *
+     * @param terms terms of the query.
+     * @param idfs idf of every term in the whole collection.
+     * @param topResultsNumber maximum number of results to retrieve.
+     * @return a ranking of documents of the shard, with the docIds of the
+     * shard, sorted by decrementing score.
+     * @throws java.io.IOException
+     */
+    public List<ScoredTextDocument> search(String[] terms, double[] idfs, int topResultsNumber) throws IOException;
+
+    /**
+     * Returns the postings of a term in the shard.
+     *
+     * @param term term to look for.
+     * @return the postings of the term, with the docIds of the shard, null if
+     * the term is not in the shard.
+     * @throws java.io.IOException
+     */
+    public List<Posting> getTermPostings(String term) throws IOException;
+
+    /**
+     * Returns the name of a document of the shard.
+     *
+     * @param docId id of the document in the shard.
+     * @return the name of the document, null if it does not exist.
+     * @throws java.io.IOException
+     */
+    public String getDocumentName(int docId) throws IOException;
+
+    /**
+     * Returns the module of a document of the shard.
+     *
+     * @param docId id of the document in the shard.
+     * @return the module of the document.
+     * @throws java.io.IOException
+     */
+    public double getDocModule(int docId) throws IOException;
+
+    /**
+     * Releases the resources of the shard.
+     *
+     * @throws java.io.IOException
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * ShardServer class. Serves a shard of a <code>ShardedIndex</code> from a
+ * worker JVM to <code>RemoteShard</code> clients, through sockets on the
+ * loopback interface.<br>
+ * Every request starts with an operation code followed by its arguments, and
+ * is answered on the same connection:
+ * <ul>
+ * <li><code>COUNT</code>: number of documents (int).</li>
+ * <li><code>SEARCH</code>: terms (int count, UTF each), idfs (double each)
+ * and number of results (int); answered with the results (int count, then int
+ * docId and double score each).</li>
+ * <li><code>POSTINGS</code>: term (UTF); answered with the postings (int
+ * count, -1 if null, then int docId, int frequency, int positions count and
+ * int positions each).</li>
+ * <li><code>DOCUMENT</code>: docId (int); answered with a boolean telling if
+ * it exists and its name (UTF).</li>
+ * <li><code>MODULE</code>: docId (int); answered with the module (double).</li>
+ * </ul>
+ * The server stops when its standard input is closed, so workers do not
+ * survive the process that started them.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class ShardServer {
+
+    /* Operation codes */
+    static final byte COUNT = 1;
+    static final byte SEARCH = 2;
+    static final byte POSTINGS = 3;
+    static final byte DOCUMENT = 4;
+    static final byte MODULE = 5;
+
+    /* Prefix of the line printed with the port the server listens on */
+    static final String PORT_PREFIX = "port ";
+
+    /* Size of the buffers of the connections */
+    static final int BUFFER_SIZE = 64 * 1024; //64KB
+
+    /* Shard served */
+    private final Shard shard;
+
+    /**
+     * Default constructor.
+     *
+     * @param shard shard to serve.
+     */
+    public ShardServer(Shard shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * Accepts connections forever, serving each one in its own thread.
+     *
+     * @param serverSocket socket to accept connections from.
+     * @throws java.io.IOException
+     */
+    public void serve(ServerSocket serverSocket) throws IOException {
+        while (true) {
+            Socket socket = serverSocket.accept();
+            Thread thread = new Thread(() -> serve(socket));
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Serves the requests of a connection until it is closed.
+     *
+     * @param socket connection.
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE));
+            while (true) {
+                byte operation;
+                try {
+                    operation = in.readByte();
+                } catch (EOFException ex) {
+                    return; //connection closed
+                }
+                answer(operation, in, out);
+                out.flush();
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads the arguments of a request and writes its answer.
+     */
+    private void answer(byte operation, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (operation) {
+            case COUNT:
+                out.writeInt(shard.getDocumentsCount());
+                break;
+            case SEARCH:
+                String[] terms = new String[in.readInt()];
+                double[] idfs = new double[terms.length];
+                for (int i = 0; i < terms.length; i++) {
+                    terms[i] = in.readUTF();
+                }
+                for (int i = 0; i < idfs.length; i++) {
+                    idfs[i] = in.readDouble();
+                }
+                List<ScoredTextDocument> results = shard.search(terms, idfs, in.readInt());
+                out.writeInt(results.size());
+                for (ScoredTextDocument result : results) {
+                    out.writeInt(result.getDocID());
+                    out.writeDouble(result.getScore());
+                }
+                break;
+            case POSTINGS:
+                List<Posting> postings = shard.getTermPostings(in.readUTF());
+                if (postings == null) {
+                    out.writeInt(-1);
+                    break;
+                }
+                out.writeInt(postings.size());
+                for (Posting posting : postings) {
+                    out.writeInt(posting.getDocID());
+                    out.writeInt(posting.getTermFrequency());
+                    out.writeInt(posting.getTermPositions().size());
+                    for (int position : posting.getTermPositions()) {
+                        out.writeInt(position);
+                    }
+                }
+                break;
+            case DOCUMENT:
+                String name = shard.getDocumentName(in.readInt());
+                out.writeBoolean(name != null);
+                out.writeUTF(name == null ? "" : name);
+                break;
+            case MODULE:
+                out.writeDouble(shard.getDocModule(in.readInt()));
+                break;
+            default:
+                throw new IOException("Unknown operation: " + operation);
+        }
+    }
+
+    /**
+     * Main method for ShardServer.
+     *
+     * Loads a shard and serves it, printing the port it listens on.
+     *
+     * @param args The following arguments are used: "shard_path": Path to the
+     * directory where the index of the shard is stored, "port": Optionally,
+     * port to listen on, any free one by default.
+     */
+    public static void main(String[] args) {
+        // Input control
+        if (args.length < 1 || args.length > 2) {
+            System.err.printf("Usage: %s shard_path [port]\n"
+                    + "\tshard_path: Path to the directory where the index of the shard is stored.\n"
+                    + "\tport: Port to listen on, any free one by default.\n",
+                    ShardServer.class.getSimpleName());
+            System.exit(2);
+        }
+        int port = 0;
+        if (args.length == 2) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException ex) {
+                System.err.println(args[1] + ": not a number.");
+                System.exit(2);
+            }
+        }
+
+        BasicIndex index = new BasicIndex();
+        index.load(args[0]);
+        if (!index.isLoaded()) {
+            System.exit(1);
+        }
+
+        // Stop when the standard input is closed.
+        Thread watcher = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0) {
+                }
+            } catch (IOException ex) {
+                // Stop as well.
+            }
+            System.exit(0);
+        });
+        watcher.setDaemon(true);
+        watcher.start();
+
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println(PORT_PREFIX + serverSocket.getLocalPort());
+            System.out.flush();
+            new ShardServer(new LocalShard(index)).serve(serverSocket);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
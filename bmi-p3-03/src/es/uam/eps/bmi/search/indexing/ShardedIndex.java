@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import es.uam.eps.bmi.search.TextDocument;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Sharded index class. Index whose documents are split into several shards,
+ * each of them a full <code>BasicIndex</code> stored in a
+ * <code>shard_N/</code> folder, with docIds from 0 in every shard. The docIds
+ * of the sharded index follow the order of the shards: those of a shard start
+ * after the last one of the previous shard.<br>
+ * Statistics are those of the whole collection: the document frequency of
+ * every term is kept in the <code>globaldf</code> file, and the modules of the
+ * documents of every shard are computed with the idf of the whole collection,
+ * so documents are scored as if the collection was a single index (see
+ * <code>FederatedSearcher</code>).<br>
+ * Shards are loaded in this process, or in local worker JVMs running a
+ * <code>ShardServer</code> if <code>setWorkers</code> is enabled.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class ShardedIndex implements Index {
+
+    /* Default number of shards */
+    public static final int DEFAULT_SHARDS = 4;
+
+    /* Name of the file which contains the document frequency of the terms in
+        the whole collection */
+    protected static final String GLOBAL_DF_FILE_NAME = "globaldf";
+    /* Name format of the folder of every shard */
+    protected static final String SHARD_FOLDER_FORMAT = "shard_%d/";
+    /* Size of the buffer used to read the index files of the shards */
+    private static final int BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /* Number of shards of the next build */
+    private int shardsCount = DEFAULT_SHARDS;
+    /* Whether shards are served by worker JVMs, and their options */
+    private boolean workers = false;
+    private final List<String> workerOptions = new ArrayList<>();
+
+    /* Path where the index is stored */
+    private String indexPath;
+    /* What the postings store */
+    private IndexLayout layout;
+    /* Document frequency of the terms in the whole collection */
+    private TreeMap<String, Integer> globalDf;
+    /* Shards, null if not loaded */
+    private Shard[] shards = null;
+    /* First docId of every shard, and total number of documents at the end */
+    private int[] docIdBases;
+
+    /**
+     * Sets the number of shards of the next build.
+     *
+     * @param shardsCount number of shards.
+     */
+    public void setShardsCount(int shardsCount) {
+        this.shardsCount = shardsCount;
+    }
+
+    /**
+     * Enables or disables serving the shards loaded next from worker JVMs,
+     * one per shard. Disabled by default.
+     *
+     * @param workers true to load every shard in its own JVM.
+     * @param jvmOptions options of the worker JVMs, for instance the heap
+     * size.
+     */
+    public void setWorkers(boolean workers, List<String> jvmOptions) {
+        this.workers = workers;
+        this.workerOptions.clear();
+        this.workerOptions.addAll(jvmOptions);
+    }
+
+    /**
+     * Builds an index from a collection of text documents. Documents are split
+     * into shards of similar size, keeping their order, and every shard is
+     * indexed in turn.
+     *
+     * @param inputCollectionPath Path to the directory containing the
+     * collection of documents to be indexed.
+     * @param outputIndexPath Path to the directory to store the indexes.
+     * @param textParser Parser for document processing.
+     */
+    @Override
+    public void build(String inputCollectionPath, String outputIndexPath, TextParser textParser) {
+        // Input control
+        File docsPath = new File(inputCollectionPath);
+        if (!docsPath.exists() || !docsPath.canRead()) {
+            System.err.printf("%s does not exist or is not readable.\n", docsPath.getAbsolutePath());
+            return;
+        }
+        if (!outputIndexPath.endsWith("/")) {
+            outputIndexPath += "/";
+        }
+
+        long start = System.nanoTime();
+        System.out.println("Indexing documents from '" + inputCollectionPath + "', this may take a while...");
+
+        // Split the collection.
+        List<String> units = new ArrayList<>();
+        List<Long> weights = new ArrayList<>();
+        BuildCoordinator.listUnits(docsPath, units, weights);
+        List<List<String>> shardUnits = BuildCoordinator.split(units, weights, shardsCount);
+
+        try {
+            for (int shard = 0; shard < shardUnits.size(); shard++) {
+                SliceIndexer.indexSlice(shardUnits.get(shard), outputIndexPath + String.format(SHARD_FOLDER_FORMAT, shard), textParser);
+                System.out.printf("[%d/%d] shard indexed\n", shard + 1, shardUnits.size());
+            }
+            writeGlobalStatistics(outputIndexPath, shardUnits.size());
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        } catch (ClassNotFoundException ex) {
+            System.err.println("Exception reading class from file: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        // Stop timing and print elapsed time.
+        long end = System.nanoTime();
+        System.out.println((end - start) / 1e6 + " total milliseconds");
+    }
+
+    /**
+     * Computes the statistics of the whole collection from the shards of an
+     * index: writes the document frequency of every term and replaces the
+     * modules of the documents of every shard by those computed with the idf
+     * of the whole collection.
+     *
+     * @param indexPath path to the sharded index.
+     * @param shardsCount number of shards.
+     * @throws java.io.IOException
+     * @throws java.lang.ClassNotFoundException
+     */
+    public static void writeGlobalStatistics(String indexPath, int shardsCount) throws IOException, ClassNotFoundException {
+        if (!indexPath.endsWith("/")) {
+            indexPath += "/";
+        }
+
+        // Document frequencies and number of documents.
+        IndexLayout layout = null;
+        TreeMap<String, Integer> df = new TreeMap<>();
+        int[] shardSizes = new int[shardsCount];
+        long documents = 0;
+        for (int shard = 0; shard < shardsCount; shard++) {
+            String shardPath = indexPath + String.format(SHARD_FOLDER_FORMAT, shard);
+            IndexLayout shardLayout = IndexLayout.of(IndexMetadata.read(shardPath));
+            if (layout != null && shardLayout != layout) {
+                throw new IOException("Shards have different layouts: " + shardPath);
+            }
+            layout = shardLayout;
+            TreeMap<Integer, String> docsmap = IndexReader.readObject(shardPath + IndexWriter.DOCMAP_FILE_NAME);
+            documents += docsmap.size();
+            shardSizes[shard] = docsmap.isEmpty() ? 0 : docsmap.lastKey() + 1;
+            try (IndexEntryInput in = new IndexEntryInput(new File(shardPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+                IndexEntry ie;
+                while ((ie = in.read()) != null) {
+                    IntBuffer lb = ByteBuffer.wrap(ie.getRawPostingsData()).asIntBuffer();
+                    int count = 0;
+                    for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+                        count++;
+                    }
+                    df.merge(ie.getTerm(), count, Integer::sum);
+                }
+            }
+        }
+
+        // Modules of the documents, with the idf of the whole collection.
+        for (int shard = 0; shard < shardsCount; shard++) {
+            String shardPath = indexPath + String.format(SHARD_FOLDER_FORMAT, shard);
+            double[] docMod = new double[shardSizes[shard]];
+            try (IndexEntryInput in = new IndexEntryInput(new File(shardPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+                IndexEntry ie;
+                while ((ie = in.read()) != null) {
+                    double idf = Math.log((documents * 1.0) / df.get(ie.getTerm())) / Math.log(2);
+                    IntBuffer lb = ByteBuffer.wrap(ie.getRawPostingsData()).asIntBuffer();
+                    for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+                        double tf = 1 + (Math.log(layout.frequency(lb, i)) / Math.log(2));
+                        docMod[lb.get(i)] += Math.pow(tf, 2) * Math.pow(idf, 2);
+                    }
+                }
+            }
+            writeObject(shardPath + IndexWriter.DOC_MODULES_FILE_NAME, docMod);
+            TermBounds.write(shardPath, docMod, layout);
+        }
+
+        writeObject(indexPath + GLOBAL_DF_FILE_NAME, df);
+        IndexMetadata metadata = new IndexMetadata();
+        metadata.set(IndexMetadata.LAYOUT_KEY, (layout == null ? IndexLayout.POSITIONS : layout).name());
+        metadata.set(IndexMetadata.SHARDS_KEY, Integer.toString(shardsCount));
+        metadata.write(indexPath);
+    }
+
+    /**
+     * Writes an object to the given file.
+     *
+     * @param fileName file to write to.
+     * @param o object to write.
+     */
+    private static void writeObject(String fileName, Object o) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(fileName))) {
+            oos.writeObject(o);
+            oos.flush();
+        }
+    }
+
+    /**
+     * Loads a previously created index, opening all its shards.
+     *
+     * @param indexPath Path to the directory where the index is stored.
+     */
+    @Override
+    public void load(String indexPath) {
+        close();
+        if (!indexPath.endsWith("/")) {
+            indexPath += "/";
+        }
+        Shard[] opened = null;
+        try {
+            IndexMetadata metadata = IndexMetadata.read(indexPath);
+            if (metadata.get(IndexMetadata.SHARDS_KEY) == null) {
+                System.err.println(indexPath + " is not a sharded index.");
+                return;
+            }
+            layout = IndexLayout.of(metadata);
+            globalDf = IndexReader.readObject(indexPath + GLOBAL_DF_FILE_NAME);
+
+            opened = new Shard[Integer.parseInt(metadata.get(IndexMetadata.SHARDS_KEY))];
+            docIdBases = new int[opened.length + 1];
+            for (int shard = 0; shard < opened.length; shard++) {
+                opened[shard] = openShard(indexPath + String.format(SHARD_FOLDER_FORMAT, shard));
+                docIdBases[shard + 1] = docIdBases[shard] + opened[shard].getDocumentsCount();
+            }
+            this.indexPath = indexPath;
+            this.shards = opened;
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            closeShards(opened);
+        } catch (ClassNotFoundException ex) {
+            System.err.println("Exception reading class from file: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            closeShards(opened);
+        }
+    }
+
+    /**
+     * Opens a shard in this process or in a worker JVM.
+     */
+    private Shard openShard(String shardPath) throws IOException {
+        if (workers) {
+            return RemoteShard.launch(shardPath, workerOptions);
+        }
+        BasicIndex index = new BasicIndex();
+        index.load(shardPath);
+        if (!index.isLoaded()) {
+            throw new IOException("Shard " + shardPath + " could not be loaded");
+        }
+        return new LocalShard(index);
+    }
+
+    /**
+     * Closes the shards, stopping their workers if any. The index is not
+     * loaded anymore.
+     */
+    public void close() {
+        closeShards(shards);
+        shards = null;
+    }
+
+    /**
+     * Closes the given shards, ignoring those not opened.
+     */
+    private static void closeShards(Shard[] toClose) {
+        if (toClose == null) {
+            return;
+        }
+        for (Shard shard : toClose) {
+            if (shard == null) {
+                continue;
+            }
+            try {
+                shard.close();
+            } catch (IOException ex) {
+                System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+                System.err.println(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the shards of the index.
+     *
+     * @return the shards of the index, in docId order.
+     */
+    public List<Shard> getShards() {
+        return Arrays.asList(shards);
+    }
+
+    /**
+     * Returns the docId in the sharded index of a document of a shard.
+     *
+     * @param shard position of the shard.
+     * @param docId docId of the document in the shard.
+     * @return the docId of the document in the sharded index.
+     */
+    public int getDocId(int shard, int docId) {
+        return docIdBases[shard] + docId;
+    }
+
+    /**
+     * Returns the position of the shard holding a document.
+     *
+     * @param docId docId in the sharded index.
+     * @return the position of the shard.
+     */
+    private int getShard(int docId) {
+        int shard = Arrays.binarySearch(docIdBases, docId);
+        if (shard < 0) {
+            return -shard - 2;
+        }
+        // Skip empty shards.
+        while (shard < shards.length - 1 && docIdBases[shard + 1] == docId) {
+            shard++;
+        }
+        return shard;
+    }
+
+    /**
+     * Returns the path where the index is stored.
+     *
+     * @return the path where the index is stored.
+     */
+    @Override
+    public String getPath() {
+        return indexPath;
+    }
+
+    /**
+     * Returns a list of the IDs of indexed documents.
+     *
+     * @return a list of the IDs of indexed documents.
+     */
+    @Override
+    public List<Integer> getDocIds() {
+        List<Integer> docIds = new ArrayList<>(docIdBases[shards.length]);
+        for (int docId = 0; docId < docIdBases[shards.length]; docId++) {
+            docIds.add(docId);
+        }
+        return docIds;
+    }
+
+    /**
+     * Returns the number of indexed documents, the size of
+     * <code>getDocIds</code>, without building the list.
+     *
+     * @return the number of indexed documents.
+     */
+    @Override
+    public int getDocsCount() {
+        return docIdBases[shards.length];
+    }
+
+    /**
+     * Returns a document given its Id.
+     *
+     * @param docId Id of the document to retrieve.
+     * @return a <code>TextDocument</code> instance matching the given Id, null
+     * if it does not exist.
+     */
+    @Override
+    public TextDocument getDocument(int docId) {
+        if (docId < 0 || docId >= docIdBases[shards.length]) {
+            return null;
+        }
+        int shard = getShard(docId);
+        try {
+            String name = shards[shard].getDocumentName(docId - docIdBases[shard]);
+            return name == null ? null : new TextDocument(docId, name);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the list of terms extracted from the indexed documents.
+     *
+     * @return the list of terms extracted from the indexed documents.
+     */
+    @Override
+    public List<String> getTerms() {
+        return new ArrayList<>(globalDf.keySet());
+    }
+
+    /**
+     * Returns a list of postings of the given term, the postings of every
+     * shard one after the other.
+     *
+     * @param term Given term used to get the list of postings.
+     * @return a list of the postings of the given term, null if the term is
+     * not in the index.
+     */
+    @Override
+    public List<Posting> getTermPostings(String term) {
+        if (!globalDf.containsKey(term)) {
+            return null;
+        }
+        List<Posting> lp = new ArrayList<>(globalDf.get(term));
+        try {
+            for (int shard = 0; shard < shards.length; shard++) {
+                List<Posting> shardPostings = shards[shard].getTermPostings(term);
+                if (shardPostings == null) {
+                    continue;
+                }
+                for (Posting p : shardPostings) {
+                    int docId = getDocId(shard, p.getDocID());
+                    lp.add(layout.hasPositions() ? new Posting(term, docId, p.getTermPositions())
+                            : new Posting(term, docId, p.getTermFrequency()));
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return null;
+        }
+        return lp;
+    }
+
+    /**
+     * Returns the number of indexed documents containing the given term, in
+     * all the shards.
+     *
+     * @param term Given term.
+     * @return the number of indexed documents containing the given term.
+     */
+    @Override
+    public int getTermDocFrequency(String term) {
+        Integer df = globalDf.get(term);
+        return df == null ? 0 : df;
+    }
+
+    /**
+     * Returns a true if the index is loaded, false otherwise.
+     *
+     * @return true if index is loaded, false otherwise.
+     */
+    @Override
+    public boolean isLoaded() {
+        return shards != null;
+    }
+
+    /**
+     * Returns the module of the document with the given doc ID.
+     *
+     * @param docId ID of the document whose module will be returned.
+     * @return the module of the document with the given doc ID.
+     */
+    @Override
+    public double getDocModule(int docId) {
+        int shard = getShard(docId);
+        try {
+            return shards[shard].getDocModule(docId - docIdBases[shard]);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Returns what the postings of the index store.
+     *
+     * @return the layout of the index.
+     */
+    @Override
+    public IndexLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Sharded indexes have no biword index.
+     *
+     * @param first first term of the pair.
+     * @param second second term of the pair.
+     * @return null.
+     */
+    @Override
+    public List<Posting> getBiwordPostings(String first, String second) {
+        return null;
+    }
+
+    /**
+     * Main method for Sharded index.
+     *
+     * It indexes a set of documents, creating a sharded index in the output
+     * directory.
+     *
+     * @param args The following arguments are used: "docs_path": Path to the
+     * directory containing the documents to be indexed. "index_path": Path to
+     * the directory to store the index. "shards": Optionally, number of
+     * shards.
+     */
+    public static void main(String[] args) {
+        // Input control
+        if (args.length < 2 || args.length > 3) {
+            System.err.printf("Usage: %s docs_path index_path [shards]\n"
+                    + "\tdocs_path: Path to the directory containing the documents to be used.\n"
+                    + "\tindex_path: Path to a directory to store the index.\n"
+                    + "\tshards: Number of shards, %d by default.\n",
+                    ShardedIndex.class.getSimpleName(), DEFAULT_SHARDS);
+            return;
+        }
+        ShardedIndex index = new ShardedIndex();
+        if (args.length == 3) {
+            try {
+                index.setShardsCount(Integer.parseInt(args[2]));
+            } catch (NumberFormatException ex) {
+                System.err.println(args[2] + ": not a number.");
+                return;
+            }
+        }
+        index.build(args[0], args[1], new BasicParser());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.StemParser;
+import es.uam.eps.bmi.search.parsing.StopwordParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.tartarus.snowball.ext.englishStemmer;
+
+/**
+ * SliceIndexer class. Worker used by <code>BuildCoordinator</code> to build a
+ * partial index from a slice of a collection, in its own JVM.<br>
+ * A slice file has one line per unit to index, with tab separated fields:
+ * <code>F path</code> for a whole file or directory, and
+ * <code>Z path fromEntry toEntry</code> for a range of entries of a zip file.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class SliceIndexer {
+
+    /* Names of the parsers a slice can be indexed with */
+    public static final String BASIC_PARSER = "basic";
+    public static final String STOPWORD_PARSER = "stopword";
+    public static final String STEM_PARSER = "stem";
+
+    /* Kind of the units of a slice file */
+    static final String FILE_UNIT = "F";
+    static final String ZIP_UNIT = "Z";
+    /* Separator of the fields of a unit */
+    static final String UNIT_SEPARATOR = "\t";
+
+    /**
+     * Returns the parser matching the given name, or null if there is none.
+     *
+     * @param name name of the parser.
+     * @return the parser matching the given name, or null if there is none.
+     */
+    public static TextParser parserFor(String name) {
+        switch (name) {
+            case BASIC_PARSER:
+                return new BasicParser();
+            case STOPWORD_PARSER:
+                return new StopwordParser();
+            case STEM_PARSER:
+                return new StemParser(2, new englishStemmer());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Builds an index with the units of the given slice.
+     *
+     * @param units lines of the slice file.
+     * @param outputIndexPath Path to the directory to store the index.
+     * @param textParser Parser for document processing.
+     * @throws java.io.IOException if any unit of the slice cannot be indexed.
+     */
+    public static void indexSlice(List<String> units, String outputIndexPath, TextParser textParser) throws IOException {
+        BasicIndex index = new BasicIndex();
+        IndexWriter writer = new IndexWriter(outputIndexPath, BasicIndex.WRITER_BLOCK_SIZE);
+        for (String unit : units) {
+            String[] fields = unit.split(UNIT_SEPARATOR);
+            if (fields[0].equals(ZIP_UNIT)) {
+                index.indexZipEntries(writer, new File(fields[1]), textParser,
+                        Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+            } else if (fields[0].equals(FILE_UNIT)) {
+                File file = new File(fields[1]);
+                if (!file.canRead()) {
+                    throw new IOException(file.getPath() + " does not exist or is not readable");
+                }
+                index.indexDocuments(writer, file, textParser);
+            }
+        }
+        writer.close();
+    }
+
+    /**
+     * Main method for SliceIndexer.
+     *
+     * @param args The following arguments are used: "slice_file": file
+     * listing the units of the slice. "index_path": Path to the directory to
+     * store the partial index. "parser": name of the parser (basic, stopword
+     * or stem).
+     */
+    public static void main(String[] args) {
+        // Input control
+        if (args.length != 3 || parserFor(args[2]) == null) {
+            System.err.printf("Usage: %s slice_file index_path parser\n"
+                    + "\tslice_file: File listing the documents of the slice.\n"
+                    + "\tindex_path: Path to a directory to store the partial index.\n"
+                    + "\tparser: One of %s, %s or %s.\n",
+                    SliceIndexer.class.getSimpleName(), BASIC_PARSER, STOPWORD_PARSER, STEM_PARSER);
+            System.exit(2);
+        }
+
+        // Stop if the coordinator dies, as its slice will be taken over.
+        ProcessHandle.current().parent().ifPresent(coordinator -> coordinator.onExit().thenRun(() -> {
+            System.err.println("Coordinator exited, stopping.");
+            Runtime.getRuntime().halt(3);
+        }));
+
+        long start = System.nanoTime();
+        try {
+            List<String> units = Files.readAllLines(new File(args[0]).toPath(), StandardCharsets.UTF_8);
+            indexSlice(units, args[1], parserFor(args[2]));
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+        long end = System.nanoTime();
+        System.out.println(args[0] + " indexed in " + (end - start) / 1e6 + " milliseconds");
+    }
+}
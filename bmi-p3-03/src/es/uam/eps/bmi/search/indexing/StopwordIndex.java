@@ -39,21 +39,23 @@ public class StopwordIndex extends BasicIndex {
      *
      * @param args The following arguments are used: "docs_path": Path to the
      * directory containing the documents to be indexed. "index_path": Path to
-     * the directory to store the index.
+     * the directory to store the index. Optionally followed by the options in
+     * <code>OPTIONS_USAGE</code>.
      */
     public static void main(String[] args) {
+        StopwordIndex stopwordIndex = new StopwordIndex();
 
         // Input control
-        if (args.length != 2) {
-            System.err.printf("Usage: %s docs_path index_path\n"
+        if (args.length < 2 || !stopwordIndex.setOptions(args, 2)) {
+            System.err.printf("Usage: %s docs_path index_path [options]\n"
                     + "\tdocs_path: Path to the directory containing the documents to be used.\n"
-                    + "\tindex_path: Path to a directory to store the index.\n",
+                    + "\tindex_path: Path to a directory to store the index.\n"
+                    + OPTIONS_USAGE,
                     BasicIndex.class.getSimpleName());
             return;
         }
 
         // Build the index
-        StopwordIndex stopwordIndex = new StopwordIndex();
         stopwordIndex.build(args[0], args[1], new StopwordParser());
 
         System.out.print("Getting index stats...");
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.TreeMap;
+
+/**
+ * TermBounds class. Writes the score bounds of the terms of a finished index:
+ * for every term, the maximum of <code>tf / docMod</code> among its postings.
+ * Multiplied by the idf of the term, it bounds what the term adds to the
+ * TF-IDF score of any document, whatever the statistics the idf is computed
+ * with.<br>
+ * Terms with a posting in a document of module 0 have an infinite bound.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class TermBounds {
+
+    /* Name of the file which contains the score bound of every term */
+    public static final String TERM_BOUNDS_FILE_NAME = "termbounds";
+
+    /* Size of the buffer used to stream the index file */
+    private static final int BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /**
+     * Computes the score bounds of the terms of an index and writes them to
+     * its folder.
+     *
+     * @param indexPath path to the finished index.
+     * @param docMod squared document modules of the index.
+     * @param layout layout of the index.
+     * @throws java.io.IOException
+     */
+    public static void write(String indexPath, double[] docMod, IndexLayout layout) throws IOException {
+        if (!indexPath.endsWith("/")) {
+            indexPath += "/";
+        }
+        TreeMap<String, Double> bounds = new TreeMap<>();
+        try (IndexEntryInput in = new IndexEntryInput(new File(indexPath + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            IndexEntry ie;
+            while ((ie = in.read()) != null) {
+                IntBuffer lb = ByteBuffer.wrap(ie.getRawPostingsData()).asIntBuffer();
+                double bound = 0;
+                for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+                    double tf = 1 + (Math.log(layout.frequency(lb, i)) / Math.log(2));
+                    double mod = Math.sqrt(docMod[lb.get(i)]);
+                    bound = Math.max(bound, mod > 0 ? tf / mod : Double.POSITIVE_INFINITY);
+                }
+                bounds.put(ie.getTerm(), bound);
+            }
+        }
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(indexPath + TERM_BOUNDS_FILE_NAME))) {
+            oos.writeObject(bounds);
+            oos.flush();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Tiered index class. Index with two tiers of postings:
+ * <ul>
+ * <li>Hot tier: for every term, the postings with the highest impact, kept in
+ * memory. The impact of a posting is its TF-IDF weight without the idf, that
+ * is, <code>(1 + log2(tf)) / docModule</code>.</li>
+ * <li>Cold tier: the whole index on disk, read as a
+ * <code>BasicIndex</code>.</li>
+ * </ul>
+ * For every term the index also keeps the highest impact of the postings left
+ * in the cold tier, which bounds what they can add to the score of a
+ * document. Searchers use it to find out when the hot tier is enough to
+ * answer a query (see <code>TieredSearcher</code>). Terms with no more
+ * postings than the hot tier size are completely in memory, with a cold
+ * impact of 0.<br>
+ * Hot postings are stored in flat arrays, sorted by docId: those of the term
+ * with id <code>t</code> are from <code>hotOffsets[t]</code> to
+ * <code>hotOffsets[t + 1]</code>.<br>
+ * Indexes are built as a <code>BasicIndex</code>.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class TieredIndex extends BasicIndex {
+
+    /* Default number of postings of every term in the hot tier */
+    public static final int DEFAULT_HOT_POSTINGS = 256;
+
+    /* Size of the buffer used to read the index file */
+    private static final int BUFFER_SIZE = 1024 * 1024; //1MB
+
+    /* Maximum number of postings of every term in the hot tier */
+    private final int hotPostings;
+
+    /* Term ids, in the order of the index file */
+    private HashMap<String, Integer> termIds = null;
+    /* Number of documents containing each term */
+    private int[] docFreqs;
+    /* Highest impact of the postings of each term in the cold tier */
+    private double[] coldImpacts;
+
+    /* Hot postings of the terms */
+    private int[] hotOffsets;
+    private int[] hotDocIds;
+    private int[] hotFrequencies;
+
+    /* Total number of postings, hot and cold */
+    private long postingsCount;
+
+    /**
+     * Default constructor, with <code>DEFAULT_HOT_POSTINGS</code> postings of
+     * every term in the hot tier.
+     */
+    public TieredIndex() {
+        this(DEFAULT_HOT_POSTINGS);
+    }
+
+    /**
+     * Constructor with a given size of the hot tier.
+     *
+     * @param hotPostings maximum number of postings of every term in the hot
+     * tier.
+     */
+    public TieredIndex(int hotPostings) {
+        this.hotPostings = hotPostings;
+    }
+
+    /**
+     * Loads a previously created index, reading the hot tier in memory.
+     *
+     * @param indexPath Path to the directory where the index is stored.
+     */
+    @Override
+    public void load(String indexPath) {
+        super.load(indexPath);
+        if (reader == null) {
+            return;
+        }
+        try {
+            loadHotTier(reader.indexPath);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            reader = null;
+            termIds = null;
+        }
+    }
+
+    /**
+     * Reads the index file sequentially, keeping the hot postings of every
+     * term.
+     *
+     * @param path path to the index.
+     */
+    private void loadHotTier(String path) throws IOException {
+        int termsCount = 0;
+        int hotCount = 0;
+        IndexLayout layout = reader.getLayout();
+        termIds = new HashMap<>();
+        docFreqs = new int[1024];
+        coldImpacts = new double[1024];
+        hotOffsets = new int[1025];
+        hotDocIds = new int[1024];
+        hotFrequencies = new int[1024];
+        postingsCount = 0;
+
+        // Postings of the term being read
+        int[] docIds = new int[1024];
+        int[] frequencies = new int[1024];
+        double[] impacts = new double[1024];
+
+        try (IndexEntryInput in = new IndexEntryInput(new File(path + IndexWriter.INDEX_FILE_NAME), BUFFER_SIZE)) {
+            IndexEntry ie;
+            while ((ie = in.read()) != null) {
+                // Postings
+                int count = 0;
+                IntBuffer lb = ByteBuffer.wrap(ie.getRawPostingsData()).asIntBuffer();
+                for (int i = 0; i < lb.limit(); i += layout.postingLength(lb, i)) {
+                    if (count == docIds.length) {
+                        docIds = Arrays.copyOf(docIds, 2 * count);
+                        frequencies = Arrays.copyOf(frequencies, 2 * count);
+                        impacts = Arrays.copyOf(impacts, 2 * count);
+                    }
+                    docIds[count] = lb.get(i);
+                    frequencies[count] = layout.frequency(lb, i);
+                    impacts[count] = getImpact(frequencies[count], docIds[count]);
+                    count++;
+                }
+                postingsCount += count;
+
+                // Cold impact: the one of the first posting left out of the
+                // hot tier, postings with the same impact are left out too.
+                double coldImpact = 0;
+                if (count > hotPostings) {
+                    double[] sorted = Arrays.copyOf(impacts, count);
+                    Arrays.sort(sorted);
+                    coldImpact = sorted[count - hotPostings - 1];
+                }
+
+                // Term
+                if (termsCount == docFreqs.length) {
+                    docFreqs = Arrays.copyOf(docFreqs, 2 * termsCount);
+                    coldImpacts = Arrays.copyOf(coldImpacts, 2 * termsCount);
+                    hotOffsets = Arrays.copyOf(hotOffsets, 2 * termsCount + 1);
+                }
+                Integer docFreq = reader.docFreqs == null ? null : reader.docFreqs.get(ie.getTerm());
+                termIds.put(ie.getTerm(), termsCount);
+                docFreqs[termsCount] = docFreq != null ? docFreq : count;
+                coldImpacts[termsCount] = coldImpact;
+                hotOffsets[termsCount] = hotCount;
+                termsCount++;
+
+                // Hot postings, in docId order
+                for (int p = 0; p < count; p++) {
+                    if (count <= hotPostings || impacts[p] > coldImpact) {
+                        if (hotCount == hotDocIds.length) {
+                            hotDocIds = Arrays.copyOf(hotDocIds, 2 * hotCount);
+                            hotFrequencies = Arrays.copyOf(hotFrequencies, 2 * hotCount);
+                        }
+                        hotDocIds[hotCount] = docIds[p];
+                        hotFrequencies[hotCount] = frequencies[p];
+                        hotCount++;
+                    }
+                }
+            }
+        }
+
+        // Trim the arrays.
+        docFreqs = Arrays.copyOf(docFreqs, termsCount);
+        coldImpacts = Arrays.copyOf(coldImpacts, termsCount);
+        hotOffsets = Arrays.copyOf(hotOffsets, termsCount + 1);
+        hotOffsets[termsCount] = hotCount;
+        hotDocIds = Arrays.copyOf(hotDocIds, hotCount);
+        hotFrequencies = Arrays.copyOf(hotFrequencies, hotCount);
+    }
+
+    /**
+     * Returns the impact of a posting: its TF-IDF weight without the idf.
+     *
+     * @param frequency term frequency of the posting.
+     * @param docId docId of the posting.
+     * @return the impact of the posting.
+     */
+    public double getImpact(int frequency, int docId) {
+        return (1 + (Math.log(frequency) / Math.log(2))) / getDocModule(docId);
+    }
+
+    /**
+     * Returns the id of a term, used to access its hot postings.
+     *
+     * @param term term to look for.
+     * @return the id of the term, -1 if it is not in the index.
+     */
+    public int getTermId(String term) {
+        Integer termId = termIds.get(term);
+        return termId == null ? -1 : termId;
+    }
+
+    /**
+     * Returns the position of the first hot posting of a term.
+     *
+     * @param termId id of the term.
+     * @return the position of the first hot posting of the term.
+     */
+    public int getHotStart(int termId) {
+        return hotOffsets[termId];
+    }
+
+    /**
+     * Returns the position after the last hot posting of a term.
+     *
+     * @param termId id of the term.
+     * @return the position after the last hot posting of the term.
+     */
+    public int getHotEnd(int termId) {
+        return hotOffsets[termId + 1];
+    }
+
+    /**
+     * Returns the docId of a hot posting.
+     *
+     * @param posting position of the hot posting.
+     * @return the docId of the posting.
+     */
+    public int getHotDocId(int posting) {
+        return hotDocIds[posting];
+    }
+
+    /**
+     * Returns the term frequency of a hot posting.
+     *
+     * @param posting position of the hot posting.
+     * @return the term frequency of the posting.
+     */
+    public int getHotFrequency(int posting) {
+        return hotFrequencies[posting];
+    }
+
+    /**
+     * Returns the highest impact of the postings of a term left in the cold
+     * tier.
+     *
+     * @param termId id of the term.
+     * @return the highest impact of the cold postings of the term, 0 if all
+     * of them are in the hot tier.
+     */
+    public double getColdImpact(int termId) {
+        return coldImpacts[termId];
+    }
+
+    /**
+     * Returns the number of indexed documents containing the given term,
+     * without reading the index file.
+     *
+     * @param term Given term.
+     * @return the number of indexed documents containing the given term.
+     */
+    @Override
+    public int getTermDocFrequency(String term) {
+        int termId = getTermId(term);
+        return termId < 0 ? 0 : docFreqs[termId];
+    }
+
+    /**
+     * Returns a true if the index is loaded, false otherwise.
+     *
+     * @return true if index is loaded, false otherwise.
+     */
+    @Override
+    public boolean isLoaded() {
+        return super.isLoaded() && termIds != null;
+    }
+
+    /**
+     * Main method for tiered index.
+     *
+     * Loads an index and prints the size of its hot tier.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the index is stored, "hot_postings": Optionally, number
+     * of postings of every term in the hot tier.
+     */
+    public static void main(String[] args) {
+        // Input control
+        if (args.length < 1 || args.length > 2) {
+            System.err.printf("Usage: %s index_path [hot_postings]\n"
+                    + "\tindex_path: Path to the directory where the index is stored.\n"
+                    + "\thot_postings: Postings of every term in memory, %d by default.\n",
+                    TieredIndex.class.getSimpleName(), DEFAULT_HOT_POSTINGS);
+            return;
+        }
+        int hotPostings = DEFAULT_HOT_POSTINGS;
+        if (args.length == 2) {
+            try {
+                hotPostings = Integer.parseInt(args[1]);
+            } catch (NumberFormatException ex) {
+                System.err.println(args[1] + ": not a number.");
+                return;
+            }
+        }
+
+        long start = System.nanoTime();
+        TieredIndex index = new TieredIndex(hotPostings);
+        index.load(args[0]);
+        long end = System.nanoTime();
+        if (!index.isLoaded()) {
+            return;
+        }
+        int completeTerms = 0;
+        for (double coldImpact : index.coldImpacts) {
+            if (coldImpact == 0) {
+                completeTerms++;
+            }
+        }
+        System.out.println("Terms: " + index.docFreqs.length + "\tCompletely in memory: " + completeTerms);
+        System.out.printf("Postings: %d\tIn memory: %d (%.2f%%)\n", index.postingsCount,
+                index.hotDocIds.length, 100.0 * index.hotDocIds.length / index.postingsCount);
+        System.out.println("Index loaded in " + (end - start) / 1e6 + " milliseconds");
+    }
+}
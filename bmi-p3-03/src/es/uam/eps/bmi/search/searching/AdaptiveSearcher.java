@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.indexing.BasicIndex;
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * TF-IDF searcher choosing, for every query, between scoring term at a time
+ * with <code>TAATSearcher</code> and document at a time with
+ * <code>TFIDFSearcher</code>. Term at a time is cheaper per posting, while
+ * document at a time skips the postings that cannot change the top results,
+ * which pays off with long queries of frequent terms.<br>
+ * Queries are scored term at a time if they have few terms or few postings
+ * per document of the index. The thresholds can be calibrated for an index
+ * and a query log with the main method of this class.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class AdaptiveSearcher implements Searcher {
+
+    /* Default maximum number of terms of the queries always scored term at a
+        time */
+    public static final int DEFAULT_MAX_TAAT_TERMS = 2;
+    /* Default maximum number of postings per document of the index of the
+        longer queries scored term at a time */
+    public static final double DEFAULT_MAX_TAAT_POSTINGS = 0.5;
+
+    /* Searchers of every strategy */
+    private final TAATSearcher taatSearcher = new TAATSearcher();
+    private final TFIDFSearcher daatSearcher = new TFIDFSearcher();
+
+    // Index used to search
+    private Index index;
+
+    /* Thresholds of the queries scored term at a time */
+    private int maxTaatTerms = DEFAULT_MAX_TAAT_TERMS;
+    private double maxTaatPostings = DEFAULT_MAX_TAAT_POSTINGS;
+
+    /* Number of queries scored with every strategy */
+    private int taatQueries = 0;
+    private int daatQueries = 0;
+
+    /**
+     * Creates a searcher using the given index.
+     *
+     * @param index Index used to create the searcher, must be loaded.
+     */
+    @Override
+    public void build(Index index) {
+        this.index = index;
+        taatSearcher.build(index);
+        daatSearcher.build(index);
+    }
+
+    /**
+     * Sets the thresholds of the queries scored term at a time.
+     *
+     * @param maxTaatTerms queries with this number of terms or less are
+     * scored term at a time.
+     * @param maxTaatPostings longer queries with this number of postings per
+     * document of the index or less are scored term at a time.
+     */
+    public void setThresholds(int maxTaatTerms, double maxTaatPostings) {
+        this.maxTaatTerms = maxTaatTerms;
+        this.maxTaatPostings = maxTaatPostings;
+    }
+
+    /**
+     * Returns a ranking of documents sorted by the score value.
+     *
+     * @param query String query used to search.
+     * @return a ranking of documents sorted by the decrementing score value.
+     */
+    @Override
+    public List<ScoredTextDocument> search(String query) {
+        // Separate the query string by spaces
+        String[] terms = query.split(" ");
+        if (terms.length == 0) {
+            return new ArrayList<>();
+        }
+        QueryPostings postings = new QueryPostings(index, terms);
+        if (isTermAtATime(postings)) {
+            taatQueries++;
+            return taatSearcher.search(postings);
+        }
+        daatQueries++;
+        return daatSearcher.search(postings);
+    }
+
+    /**
+     * Returns true if a query is scored term at a time.
+     *
+     * @param postings postings of the query terms.
+     * @return true if the query is scored term at a time.
+     */
+    private boolean isTermAtATime(QueryPostings postings) {
+        return postings.terms.length <= maxTaatTerms || postings.postingsCount <= maxTaatPostings * postings.docsCount;
+    }
+
+    /**
+     * Sets the maximum number of results to retrieve.
+     *
+     * @param topResultsNumber Maximum number of results to retrieve.
+     */
+    @Override
+    public void setTopResultsNumber(int topResultsNumber) {
+        taatSearcher.setTopResultsNumber(topResultsNumber);
+        daatSearcher.setTopResultsNumber(topResultsNumber);
+    }
+
+    /**
+     * Returns the number of queries scored term at a time.
+     *
+     * @return the number of queries scored term at a time.
+     */
+    public int getTaatQueries() {
+        return taatQueries;
+    }
+
+    /**
+     * Returns the number of queries scored document at a time.
+     *
+     * @return the number of queries scored document at a time.
+     */
+    public int getDaatQueries() {
+        return daatQueries;
+    }
+
+    /**
+     * Main method for adaptive searcher.
+     *
+     * Times both strategies with the queries of a file, grouped by number of
+     * terms, and prints the thresholds that would have taken the least time.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the index is stored, "queries_file": File with a query
+     * per line, as "id:query", "repetitions": Optionally, times every query
+     * is run with every strategy.
+     */
+    public static void main(String[] args) {
+        // Top results
+        final int TOP = 10;
+
+        // Input control
+        if (args.length < 2 || args.length > 3) {
+            System.err.printf("Usage: %s index_path queries_file [repetitions]\n"
+                    + "\tindex_path: Path to the directory where the index is stored.\n"
+                    + "\tqueries_file: File with a query per line, as id:query.\n"
+                    + "\trepetitions: Times every query is run, 20 by default.\n",
+                    AdaptiveSearcher.class.getSimpleName());
+            return;
+        }
+        int repetitions = 20;
+        if (args.length == 3) {
+            try {
+                repetitions = Integer.parseInt(args[2]);
+            } catch (NumberFormatException ex) {
+                System.err.println(args[2] + ": not a number.");
+                return;
+            }
+        }
+
+        // Read the queries
+        TextParser parser = new BasicParser();
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader queriesReader = new BufferedReader(new FileReader(args[1]))) {
+            String line;
+            while ((line = queriesReader.readLine()) != null) {
+                String query = parser.parse(line.substring(line.indexOf(':') + 1));
+                if (!query.isEmpty()) {
+                    queries.add(query);
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        BasicIndex index = new BasicIndex();
+        index.load(args[0]);
+        if (!index.isLoaded()) {
+            return;
+        }
+        TAATSearcher taat = new TAATSearcher();
+        TFIDFSearcher daat = new TFIDFSearcher();
+        taat.build(index);
+        daat.build(index);
+        taat.setTopResultsNumber(TOP);
+        daat.setTopResultsNumber(TOP);
+        double docsCount = index.getDocsCount();
+
+        // Time every query with the postings already read, after a warm-up.
+        int n = queries.size();
+        int[] termsCounts = new int[n];
+        double[] postingsPerDoc = new double[n];
+        double[] taatTimes = new double[n];
+        double[] daatTimes = new double[n];
+        for (int round = 0; round < 2; round++) {
+            for (int q = 0; q < n; q++) {
+                QueryPostings postings = new QueryPostings(index, queries.get(q).split(" "));
+                termsCounts[q] = postings.terms.length;
+                postingsPerDoc[q] = postings.postingsCount / Math.max(1, docsCount);
+                long start = System.nanoTime();
+                for (int r = 0; r < repetitions; r++) {
+                    taat.search(postings);
+                }
+                long middle = System.nanoTime();
+                for (int r = 0; r < repetitions; r++) {
+                    daat.search(postings);
+                }
+                long end = System.nanoTime();
+                taatTimes[q] = (middle - start) / 1e6 / repetitions;
+                daatTimes[q] = (end - middle) / 1e6 / repetitions;
+            }
+        }
+
+        // Times by number of terms.
+        TreeMap<Integer, double[]> byLength = new TreeMap<>();
+        for (int q = 0; q < n; q++) {
+            double[] sums = byLength.computeIfAbsent(termsCounts[q], t -> new double[3]);
+            sums[0]++;
+            sums[1] += taatTimes[q];
+            sums[2] += daatTimes[q];
+        }
+        System.out.println("Terms\tQueries\tTAAT ms\tDAAT ms");
+        for (Integer length : byLength.keySet()) {
+            double[] sums = byLength.get(length);
+            System.out.printf("%d\t%d\t%.4f\t%.4f\n", length, (int) sums[0], sums[1] / sums[0], sums[2] / sums[0]);
+        }
+
+        // Thresholds with the least total time.
+        double[] candidates = postingsPerDoc.clone();
+        Arrays.sort(candidates);
+        int bestTerms = 0;
+        double bestPostings = 0;
+        double bestTime = Double.POSITIVE_INFINITY;
+        for (int maxTerms = 0; maxTerms <= (byLength.isEmpty() ? 0 : byLength.lastKey()); maxTerms++) {
+            for (int c = -1; c < candidates.length; c++) {
+                double maxPostings = c < 0 ? -1 : candidates[c];
+                double time = 0;
+                for (int q = 0; q < n; q++) {
+                    boolean termAtATime = termsCounts[q] <= maxTerms || postingsPerDoc[q] <= maxPostings;
+                    time += termAtATime ? taatTimes[q] : daatTimes[q];
+                }
+                if (time < bestTime) {
+                    bestTime = time;
+                    bestTerms = maxTerms;
+                    bestPostings = maxPostings;
+                }
+            }
+        }
+        double taatTotal = Arrays.stream(taatTimes).sum();
+        double daatTotal = Arrays.stream(daatTimes).sum();
+        System.out.printf("Total time: TAAT %.4f ms, DAAT %.4f ms, adaptive %.4f ms\n", taatTotal, daatTotal, bestTime);
+        System.out.printf("Thresholds: %d terms, %.4f postings per document\n", bestTerms, Math.max(0, bestPostings));
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.indexing.BasicIndex;
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searcher caching the results of another searcher, for repeated queries.
+ * <ul>
+ * <li>Results are cached by normalized query, with its terms separated by a
+ * single space, type of the searcher and maximum number of results.</li>
+ * <li>The cache is bounded both by number of entries and by an estimate of
+ * their memory, evicting the least recently used entries.</li>
+ * <li>Concurrent misses of the same query over the same generation of the
+ * index wait for a single search.</li>
+ * <li>The cache is emptied when the searcher is built again and, with a
+ * <code>BasicIndex</code>, when the index is loaded again or closed. The
+ * cached searcher is then built again with the index.</li>
+ * </ul>
+ * The cache is thread-safe, and so is the searcher if the cached one is.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class CachingSearcher implements Searcher {
+
+    /* Default maximum number of entries */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    /* Default maximum memory used by the entries */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024; //16MB
+
+    /* Estimated memory of an entry without its query and results, and of a
+        result */
+    private static final long ENTRY_BYTES = 128;
+    private static final long RESULT_BYTES = 32;
+
+    /* Cached searcher */
+    private final Searcher searcher;
+    // Maximum number of results to retrieve.
+    private int TOP_RESULTS_NUMBER = 5;
+
+    /* Bounds of the cache */
+    private final int maxEntries;
+    private final long maxBytes;
+
+    /* Entries by key, in access order, and their estimated memory */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    /* Searches in progress by generation of the index and key */
+    private final ConcurrentHashMap<String, CompletableFuture<List<ScoredTextDocument>>> pending = new ConcurrentHashMap<>();
+
+    /* Index of the searcher, and its generation when cached, if a
+        BasicIndex */
+    private BasicIndex index = null;
+    private int generation = 0;
+
+    /* Metrics */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Default constructor.
+     *
+     * @param searcher searcher whose results are cached.
+     */
+    public CachingSearcher(Searcher searcher) {
+        this(searcher, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Constructor with the bounds of the cache.
+     *
+     * @param searcher searcher whose results are cached.
+     * @param maxEntries maximum number of entries.
+     * @param maxBytes maximum estimated memory used by the entries.
+     */
+    public CachingSearcher(Searcher searcher, int maxEntries, long maxBytes) {
+        this.searcher = searcher;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates a searcher using the given index.
+     *
+     * @param index Index used to create the searcher, must be loaded.
+     */
+    @Override
+    public void build(Index index) {
+        synchronized (entries) {
+            searcher.build(index);
+            this.index = index instanceof BasicIndex ? (BasicIndex) index : null;
+            this.generation = this.index == null ? 0 : this.index.getGeneration();
+            invalidate();
+        }
+    }
+
+    /**
+     * Returns a ranking of documents sorted by the score value.
+     *
+     * @param query String query used to search.
+     * @return a ranking of documents sorted by the decrementing score value.
+     */
+    @Override
+    public List<ScoredTextDocument> search(String query) {
+        String normalized = normalize(query);
+        String key = getKey(normalized);
+
+        // Cached results
+        int searchGeneration;
+        synchronized (entries) {
+            if (index != null && index.getGeneration() != generation) {
+                generation = index.getGeneration();
+                searcher.build(index);
+                invalidate();
+            }
+            searchGeneration = generation;
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return copy(entry.results);
+            }
+        }
+
+        // Search in progress over the same generation, or a new one.
+        String pendingKey = searchGeneration + "\u0000" + key;
+        CompletableFuture<List<ScoredTextDocument>> future = new CompletableFuture<>();
+        CompletableFuture<List<ScoredTextDocument>> running = pending.putIfAbsent(pendingKey, future);
+        if (running != null) {
+            collapsed.incrementAndGet();
+            return copy(running.join());
+        }
+        misses.incrementAndGet();
+        try {
+            List<ScoredTextDocument> results = copy(searcher.search(normalized));
+            synchronized (entries) {
+                if (generation == searchGeneration) {
+                    put(key, new Entry(results, ENTRY_BYTES + 2L * key.length() + RESULT_BYTES * results.size()));
+                }
+            }
+            future.complete(results);
+            return copy(results);
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            pending.remove(pendingKey, future);
+        }
+    }
+
+    /**
+     * Returns a query with its terms separated by a single space.
+     */
+    private static String normalize(String query) {
+        return String.join(" ", query.trim().split("\\s+"));
+    }
+
+    /**
+     * Returns the key of a normalized query with the type of the searcher and
+     * the current maximum number of results.
+     */
+    private String getKey(String normalized) {
+        return searcher.getClass().getName() + '\u0000' + TOP_RESULTS_NUMBER + '\u0000' + normalized;
+    }
+
+    /**
+     * Returns a copy of a list of results, so that callers cannot change the
+     * cached ones.
+     */
+    private static List<ScoredTextDocument> copy(List<ScoredTextDocument> results) {
+        List<ScoredTextDocument> copy = new ArrayList<>(results.size());
+        for (ScoredTextDocument result : results) {
+            copy.add(new ScoredTextDocument(result.getDocID(), result.getScore()));
+        }
+        return copy;
+    }
+
+    /**
+     * Adds an entry, evicting the least recently used ones while the cache is
+     * over its bounds. Must be called holding the lock of the entries.
+     */
+    private void put(String key, Entry entry) {
+        if (entry.bytes > maxBytes || maxEntries <= 0) {
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        bytes += entry.bytes;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            bytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Empties the cache. Must be called holding the lock of the entries.
+     */
+    private void invalidate() {
+        if (!entries.isEmpty()) {
+            invalidations.incrementAndGet();
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Empties the cache, for instance after changing the cached searcher.
+     */
+    public void clear() {
+        synchronized (entries) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Sets the maximum number of results to retrieve.
+     *
+     * @param topResultsNumber Maximum number of results to retrieve.
+     */
+    @Override
+    public void setTopResultsNumber(int topResultsNumber) {
+        this.TOP_RESULTS_NUMBER = topResultsNumber;
+        searcher.setTopResultsNumber(topResultsNumber);
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     *
+     * @return the number of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of queries searched with the cached searcher.
+     *
+     * @return the number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of queries that waited for the same query searched
+     * by another thread.
+     *
+     * @return the number of collapsed misses.
+     */
+    public long getCollapsedMisses() {
+        return collapsed.get();
+    }
+
+    /**
+     * Returns the number of entries evicted to keep the cache in its bounds.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of times the cache was emptied because the index or
+     * the searcher changed.
+     *
+     * @return the number of invalidations.
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return the number of entries.
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the estimated memory used by the entries of the cache.
+     *
+     * @return the estimated memory in bytes.
+     */
+    public long getMemorySize() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Returns a summary of the metrics of the cache.
+     *
+     * @return a summary of the metrics of the cache.
+     */
+    public String getReport() {
+        long lookups = getHits() + getMisses() + getCollapsedMisses();
+        return String.format("Hits: %d (%.2f%%)\tMisses: %d\tCollapsed misses: %d\n"
+                + "Evictions: %d\tInvalidations: %d\tEntries: %d\tMemory: %d bytes",
+                getHits(), 100.0 * getHits() / Math.max(1, lookups), getMisses(), getCollapsedMisses(),
+                getEvictions(), getInvalidations(), getSize(), getMemorySize());
+    }
+
+    /**
+     * Results of a query and their estimated memory.
+     */
+    private static class Entry {
+
+        private final List<ScoredTextDocument> results;
+        private final long bytes;
+
+        private Entry(List<ScoredTextDocument> results, long bytes) {
+            this.results = results;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Main method for the caching searcher.
+     *
+     * Runs the queries of a file several times with a cached TF-IDF searcher,
+     * checks that the cached results are those of the searcher, and prints
+     * the search times and the metrics of the cache.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the index is stored, "queries_file": File with a query
+     * per line, as "id:query", "max_entries": Optionally, maximum number of
+     * entries of the cache.
+     */
+    public static void main(String[] args) {
+        // Top results
+        final int TOP = 10;
+        final int ROUNDS = 3;
+
+        // Input control
+        if (args.length < 2 || args.length > 3) {
+            System.err.printf("Usage: %s index_path queries_file [max_entries]\n"
+                    + "\tindex_path: Path to the directory where the index is stored.\n"
+                    + "\tqueries_file: File with a query per line, as id:query.\n"
+                    + "\tmax_entries: Maximum number of entries of the cache, %d by default.\n",
+                    CachingSearcher.class.getSimpleName(), DEFAULT_MAX_ENTRIES);
+            return;
+        }
+        int maxEntries = DEFAULT_MAX_ENTRIES;
+        if (args.length == 3) {
+            try {
+                maxEntries = Integer.parseInt(args[2]);
+            } catch (NumberFormatException ex) {
+                System.err.println(args[2] + ": not a number.");
+                return;
+            }
+        }
+
+        // Read the queries
+        TextParser parser = new BasicParser();
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader queriesReader = new BufferedReader(new FileReader(args[1]))) {
+            String line;
+            while ((line = queriesReader.readLine()) != null) {
+                queries.add(parser.parse(line.substring(line.indexOf(':') + 1)));
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        BasicIndex index = new BasicIndex();
+        index.load(args[0]);
+        if (!index.isLoaded()) {
+            return;
+        }
+        TFIDFSearcher exact = new TFIDFSearcher();
+        exact.build(index);
+        exact.setTopResultsNumber(TOP);
+        CachingSearcher searcher = new CachingSearcher(new TFIDFSearcher(), maxEntries, DEFAULT_MAX_BYTES);
+        searcher.build(index);
+        searcher.setTopResultsNumber(TOP);
+
+        // Every round but the first one is answered from the cache, if big
+        // enough.
+        int mismatches = 0;
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String query : queries) {
+                searcher.search(query);
+            }
+            long end = System.nanoTime();
+            System.out.println("Round " + round + ": " + (end - start) / 1e6 + " milliseconds");
+        }
+        for (String query : queries) {
+            List<ScoredTextDocument> cached = searcher.search(query);
+            List<ScoredTextDocument> results = exact.search(query);
+            boolean same = cached.size() == results.size();
+            for (int i = 0; same && i < cached.size(); i++) {
+                same = cached.get(i).getDocID() == results.get(i).getDocID()
+                        && cached.get(i).getScore() == results.get(i).getScore();
+            }
+            if (!same) {
+                mismatches++;
+            }
+        }
+        System.out.println(searcher.getReport());
+        System.out.println("Queries with results different from the searcher: " + mismatches);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.indexing.LocalShard;
+import es.uam.eps.bmi.search.indexing.Shard;
+import es.uam.eps.bmi.search.indexing.ShardedIndex;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import es.uam.eps.bmi.util.MinHeap;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * TF-IDF searcher for a <code>ShardedIndex</code>. The idf of the query terms
+ * is computed with the statistics of the whole collection and every shard is
+ * searched in parallel for its own top results, with the same scores
+ * <code>TFIDFSearcher</code> gives to a single index. The top results of the
+ * shards are then merged into the global top results.<br>
+ * With any other index, the index is searched as a single shard.<br>
+ * The shards and the size of the collection are read from the index with
+ * every query, so the searcher keeps working after the index is loaded again.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class FederatedSearcher implements Searcher {
+
+    /* Default time to wait for the results of the shards, in milliseconds */
+    private static final long DEFAULT_SEARCH_TIMEOUT = 60 * 1000;
+
+    // Maximum number of results to retrieve.
+    private int TOP_RESULTS_NUMBER = 5;
+    /* Time to wait for the results of the shards, in milliseconds */
+    private long searchTimeout = DEFAULT_SEARCH_TIMEOUT;
+
+    // Index used to search
+    private Index index;
+    /* Shard searched when the index is not sharded */
+    private LocalShard localShard;
+    /* Threads searching the shards */
+    private ExecutorService executor;
+
+    /**
+     * Creates a searcher using the given index.
+     *
+     * @param index Index used to create the searcher, must be loaded.
+     */
+    @Override
+    public void build(Index index) {
+        close();
+        this.index = index;
+        this.localShard = null;
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "shard-searcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets the time to wait for the results of the shards of a query. Once it
+     * has passed, the search fails.
+     *
+     * @param searchTimeout time to wait, in milliseconds.
+     */
+    public void setSearchTimeout(long searchTimeout) {
+        this.searchTimeout = searchTimeout;
+    }
+
+    /**
+     * Returns the shards currently open by the index, or a single shard
+     * holding the whole index if it is not sharded. That shard is created
+     * again if the number of documents of the index has changed.
+     */
+    private synchronized List<Shard> getShards() {
+        if (index instanceof ShardedIndex) {
+            return ((ShardedIndex) index).getShards();
+        }
+        if (localShard == null || localShard.getDocumentsCount() != index.getDocsCount()) {
+            localShard = new LocalShard(index);
+        }
+        return Collections.singletonList(localShard);
+    }
+
+    /**
+     * Returns a ranking of documents sorted by the score value. Results are
+     * never partial: if a shard cannot be searched, the search fails.
+     *
+     * @param query String query used to search.
+     * @return a ranking of documents sorted by the decrementing score value.
+     * @throws IllegalStateException if any shard cannot be searched, with the
+     * exception of the shard as its cause, or does not answer in time.
+     */
+    @Override
+    public List<ScoredTextDocument> search(String query) {
+        List<Shard> shards = getShards();
+        int[] docIdBases = new int[shards.size()];
+        if (index instanceof ShardedIndex) {
+            for (int shard = 0; shard < shards.size(); shard++) {
+                docIdBases[shard] = ((ShardedIndex) index).getDocId(shard, 0);
+            }
+        }
+        double docsCount = index.getDocsCount();
+
+        // Separate the query string by spaces
+        String[] terms = query.split(" ");
+        double[] idfs = new double[terms.length];
+        for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
+            int df = index.getTermDocFrequency(terms[termIndex]);
+            idfs[termIndex] = df > 0 ? Math.log(docsCount / df) / Math.log(2) : 0;
+        }
+
+        // Search every shard.
+        final int top = TOP_RESULTS_NUMBER;
+        List<Future<List<ScoredTextDocument>>> futures = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            futures.add(executor.submit(() -> shard.search(terms, idfs, top)));
+        }
+
+        // Merge the results, offered in global docId order.
+        List<ScoredTextDocument> merged = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(searchTimeout);
+        for (int shard = 0; shard < futures.size(); shard++) {
+            try {
+                List<ScoredTextDocument> results = futures.get(shard).get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                for (ScoredTextDocument result : results) {
+                    merged.add(new ScoredTextDocument(docIdBases[shard] + result.getDocID(), result.getScore()));
+                }
+            } catch (ExecutionException ex) {
+                cancel(futures);
+                throw new IllegalStateException("Shard " + shard + " could not be searched: "
+                        + ex.getCause().getClass().getSimpleName() + ": " + ex.getCause().getMessage(), ex.getCause());
+            } catch (TimeoutException ex) {
+                cancel(futures);
+                throw new IllegalStateException("Shard " + shard + " did not answer in " + searchTimeout + " milliseconds");
+            } catch (InterruptedException ex) {
+                cancel(futures);
+                Thread.currentThread().interrupt();
+                return new ArrayList<>();
+            }
+        }
+        merged.sort((a, b) -> Integer.compare(a.getDocID(), b.getDocID()));
+        MinHeap<ScoredTextDocument> minHeap = new MinHeap<>(top);
+        for (ScoredTextDocument result : merged) {
+            minHeap.add(result);
+        }
+        List<ScoredTextDocument> result = minHeap.asList();
+        Collections.sort(result, Collections.reverseOrder());
+        return result;
+    }
+
+    /**
+     * Cancels the searches of the shards still running.
+     */
+    private static void cancel(List<Future<List<ScoredTextDocument>>> futures) {
+        for (Future<List<ScoredTextDocument>> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Sets the maximum number of results to retrieve.
+     *
+     * @param topResultsNumber Maximum number of results to retrieve.
+     */
+    @Override
+    public void setTopResultsNumber(int topResultsNumber) {
+        this.TOP_RESULTS_NUMBER = topResultsNumber;
+    }
+
+    /**
+     * Stops the threads searching the shards. The shards themselves are closed
+     * with their index.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Main method for federated searcher.
+     *
+     * Runs the queries of a file with a sharded index and prints the top
+     * results of every query and the mean search time.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the sharded index is stored, "queries_file": File with a
+     * query per line, as "id:query", "-workers": Optionally, serve every shard
+     * from its own JVM.
+     */
+    public static void main(String[] args) {
+        // Top results
+        final int TOP = 10;
+
+        // Input control
+        if (args.length < 2 || args.length > 3 || (args.length == 3 && !args[2].equals("-workers"))) {
+            System.err.printf("Usage: %s index_path queries_file [-workers]\n"
+                    + "\tindex_path: Path to the directory where the sharded index is stored.\n"
+                    + "\tqueries_file: File with a query per line, as id:query.\n"
+                    + "\t-workers: Serve every shard from its own JVM.\n",
+                    FederatedSearcher.class.getSimpleName());
+            return;
+        }
+
+        // Read the queries
+        TextParser parser = new BasicParser();
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader queriesReader = new BufferedReader(new FileReader(args[1]))) {
+            String line;
+            while ((line = queriesReader.readLine()) != null) {
+                queries.add(line);
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        ShardedIndex index = new ShardedIndex();
+        index.setWorkers(args.length == 3, Arrays.asList("-Xmx256m"));
+        long start = System.nanoTime();
+        index.load(args[0]);
+        if (!index.isLoaded()) {
+            return;
+        }
+        System.out.println("Shards loaded in " + (System.nanoTime() - start) / 1e6 + " milliseconds");
+        FederatedSearcher searcher = new FederatedSearcher();
+        searcher.build(index);
+        searcher.setTopResultsNumber(TOP);
+
+        long elapsed = 0;
+        for (String line : queries) {
+            String query = parser.parse(line.substring(line.indexOf(':') + 1));
+            start = System.nanoTime();
+            List<ScoredTextDocument> results;
+            try {
+                results = searcher.search(query);
+            } catch (IllegalStateException ex) {
+                System.err.println(line + ": " + ex.getMessage());
+                continue;
+            }
+            elapsed += System.nanoTime() - start;
+            System.out.println(line);
+            for (ScoredTextDocument result : results) {
+                System.out.printf("\t%d\t%.6f\t%s\n", result.getDocID(), result.getScore(),
+                        index.getDocument(result.getDocID()).getName());
+            }
+        }
+        System.out.println("Mean search time: " + elapsed / 1e6 / Math.max(1, queries.size()) + " milliseconds");
+        searcher.close();
+        index.close();
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.indexing.BasicIndex;
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * IndexHolder class. Holds the index being served, with a searcher built for
+ * it, and replaces them with a new index without stopping the queries:
+ * <ul>
+ * <li>The new index is loaded, and optionally warmed up with an
+ * <code>IndexWarmer</code>, in a background thread.</li>
+ * <li>Once ready, it replaces the old one atomically: queries started after
+ * the swap use the new index.</li>
+ * <li>Queries take a reference to the snapshot they start with, so they
+ * finish with the old index.</li>
+ * <li>The files of the old index are closed when the last query using it
+ * releases its reference.</li>
+ * </ul>
+ * Searchers are not thread-safe, so the queries of a snapshot are run one at
+ * a time.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class IndexHolder {
+
+    /* Factories of the indexes and searchers of the snapshots */
+    private final Supplier<Index> indexFactory;
+    private final Supplier<Searcher> searcherFactory;
+    /* Maximum number of results of the searchers */
+    private int topResultsNumber = 5;
+
+    /* Warm-up of new snapshots, null to serve them cold */
+    private IndexWarmer warmer = null;
+    private long warmerMemoryBudget = IndexWarmer.DEFAULT_MEMORY_BUDGET;
+    private int warmerQueries = IndexWarmer.DEFAULT_WARMUP_QUERIES;
+
+    /* Snapshot being served, null if none */
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    /* Thread loading new snapshots */
+    private final ExecutorService loader = Executors.newSingleThreadExecutor((Runnable r) -> {
+        Thread thread = new Thread(r, IndexHolder.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Default constructor.
+     *
+     * @param indexFactory creates the index of every snapshot, not loaded.
+     * @param searcherFactory creates the searcher of every snapshot, not
+     * built.
+     */
+    public IndexHolder(Supplier<Index> indexFactory, Supplier<Searcher> searcherFactory) {
+        this.indexFactory = indexFactory;
+        this.searcherFactory = searcherFactory;
+    }
+
+    /**
+     * Sets the maximum number of results of the searchers of the next
+     * snapshots.
+     *
+     * @param topResultsNumber Maximum number of results to retrieve.
+     */
+    public void setTopResultsNumber(int topResultsNumber) {
+        this.topResultsNumber = topResultsNumber;
+    }
+
+    /**
+     * Warms up the next snapshots before serving them: the postings of the
+     * most useful terms of the log of the warmer are pinned, if the index is a
+     * <code>BasicIndex</code>, and synthetic queries are run.
+     *
+     * @param warmer warmer with a query log read, null to disable warm-up.
+     * @param memoryBudget maximum memory used by the pinned postings.
+     * @param maxQueries maximum number of synthetic queries run.
+     */
+    public void setWarmer(IndexWarmer warmer, long memoryBudget, int maxQueries) {
+        this.warmer = warmer;
+        this.warmerMemoryBudget = memoryBudget;
+        this.warmerQueries = maxQueries;
+    }
+
+    /**
+     * Loads an index and serves it, in the calling thread.
+     *
+     * @param indexPath Path to the directory where the index is stored.
+     * @return true if the index was loaded, false if it could not be loaded
+     * and the previous one is still served.
+     */
+    public boolean load(String indexPath) {
+        Snapshot snapshot = open(indexPath);
+        if (snapshot == null) {
+            return false;
+        }
+        Snapshot old = current.getAndSet(snapshot);
+        if (old != null) {
+            old.release();
+        }
+        return true;
+    }
+
+    /**
+     * Loads an index in the background and serves it once it is ready.
+     * Reloads are done one after the other, in the order they are asked.
+     *
+     * @param indexPath Path to the directory where the index is stored.
+     * @return a future with the result of <code>load</code>.
+     */
+    public Future<Boolean> reload(String indexPath) {
+        return loader.submit(() -> load(indexPath));
+    }
+
+    /**
+     * Opens a new snapshot.
+     *
+     * @return the snapshot, null if the index could not be loaded.
+     */
+    private Snapshot open(String indexPath) {
+        Index index = indexFactory.get();
+        index.load(indexPath);
+        if (!index.isLoaded()) {
+            return null;
+        }
+        Searcher searcher = searcherFactory.get();
+        searcher.build(index);
+        searcher.setTopResultsNumber(topResultsNumber);
+        if (warmer != null) {
+            if (index instanceof BasicIndex) {
+                warmer.pinPostings((BasicIndex) index, warmerMemoryBudget);
+            }
+            warmer.warmUp(searcher, warmerQueries);
+        }
+        return new Snapshot(indexPath, index, searcher);
+    }
+
+    /**
+     * Returns the snapshot being served, with a reference taken. The caller
+     * must release it when done.
+     *
+     * @return the snapshot being served, null if there is none.
+     */
+    public Snapshot acquire() {
+        while (true) {
+            Snapshot snapshot = current.get();
+            if (snapshot == null || snapshot.retain()) {
+                return snapshot;
+            }
+            // The snapshot was released while being taken, so it has been
+            // replaced: try again with the new one.
+        }
+    }
+
+    /**
+     * Runs a query with the snapshot being served.
+     *
+     * @param query String query used to search.
+     * @return a ranking of documents sorted by the decrementing score value,
+     * null if no index is served.
+     */
+    public List<ScoredTextDocument> search(String query) {
+        Snapshot snapshot = acquire();
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return snapshot.search(query);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Stops serving the current snapshot, whose files are closed once the
+     * queries using it finish, and stops the background thread.
+     */
+    public void close() {
+        loader.shutdown();
+        Snapshot old = current.getAndSet(null);
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    /**
+     * An index being served and the searcher built for it. The holder keeps a
+     * reference while the snapshot is served and every query takes another
+     * one; the index is closed when there are no references left.
+     */
+    public static class Snapshot {
+
+        private final String path;
+        private final Index index;
+        private final Searcher searcher;
+        /* Number of references, 0 once closed */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Snapshot(String path, Index index, Searcher searcher) {
+            this.path = path;
+            this.index = index;
+            this.searcher = searcher;
+        }
+
+        /**
+         * Returns the path of the index of the snapshot.
+         *
+         * @return the path of the index.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the index of the snapshot.
+         *
+         * @return the index of the snapshot.
+         */
+        public Index getIndex() {
+            return index;
+        }
+
+        /**
+         * Runs a query with the searcher of the snapshot.
+         *
+         * @param query String query used to search.
+         * @return a ranking of documents sorted by the decrementing score
+         * value.
+         */
+        public List<ScoredTextDocument> search(String query) {
+            synchronized (searcher) {
+                return searcher.search(query);
+            }
+        }
+
+        /**
+         * Takes a reference, unless the snapshot is already closed.
+         *
+         * @return true if the reference was taken.
+         */
+        private boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Releases a reference, closing the index if it was the last one.
+         */
+        public void release() {
+            if (references.decrementAndGet() == 0 && index instanceof BasicIndex) {
+                ((BasicIndex) index).close();
+            }
+        }
+    }
+
+    /**
+     * Main method for the index holder.
+     *
+     * Runs the queries of a file over and over in a thread while the index is
+     * reloaded in the background, alternating between two basic indexes which
+     * are warmed up with the same queries, and prints the latencies of the
+     * queries.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the index is stored, "queries_file": File with a query
+     * per line, as "id:query", "other_index_path": Optionally, path to a
+     * second index to alternate with, "reloads": Optionally, number of
+     * reloads, 10 by default.
+     */
+    public static void main(String[] args) {
+        // Input control
+        if (args.length < 2 || args.length > 4) {
+            System.err.printf("Usage: %s index_path queries_file [other_index_path] [reloads]\n"
+                    + "\tindex_path: Path to the directory where the index is stored.\n"
+                    + "\tqueries_file: File with a query per line, as id:query.\n"
+                    + "\tother_index_path: Index to alternate with, the same one by default.\n"
+                    + "\treloads: Number of reloads, 10 by default.\n",
+                    IndexHolder.class.getSimpleName());
+            return;
+        }
+        String[] paths = {args[0], args.length > 2 ? args[2] : args[0]};
+        int reloads = 10;
+        if (args.length > 3) {
+            try {
+                reloads = Integer.parseInt(args[3]);
+            } catch (NumberFormatException ex) {
+                System.err.println(args[3] + ": not a number.");
+                return;
+            }
+        }
+
+        // Read the queries
+        TextParser parser = new BasicParser();
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader queriesReader = new BufferedReader(new FileReader(args[1]))) {
+            String line;
+            while ((line = queriesReader.readLine()) != null) {
+                queries.add(parser.parse(line.substring(line.indexOf(':') + 1)));
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        // New snapshots are warmed up with the same queries.
+        IndexWarmer warmer = new IndexWarmer(parser);
+        try {
+            warmer.readQueryLog(args[1]);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+        IndexHolder holder = new IndexHolder(BasicIndex::new, TFIDFSearcher::new);
+        holder.setWarmer(warmer, IndexWarmer.DEFAULT_MEMORY_BUDGET, IndexWarmer.DEFAULT_WARMUP_QUERIES);
+        if (!holder.load(paths[0])) {
+            return;
+        }
+
+        // Query traffic
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Long> latencies = new ArrayList<>();
+        AtomicInteger failed = new AtomicInteger();
+        Thread traffic = new Thread(() -> {
+            for (int i = 0; running.get(); i = (i + 1) % queries.size()) {
+                long start = System.nanoTime();
+                if (holder.search(queries.get(i)) == null) {
+                    failed.incrementAndGet();
+                }
+                latencies.add(System.nanoTime() - start);
+            }
+        });
+        traffic.start();
+
+        // Reloads
+        long start = System.nanoTime();
+        try {
+            for (int i = 1; i <= reloads; i++) {
+                if (!holder.reload(paths[i % 2]).get()) {
+                    failed.incrementAndGet();
+                }
+            }
+            running.set(false);
+            traffic.join();
+        } catch (InterruptedException | ExecutionException ex) {
+            System.err.println("Exception caught while reloading the index: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+        long end = System.nanoTime();
+        holder.close();
+
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        System.out.println(reloads + " reloads in " + (end - start) / 1e6 + " milliseconds");
+        System.out.println("Queries: " + sorted.length + "\tFailed: " + failed.get());
+        if (sorted.length > 0) {
+            System.out.printf("Latency p50: %.3f ms\tp99: %.3f ms\tmax: %.3f ms\n", sorted[sorted.length / 2] / 1e6,
+                    sorted[(int) (sorted.length * 0.99)] / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.indexing.BasicIndex;
+import es.uam.eps.bmi.search.indexing.IndexReader;
+import es.uam.eps.bmi.search.indexing.Posting;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * IndexWarmer class. Prepares a freshly loaded index and searcher to take
+ * queries, using a log of past queries:
+ * <ol>
+ * <li>Terms are ranked by the benefit of keeping their postings decoded in
+ * memory, which is their frequency in the log times their number of postings.
+ * The postings of the best ones are pinned in the index, within a memory
+ * budget.</li>
+ * <li>Synthetic queries, made of queries and terms of the log, are run with
+ * the searcher in batches until the mean latency of the batches becomes
+ * steady, so that the JIT compiler has optimized the search code before the
+ * first real query arrives.</li>
+ * </ol>
+ * Lines of the log are queries, optionally preceded by a numeric id and a
+ * colon as in the queries file of the collection.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class IndexWarmer {
+
+    /* Default memory budget of the pinned postings */
+    public static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024; //64MB
+    /* Default maximum number of synthetic queries run */
+    public static final int DEFAULT_WARMUP_QUERIES = 5000;
+
+    /* Number of queries of every batch of the warm-up */
+    private static final int BATCH_SIZE = 100;
+    /* Latency is steady when the means of this number of consecutive batches
+        differ less than STEADY_TOLERANCE from their mean */
+    private static final int STEADY_BATCHES = 3;
+    private static final double STEADY_TOLERANCE = 0.1;
+    /* Seed of the synthetic queries, so that warm-ups can be compared */
+    private static final long SEED = 0;
+
+    /* Parser used to parse the queries of the log */
+    private final TextParser parser;
+    /* Queries of the log, parsed */
+    private final List<String> queries = new ArrayList<>();
+    /* Number of times every term appears in the log */
+    private final HashMap<String, Integer> termFrequencies = new HashMap<>();
+
+    /* Mean latency of every batch of the last warm-up, in milliseconds */
+    private final List<Double> batchLatencies = new ArrayList<>();
+    /* Batch in which latency became steady in the last warm-up, -1 if never */
+    private int steadyBatch = -1;
+
+    /**
+     * Default constructor.
+     *
+     * @param parser parser used to parse the queries of the log, the same
+     * used to build the index.
+     */
+    public IndexWarmer(TextParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Reads a query log.
+     *
+     * @param path path to the log.
+     * @throws java.io.IOException
+     */
+    public void readQueryLog(String path) throws IOException {
+        try (BufferedReader logReader = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = logReader.readLine()) != null) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().matches("\\d+")) {
+                    line = line.substring(colon + 1);
+                }
+                String query = parser.parse(line).trim();
+                if (query.isEmpty()) {
+                    continue;
+                }
+                queries.add(query);
+                for (String term : query.split(" ")) {
+                    termFrequencies.merge(term, 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of queries read from logs.
+     *
+     * @return the number of queries read.
+     */
+    public int getQueriesCount() {
+        return queries.size();
+    }
+
+    /**
+     * Pins in memory the postings of the terms of the log with the highest
+     * benefit, their frequency in the log times their number of postings, as
+     * long as they fit in the memory budget.
+     *
+     * @param index index to warm up, must be loaded.
+     * @param memoryBudget maximum memory used by the pinned postings, in
+     * bytes.
+     * @return the number of terms pinned.
+     */
+    public int pinPostings(BasicIndex index, long memoryBudget) {
+        // Benefit and size of every term, looked up in order so that
+        // consecutive terms are read from the same blocks of the index.
+        List<String> terms = new ArrayList<>(termFrequencies.keySet());
+        Collections.sort(terms);
+        List<String> candidates = new ArrayList<>();
+        HashMap<String, Long> benefits = new HashMap<>();
+        HashMap<String, Long> sizes = new HashMap<>();
+        for (String term : terms) {
+            List<Posting> postings = index.getTermPostings(term);
+            if (postings == null || postings.isEmpty()) {
+                continue;
+            }
+            candidates.add(term);
+            benefits.put(term, (long) termFrequencies.get(term) * postings.size());
+            sizes.put(term, IndexReader.getMemorySize(postings));
+        }
+        Collections.sort(candidates, (String t1, String t2) -> Long.compare(benefits.get(t2), benefits.get(t1)));
+
+        // Pin the best terms that fit.
+        int pinned = 0;
+        long used = index.getPinnedSize();
+        for (String term : candidates) {
+            if (used + sizes.get(term) > memoryBudget) {
+                continue;
+            }
+            long size = index.pinTermPostings(term);
+            if (size > 0) {
+                used += size;
+                pinned++;
+            }
+        }
+        return pinned;
+    }
+
+    /**
+     * Runs synthetic queries with a searcher, in batches, until the mean
+     * latency of the batches is steady or the maximum number of queries is
+     * reached. Half of the queries are taken from the log, the other half are
+     * made of two or three random terms of the log.
+     *
+     * @param searcher searcher to warm up, already built.
+     * @param maxQueries maximum number of queries to run.
+     * @return the number of queries run.
+     */
+    public int warmUp(Searcher searcher, int maxQueries) {
+        batchLatencies.clear();
+        steadyBatch = -1;
+        if (queries.isEmpty()) {
+            return 0;
+        }
+        List<String> terms = new ArrayList<>(termFrequencies.keySet());
+        Collections.sort(terms);
+        Random random = new Random(SEED);
+
+        int run = 0;
+        while (run < maxQueries && steadyBatch < 0) {
+            long start = System.nanoTime();
+            int batch;
+            for (batch = 0; batch < BATCH_SIZE && run < maxQueries; batch++, run++) {
+                String query;
+                if (random.nextBoolean()) {
+                    query = queries.get(random.nextInt(queries.size()));
+                } else {
+                    int length = 2 + random.nextInt(2);
+                    StringBuilder sb = new StringBuilder(terms.get(random.nextInt(terms.size())));
+                    for (int i = 1; i < length; i++) {
+                        sb.append(' ').append(terms.get(random.nextInt(terms.size())));
+                    }
+                    query = sb.toString();
+                }
+                searcher.search(query);
+            }
+            batchLatencies.add((System.nanoTime() - start) / 1e6 / batch);
+            if (isSteady()) {
+                steadyBatch = batchLatencies.size() - 1;
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Returns true if the last <code>STEADY_BATCHES</code> batches have
+     * similar mean latencies.
+     */
+    private boolean isSteady() {
+        int size = batchLatencies.size();
+        if (size < STEADY_BATCHES) {
+            return false;
+        }
+        double mean = 0;
+        for (int i = size - STEADY_BATCHES; i < size; i++) {
+            mean += batchLatencies.get(i) / STEADY_BATCHES;
+        }
+        for (int i = size - STEADY_BATCHES; i < size; i++) {
+            if (Math.abs(batchLatencies.get(i) - mean) > STEADY_TOLERANCE * mean) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the mean latency of every batch of queries of the last
+     * warm-up.
+     *
+     * @return the mean latencies of the batches, in milliseconds.
+     */
+    public List<Double> getBatchLatencies() {
+        return batchLatencies;
+    }
+
+    /**
+     * Returns the batch of the last warm-up in which latency became steady.
+     *
+     * @return the index of the batch, -1 if latency did not become steady.
+     */
+    public int getSteadyBatch() {
+        return steadyBatch;
+    }
+
+    /**
+     * Main method for the index warmer.
+     *
+     * Loads a basic index, warms it up with a query log and a TF-IDF searcher,
+     * and reports the time taken by every step and the latencies reached.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the index is stored, "query_log": File with a query per
+     * line, "budget": Optionally, memory for pinned postings in MB,
+     * "max_queries": Optionally, maximum number of synthetic queries.
+     */
+    public static void main(String[] args) {
+        // Input control
+        if (args.length < 2 || args.length > 4) {
+            System.err.printf("Usage: %s index_path query_log [budget] [max_queries]\n"
+                    + "\tindex_path: Path to the directory where the index is stored.\n"
+                    + "\tquery_log: File with a query per line, optionally as id:query.\n"
+                    + "\tbudget: Memory for pinned postings in MB, %d by default.\n"
+                    + "\tmax_queries: Maximum number of synthetic queries, %d by default.\n",
+                    IndexWarmer.class.getSimpleName(), DEFAULT_MEMORY_BUDGET / (1024 * 1024), DEFAULT_WARMUP_QUERIES);
+            return;
+        }
+        long memoryBudget = DEFAULT_MEMORY_BUDGET;
+        int maxQueries = DEFAULT_WARMUP_QUERIES;
+        try {
+            if (args.length > 2) {
+                memoryBudget = Long.parseLong(args[2]) * 1024 * 1024;
+            }
+            if (args.length > 3) {
+                maxQueries = Integer.parseInt(args[3]);
+            }
+        } catch (NumberFormatException ex) {
+            System.err.println(ex.getMessage() + ": not a number.");
+            return;
+        }
+
+        long start = System.nanoTime();
+        BasicIndex index = new BasicIndex();
+        index.load(args[0]);
+        if (!index.isLoaded()) {
+            return;
+        }
+        long loaded = System.nanoTime();
+
+        IndexWarmer warmer = new IndexWarmer(new BasicParser());
+        try {
+            warmer.readQueryLog(args[1]);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+        int pinned = warmer.pinPostings(index, memoryBudget);
+        long cached = System.nanoTime();
+
+        TFIDFSearcher searcher = new TFIDFSearcher();
+        searcher.build(index);
+        int run = warmer.warmUp(searcher, maxQueries);
+        long warm = System.nanoTime();
+
+        List<Double> latencies = warmer.getBatchLatencies();
+        System.out.println("Index loaded in " + (loaded - start) / 1e6 + " milliseconds");
+        System.out.printf("Pinned %d terms (%.2f MB) from %d logged queries in %.3f milliseconds\n",
+                pinned, index.getPinnedSize() / (1024.0 * 1024.0), warmer.getQueriesCount(), (cached - loaded) / 1e6);
+        System.out.println("Warm-up: " + run + " queries in " + (warm - cached) / 1e6 + " milliseconds");
+        if (!latencies.isEmpty()) {
+            System.out.println("Mean latency of the first batch: " + latencies.get(0) + " milliseconds");
+            System.out.println("Mean latency of the last batch: " + latencies.get(latencies.size() - 1) + " milliseconds");
+        }
+        if (warmer.getSteadyBatch() >= 0) {
+            System.out.println("Steady latency after " + (warmer.getSteadyBatch() + 1) * BATCH_SIZE + " queries");
+        } else {
+            System.out.println("Latency was not steady after " + run + " queries");
+        }
+        System.out.println("Ready to take queries " + (warm - start) / 1e6 + " milliseconds after start");
+    }
+}
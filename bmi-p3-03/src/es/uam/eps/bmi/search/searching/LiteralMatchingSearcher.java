@@ -22,6 +22,7 @@ import es.uam.eps.bmi.search.indexing.BasicIndex;
 import es.uam.eps.bmi.search.indexing.Index;
 import es.uam.eps.bmi.search.indexing.IndexBuilder;
 import es.uam.eps.bmi.search.indexing.Posting;
+import es.uam.eps.bmi.search.indexing.PostingList;
 import es.uam.eps.bmi.search.parsing.BasicParser;
 import es.uam.eps.bmi.search.parsing.TextParser;
 import java.io.BufferedReader;
@@ -62,7 +63,9 @@ public class LiteralMatchingSearcher implements Searcher {
     private Index index;
 
     /**
-     * Creates a searcher using the given index.
+     * Creates a searcher using the given index. Literal matching needs term
+     * positions: with an index that does not store them, every search returns
+     * an empty list.
      *
      * @param index Index used to create the searcher, must be loaded.
      */
@@ -70,6 +73,9 @@ public class LiteralMatchingSearcher implements Searcher {
     public void build(Index index) {
         // Store the index object.
         this.index = index;
+        if (!index.getLayout().hasPositions()) {
+            System.err.println("Index layout " + index.getLayout() + " has no positions, literal matching is not possible");
+        }
     }
 
     /**
@@ -83,29 +89,18 @@ public class LiteralMatchingSearcher implements Searcher {
         // Separate the query string by spaces
         String[] terms = query.split(" ");
 
-        // If no terms, return an empty string.
-        if (terms.length == 0) {
-            return new ArrayList<>();
-        }
-
-        // Final list of terms
-        List<Posting> finalPostingList = index.getTermPostings(terms[0]);
-        if (finalPostingList == null || finalPostingList.isEmpty()) {
+        // If no terms or no positions, return an empty list.
+        if (terms.length == 0 || !index.getLayout().hasPositions()) {
             return new ArrayList<>();
         }
 
-        if (terms.length > 0) {
-            terms = Arrays.copyOfRange(terms, 1, terms.length);
+        // Final list of terms, from the biword index if the index has one.
+        PostingList finalPostingList = terms.length > 1 ? getBiwordPhrasePostings(terms) : null;
+        if (finalPostingList == null) {
+            finalPostingList = getPhrasePostings(terms);
         }
-
-        // Iterate the terms
-        for (String term : terms) {
-            List<Posting> nextPostingList = index.getTermPostings(term);
-            if (finalPostingList != null && nextPostingList != null && !finalPostingList.isEmpty() && !nextPostingList.isEmpty()) {
-                finalPostingList = concatPostings(finalPostingList, nextPostingList);
-            } else {
-                return new ArrayList<>();
-            }
+        if (finalPostingList.isEmpty()) {
+            return new ArrayList<>();
         }
 
         // Build the list of results
@@ -114,13 +109,13 @@ public class LiteralMatchingSearcher implements Searcher {
         int docsCount = index.getDocIds().size();
 
         // Compute the score of each document
-        for (Posting posting : finalPostingList) {
+        for (int p = 0; p < sentenceDocsCount; p++) {
             // Get document attributes
-            int docID = posting.getDocID();
+            int docID = finalPostingList.getDocID(p);
             double docMod = index.getDocModule(docID);
 
             // Get term attributes
-            int sentenceFrequency = posting.getTermFrequency();
+            int sentenceFrequency = finalPostingList.getTermFrequency(p);
 
             // Compute the tf-idf
             double tf = 1 + (Math.log(sentenceFrequency) / Math.log(2));
@@ -142,54 +137,213 @@ public class LiteralMatchingSearcher implements Searcher {
     }
 
     /**
-     * Takes <code>previousPostingList</code> and find postings in
-     * <code>currentPostingsList</code> having the same document ID and
-     * consecutive positions
+     * Returns the postings of a phrase, built from the postings of its terms.
+     * The lists of the terms are intersected starting from the one with the
+     * fewest documents, skipping ahead in the others, and positions are only
+     * checked in the documents containing every term: the positions of every
+     * term minus its offset in the phrase are the possible starts of the
+     * phrase, which are intersected with linear merges. Every returned
+     * posting has the positions of the last term of the phrase.
      *
-     * The postings must be sorted by document ID, and the list of positions
-     * must be sorted too.
-     *
-     * @param previousPostingList First list of postings.
-     * @param currentPostingsList Second list of postings in which to find the
-     * postings with same document ID and consecutive positions.
-     * @return A list filled with the found postings.
+     * @param terms terms of the phrase.
+     * @return a list of the postings of the phrase, empty if it does not
+     * occur.
      */
-    private List<Posting> concatPostings(List<Posting> previousPostingList, List<Posting> currentPostingsList) {
+    private PostingList getPhrasePostings(String[] terms) {
+        PostingList[] termPostings = new PostingList[terms.length];
+        Integer[] order = new Integer[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            termPostings[i] = PostingList.of(index.getTermPostings(terms[i]));
+            if (termPostings[i] == null || termPostings[i].isEmpty()) {
+                return PostingList.of(new ArrayList<>());
+            }
+            order[i] = i;
+        }
+        if (terms.length == 1) {
+            return termPostings[0];
+        }
+        Arrays.sort(order, (Integer i1, Integer i2) -> {
+            return Integer.compare(termPostings[i1].size(), termPostings[i2].size());
+        });
+
         // Result list.
         List<Posting> resultPostings = new ArrayList<>();
+        int last = terms.length - 1;
+        int[] cursors = new int[terms.length];
+        int[] starts = null;
+        int[] positions = null;
+
+        // Iterate the documents of the rarest term.
+        PostingList rarest = termPostings[order[0]];
+        for (int candidate = 0; candidate < rarest.size(); candidate++) {
+            int docID = rarest.getDocID(candidate);
+            boolean found = true;
+            for (int k = 1; k < terms.length && found; k++) {
+                int i = order[k];
+                cursors[i] = advance(termPostings[i], cursors[i], docID);
+                found = cursors[i] < termPostings[i].size() && termPostings[i].getDocID(cursors[i]) == docID;
+            }
+            if (!found) {
+                continue;
+            }
 
-        // Iterate the second list of postings.
-        for (Posting currPosting : currentPostingsList) {
-            // Search for an element with the same document ID.
-            int prevPostingPos = Collections.binarySearch(previousPostingList, currPosting, (Posting t1, Posting t2) -> {
-                return Integer.compare(t1.getDocID(), t2.getDocID());
-            });
-
-            // Check if found
-            if (prevPostingPos >= 0) {
-                Posting resultPosting = new Posting(currPosting.getTerm(), currPosting.getDocID(), new ArrayList<>());
-                Posting prevPosting = previousPostingList.get(prevPostingPos);
-
-                // Build the new posting.
-                for (int currPosition : currPosting.getTermPositions()) {
-                    for (int prevPosition : prevPosting.getTermPositions()) {
-                        if (currPosition == prevPosition + 1) {
-                            resultPosting.addPosition(currPosition);
-                        }
-                        if (currPosition <= prevPosition) {
-                            break;
-                        }
-                    }
+            // Starts of the phrase where the rarest term is, kept while the
+            // other terms are at their offsets from them.
+            int count = rarest.getPositionsCount(candidate);
+            starts = rarest.getPositions(candidate, starts);
+            for (int j = 0; j < count; j++) {
+                starts[j] -= order[0];
+            }
+            for (int k = 1; k < terms.length && count > 0; k++) {
+                int i = order[k];
+                positions = termPostings[i].getPositions(cursors[i], positions);
+                count = intersectStarts(starts, count, positions, termPostings[i].getPositionsCount(cursors[i]), i);
+            }
+
+            // Add the result posting in case that the phrase was found.
+            if (count > 0) {
+                Posting resultPosting = new Posting(terms[last], docID, new ArrayList<>(count));
+                for (int j = 0; j < count; j++) {
+                    resultPosting.addPosition(starts[j] + last);
                 }
+                resultPostings.add(resultPosting);
+            }
+        }
+        return PostingList.of(resultPostings);
+    }
+
+    /**
+     * Keeps the starts of a phrase at which a term of the phrase occurs at
+     * its offset, merging both sorted lists.
+     *
+     * @param starts sorted starts of the phrase, overwritten with the ones
+     * kept.
+     * @param count number of starts.
+     * @param positions sorted positions of the term in the document.
+     * @param size number of positions.
+     * @param offset offset of the term in the phrase.
+     * @return the number of starts kept, at the beginning of the array.
+     */
+    private static int intersectStarts(int[] starts, int count, int[] positions, int size, int offset) {
+        int kept = 0;
+        int p = 0;
+        for (int j = 0; j < count && p < size; j++) {
+            while (p < size && positions[p] - offset < starts[j]) {
+                p++;
+            }
+            if (p < size && positions[p] - offset == starts[j]) {
+                starts[kept++] = starts[j];
+            }
+        }
+        return kept;
+    }
 
-                // Add the result posting in case that the positions are consecutive.
-                if (resultPosting.getTermFrequency() > 0) {
-                    resultPostings.add(resultPosting);
+    /**
+     * Returns the postings of a phrase, built from the postings of its pairs
+     * of adjacent terms in the biword index. The lists of the pairs are
+     * intersected starting from the shortest one, and positions are only
+     * checked in the documents containing every pair. Every returned posting
+     * has the positions of the last term of the phrase.
+     *
+     * @param terms terms of the phrase, at least two.
+     * @return a list of the postings of the phrase, empty if it does not
+     * occur, or null if the index has no biword index.
+     */
+    private PostingList getBiwordPhrasePostings(String[] terms) {
+        int pairs = terms.length - 1;
+        PostingList[] pairPostings = new PostingList[pairs];
+        Integer[] order = new Integer[pairs];
+        for (int i = 0; i < pairs; i++) {
+            pairPostings[i] = PostingList.of(index.getBiwordPostings(terms[i], terms[i + 1]));
+            if (pairPostings[i] == null) {
+                return null;
+            }
+            if (pairPostings[i].isEmpty()) {
+                return PostingList.of(new ArrayList<>());
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, (Integer i1, Integer i2) -> {
+            return Integer.compare(pairPostings[i1].size(), pairPostings[i2].size());
+        });
+
+        // Result list.
+        List<Posting> resultPostings = new ArrayList<>();
+        int[] cursors = new int[pairs];
+        int[][] positions = new int[pairs][];
+
+        // Iterate the documents of the shortest list.
+        PostingList shortest = pairPostings[order[0]];
+        for (int candidate = 0; candidate < shortest.size(); candidate++) {
+            int docID = shortest.getDocID(candidate);
+            cursors[order[0]] = candidate;
+            boolean found = true;
+            for (int k = 1; k < pairs && found; k++) {
+                int i = order[k];
+                cursors[i] = advance(pairPostings[i], cursors[i], docID);
+                found = cursors[i] < pairPostings[i].size() && pairPostings[i].getDocID(cursors[i]) == docID;
+            }
+            if (!found) {
+                continue;
+            }
+
+            // The phrase starts where the first pair does and the i-th pair is
+            // i positions after it.
+            for (int i = 0; i < pairs; i++) {
+                positions[i] = pairPostings[i].getPositions(cursors[i], positions[i]);
+            }
+            Posting resultPosting = new Posting(terms[pairs], docID, new ArrayList<>());
+            int startsCount = pairPostings[0].getPositionsCount(cursors[0]);
+            for (int j = 0; j < startsCount; j++) {
+                int start = positions[0][j];
+                boolean phrase = true;
+                for (int i = 1; i < pairs && phrase; i++) {
+                    phrase = Arrays.binarySearch(positions[i], 0, pairPostings[i].getPositionsCount(cursors[i]), start + i) >= 0;
+                }
+                if (phrase) {
+                    resultPosting.addPosition(start + pairs);
                 }
             }
 
+            // Add the result posting in case that the phrase was found.
+            if (resultPosting.getTermFrequency() > 0) {
+                resultPostings.add(resultPosting);
+            }
+        }
+        return PostingList.of(resultPostings);
+    }
+
+    /**
+     * Returns the position of the first posting of a list sorted by document
+     * ID, from a given position on, whose document ID is not lower than the
+     * given one. Steps forward doubling the distance and then does a binary
+     * search, so skipping many postings costs only a few comparisons.
+     *
+     * @param postings list of postings sorted by document ID.
+     * @param from position to start from.
+     * @param docID document ID to look for.
+     * @return the position of the posting, the size of the list if there is
+     * none.
+     */
+    private static int advance(PostingList postings, int from, int docID) {
+        int low = from;
+        int high = from;
+        int step = 1;
+        while (high < postings.size() && postings.getDocID(high) < docID) {
+            low = high + 1;
+            high += step;
+            step *= 2;
+        }
+        high = Math.min(high, postings.size());
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (postings.getDocID(mid) < docID) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
-        return resultPostings;
+        return low;
     }
 
     /**
@@ -253,7 +407,7 @@ public class LiteralMatchingSearcher implements Searcher {
                             TextDocument document = index.getDocument(t.getDocID());
                             if (document != null) {
                                 System.out.println("ID: " + document.getId() + "\tName: " + document.getName() + "\tScore: " + t.getScore());
-                                String content = readContent(document.getName(), query, MAX_READ);
+                                String content = getSnippet(index, document, query, MAX_READ);
                                 System.out.println("Content: " + content);
                                 System.out.println();
                             }
@@ -299,6 +453,23 @@ public class LiteralMatchingSearcher implements Searcher {
         return outPath;
     }
 
+    /**
+     * Returns a snippet of a document. It is taken from the document store of
+     * the index when it has one, otherwise it is read from the collection.
+     *
+     * @param index Index the document belongs to.
+     * @param document The document.
+     * @param query The query string.
+     * @param maxRead Maximum characters to return.
+     * @return The snippet of the document.
+     */
+    private static String getSnippet(Index index, TextDocument document, String query, int maxRead) {
+        if (index instanceof BasicIndex && ((BasicIndex) index).hasDocumentStore()) {
+            return ((BasicIndex) index).getSnippet(document.getId(), query, maxRead);
+        }
+        return readContent(document.getName(), query, maxRead);
+    }
+
     /**
      * Reads content from a file. It will show until <code>maxRead</code>
      * characters starting from the first occurrence from some of the terms in
@@ -21,7 +21,7 @@ import es.uam.eps.bmi.search.TextDocument;
 import es.uam.eps.bmi.search.indexing.BasicIndex;
 import es.uam.eps.bmi.search.indexing.Index;
 import es.uam.eps.bmi.search.indexing.IndexBuilder;
-import es.uam.eps.bmi.search.indexing.Posting;
+import es.uam.eps.bmi.search.indexing.PostingList;
 import es.uam.eps.bmi.search.indexing.StemIndex;
 import es.uam.eps.bmi.search.indexing.StopwordIndex;
 import es.uam.eps.bmi.search.parsing.BasicParser;
@@ -31,7 +31,6 @@ import es.uam.eps.bmi.search.parsing.TextParser;
 import es.uam.eps.bmi.util.MinHeap;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Scanner;
@@ -56,8 +55,13 @@ public class ProximalSearcher implements Searcher {
     //Index used to search
     private Index index;
 
+    //Searcher used instead for single term queries, or for any query when
+    //the index does not store positions
+    private TFIDFSearcher fallback = null;
+
     /**
-     * Creates a searcher using the given index.
+     * Creates a searcher using the given index. If the index does not store
+     * term positions, searches are done by a TF-IDF searcher.
      *
      * @param index Index used to create the searcher, must be loaded.
      */
@@ -65,6 +69,12 @@ public class ProximalSearcher implements Searcher {
     public void build(Index index) {
         // Store the index object.
         this.index = index;
+        if (!index.getLayout().hasPositions()) {
+            System.err.println("Index layout " + index.getLayout() + " has no positions, using TF-IDF ranking");
+        }
+        fallback = new TFIDFSearcher();
+        fallback.build(index);
+        fallback.setTopResultsNumber(TOP_RESULTS_NUMBER);
     }
 
     /**
@@ -82,16 +92,14 @@ public class ProximalSearcher implements Searcher {
         if (terms.length == 0) {
             return new ArrayList<>();
         }
-        // If there is only one term, search using the TF-IDF searcher.
-        if (terms.length == 1) {
-            TFIDFSearcher searcher = new TFIDFSearcher();
-            searcher.build(index);
-            searcher.setTopResultsNumber(TOP_RESULTS_NUMBER);
-            return searcher.search(query);
+        // If there is only one term, or no positions, search using the
+        // TF-IDF searcher.
+        if (terms.length == 1 || !index.getLayout().hasPositions()) {
+            return fallback.search(query);
         }
 
         // Load list of postings
-        List<Posting>[] postingsArray = loadPostings(terms);
+        PostingList[] postingsArray = loadPostings(terms);
         // If any of the terms does not have postings, return empty list.
         if (postingsArray == null) {
             return new ArrayList<>();
@@ -99,18 +107,23 @@ public class ProximalSearcher implements Searcher {
 
         // Sequential indexes array
         int[] indexesArray = new int[terms.length];
+        // Postings of the current document and their positions
+        int[] matchingPostings = new int[terms.length];
+        int[][] positions = new int[terms.length][];
+        int[] positionsCounts = new int[terms.length];
         // Min heap to sort the results
         MinHeap<ScoredTextDocument> minHeap = new MinHeap<>(TOP_RESULTS_NUMBER);
 
         // Get documents that contains every term and process them
-        Posting[] matchingPostings = getNextMatchingPostings(postingsArray, indexesArray);
-        while (matchingPostings != null) {
-            int docID = matchingPostings[0].getDocID();
-            double docScore = processPostings(matchingPostings);
+        while (getNextMatchingPostings(postingsArray, indexesArray, matchingPostings)) {
+            int docID = postingsArray[0].getDocID(matchingPostings[0]);
+            for (int i = 0; i < terms.length; ++i) {
+                positions[i] = postingsArray[i].getPositions(matchingPostings[i], positions[i]);
+                positionsCounts[i] = postingsArray[i].getPositionsCount(matchingPostings[i]);
+            }
+            double docScore = processPositions(positions, positionsCounts);
             // Add to the heap if it's possible.
             minHeap.add(new ScoredTextDocument(docID, docScore));
-            // Get the next array of postings.
-            matchingPostings = getNextMatchingPostings(postingsArray, indexesArray);
         }
 
         // Resturn the results.
@@ -127,6 +140,9 @@ public class ProximalSearcher implements Searcher {
     @Override
     public void setTopResultsNumber(int topResultsNumber) {
         this.TOP_RESULTS_NUMBER = topResultsNumber;
+        if (fallback != null) {
+            fallback.setTopResultsNumber(topResultsNumber);
+        }
     }
 
     /**
@@ -136,10 +152,10 @@ public class ProximalSearcher implements Searcher {
      * @return an array filled with the list of postings of the given terms.
      * Returns null if any of the given terms does not have postings.
      */
-    private List<Posting>[] loadPostings(String[] terms) {
-        List<Posting>[] postingArray = new List[terms.length];
+    private PostingList[] loadPostings(String[] terms) {
+        PostingList[] postingArray = new PostingList[terms.length];
         for (int i = 0; i < terms.length; ++i) {
-            List<Posting> termPosting = index.getTermPostings(terms[i]);
+            PostingList termPosting = PostingList.of(index.getTermPostings(terms[i]));
             // Check there are postings of the given term.
             if (termPosting == null) {
                 return null;
@@ -150,19 +166,21 @@ public class ProximalSearcher implements Searcher {
     }
 
     /**
-     * Returns an array that contains one posting of the same document per term.
-     * Updates the indexes array so that next time this function is called,
-     * another list is returned until there are no more matching postings.
+     * Finds the next postings of the same document, one per term. Updates the
+     * indexes array so that next time this function is called, the next
+     * postings are found until there are no more matching postings.
      *
      * @param postingsArray Array of the lists of postings of each term.
      * @param indexesArray Array containing the indexes of the list of postings
      * that have been already processed.
-     * @return an array that contains one posting per term. Returns null if
-     * there are not more postings whose documents match.
+     * @param result Array where the position of the posting of each term in
+     * its list is stored.
+     * @return true if matching postings were found, false if there are not
+     * more postings whose documents match.
      */
-    private Posting[] getNextMatchingPostings(List<Posting>[] postingsArray, int[] indexesArray) {
+    private boolean getNextMatchingPostings(PostingList[] postingsArray, int[] indexesArray, int[] result) {
 
-        Posting[] result = new Posting[postingsArray.length];
+        boolean started = false;
         int currentDocID = 0;
 
         // Indexes
@@ -173,19 +191,19 @@ public class ProximalSearcher implements Searcher {
 
             // Check if we reach the end of any list of posting.
             if (j == postingsArray[i].size()) {
-                return null;
+                return false;
             }
 
             // Start traversing the posting lists in search of any matching posting.
-            if (result[0] == null) {
-                result[0] = postingsArray[i].get(j);
-                currentDocID = result[0].getDocID();
+            if (!started) {
+                started = true;
+                result[0] = j;
+                currentDocID = postingsArray[i].getDocID(j);
                 ++i;
                 j = indexesArray[i];
             } else {
-                // Get the posting and the docID
-                Posting posting = postingsArray[i].get(j);
-                int docID = posting.getDocID();
+                // Get the docID of the posting
+                int docID = postingsArray[i].getDocID(j);
 
                 // Check if it is lower.
                 if (docID < currentDocID) {
@@ -194,13 +212,13 @@ public class ProximalSearcher implements Searcher {
                 else if (docID > currentDocID) {
                     i = 0;
                     j = ++indexesArray[i];
-                    Arrays.fill(result, null);
+                    started = false;
                 } // Check if it is equal.
                 else {
-                    result[i++] = posting;
+                    result[i++] = j;
                     if (i == indexesArray.length) {
                         ++indexesArray[0];
-                        return result;
+                        return true;
                     } else {
                         j = indexesArray[i];
                     }
@@ -210,74 +228,58 @@ public class ProximalSearcher implements Searcher {
     }
 
     /**
-     * Given an array of postings of one document, returns the document's score
-     * according to the score function for proximal searching.
+     * Given the positions of every term in one document, returns the
+     * document's score according to the score function for proximal
+     * searching.<br>
+     * Every minimal interval [a, b] containing a position of every term adds
+     * 1 / (b - a - terms + 2) to the score. Intervals are found from left to
+     * right: b is the furthest of the first positions of the terms after the
+     * previous a, and a is the closest of the last positions of the terms not
+     * after b. Both a and b never go back, so every list of positions is
+     * merged once, with a cursor to the first position after a and another
+     * one to the last position not after b.
      *
-     * @param matchingPostings Array of postings of the same document.
+     * @param positions Sorted positions of every term in the document.
+     * @param positionsCounts Number of positions of every term.
      * @return the document's score according to the score function for proximal
      * searching.
      */
-    private double processPostings(Posting[] matchingPostings) {
+    private double processPositions(int[][] positions, int[] positionsCounts) {
+        int termsCount = positions.length;
+
+        // Cursors of every term: first position after a, last one not after b.
+        int[] after = new int[termsCount];
+        int[] upTo = new int[termsCount];
 
         // Value to be returned.
         double score = 0;
-
-        // Begin the algorithm
         int a = Integer.MIN_VALUE;
-        int b;
-
-        // List of ranges
-        ArrayList<int[]> pairs = new ArrayList<>();
-
         while (true) {
-            // Used to find a or b.
-            Integer[] auxArray = new Integer[matchingPostings.length];
-
             // Finding b
-            Arrays.fill(auxArray, Integer.MAX_VALUE);
-            for (int i = 0; i < matchingPostings.length; ++i) {
-                List<Integer> termPositions = matchingPostings[i].getTermPositions();
-                for (int j = 0; j < termPositions.size(); ++j) {
-                    if (termPositions.get(j) > a) {
-                        auxArray[i] = termPositions.get(j);
-                        break;
-                    }
+            int b = Integer.MIN_VALUE;
+            for (int i = 0; i < termsCount; ++i) {
+                while (after[i] < positionsCounts[i] && positions[i][after[i]] <= a) {
+                    after[i]++;
                 }
-                if (auxArray[i] == Integer.MAX_VALUE) {
-                    break;
+                if (after[i] == positionsCounts[i]) {
+                    return score;
                 }
-            }
-            b = Collections.max(Arrays.asList(auxArray));
-
-            // Check if b is infinite.
-            if (b == Integer.MAX_VALUE) {
-                break;
+                b = Math.max(b, positions[i][after[i]]);
             }
 
             // Finding a
-            Arrays.fill(auxArray, Integer.MAX_VALUE);
-            for (int i = 0; i < matchingPostings.length; ++i) {
-                List<Integer> termPositions = matchingPostings[i].getTermPositions();
-                for (int j = 0; j < termPositions.size(); ++j) {
-                    if (termPositions.get(j) <= b) {
-                        auxArray[i] = termPositions.get(j);
-                    } else {
-                        break;
-                    }
+            a = Integer.MAX_VALUE;
+            for (int i = 0; i < termsCount; ++i) {
+                upTo[i] = Math.max(upTo[i], after[i]);
+                while (upTo[i] + 1 < positionsCounts[i] && positions[i][upTo[i] + 1] <= b) {
+                    upTo[i]++;
                 }
+                a = Math.min(a, positions[i][upTo[i]]);
             }
-            a = Collections.min(Arrays.asList(auxArray));
-
-            // Add the range to the list.
-            pairs.add(new int[]{a, b});
-        }
 
-        // Calculate the score
-        for (int[] pair : pairs) {
-            score += 1.0 / ((double) (pair[1] - pair[0] - matchingPostings.length + 2));
+            // Add the score of the interval.
+            score += 1.0 / ((double) (b - a - termsCount + 2));
         }
-
-        return score;
     }
 
     /**
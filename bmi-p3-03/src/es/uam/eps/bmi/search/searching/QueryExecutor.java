@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.indexing.BasicIndex;
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.indexing.RAMIndex;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * QueryExecutor class. Runs queries concurrently over a loaded index, which
+ * is only read:
+ * <ul>
+ * <li>Every query runs in its own thread: a virtual thread if the Java
+ * runtime has them, a thread of a pool otherwise.</li>
+ * <li>The executor builds a pool of searchers for the index, and every query
+ * takes one for itself while it runs, so the state of a searcher, such as
+ * its maximum number of results, is never shared by two queries.</li>
+ * <li>At most as many queries as searchers in the pool run at once; the
+ * others wait for a searcher.</li>
+ * <li>The latency of every query, from its submission to its results, is
+ * recorded to report the throughput and the latency percentiles.</li>
+ * </ul>
+ * The index must be safe to read from several threads, as
+ * <code>BasicIndex</code> is.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class QueryExecutor {
+
+    /* Default maximum number of queries run at once */
+    public static final int DEFAULT_MAX_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+
+    /* Index searched */
+    private final Index index;
+    /* Searchers not in use */
+    private final ArrayBlockingQueue<Searcher> searchers;
+    /* Threads running the queries */
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /* Latencies of the queries finished, in nanoseconds */
+    private long[] latencies = new long[1024];
+    private int queriesCount = 0;
+    /* Submission of the first query and end of the last one */
+    private long firstSubmission = 0;
+    private long lastCompletion = 0;
+
+    /**
+     * Default constructor.
+     *
+     * @param index index to search, loaded.
+     * @param searcherFactory creates the searchers of the pool, not built.
+     * @param maxConcurrency maximum number of queries run at once.
+     */
+    public QueryExecutor(Index index, Supplier<Searcher> searcherFactory, int maxConcurrency) {
+        this.index = index;
+        this.searchers = new ArrayBlockingQueue<>(maxConcurrency);
+        for (int i = 0; i < maxConcurrency; i++) {
+            Searcher searcher = searcherFactory.get();
+            searcher.build(index);
+            searchers.add(searcher);
+        }
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(maxConcurrency, (Runnable r) -> {
+            Thread thread = new Thread(r, QueryExecutor.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns an executor running every task in a new virtual thread, looked
+     * up by reflection as it only exists from Java 21.
+     *
+     * @return the executor, null if the runtime has no virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the index searched.
+     *
+     * @return the index searched.
+     */
+    public Index getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns true if the queries run in virtual threads.
+     *
+     * @return true if the queries run in virtual threads, false if they run
+     * in a pool of threads.
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Submits a query, which runs as soon as a searcher is free.
+     *
+     * @param query String query used to search.
+     * @param topResultsNumber Maximum number of results to retrieve.
+     * @return a future with the ranking of documents sorted by the
+     * decrementing score value.
+     */
+    public Future<List<ScoredTextDocument>> submit(String query, int topResultsNumber) {
+        long submission = System.nanoTime();
+        synchronized (this) {
+            if (firstSubmission == 0) {
+                firstSubmission = submission;
+            }
+        }
+        return executor.submit(() -> {
+            Searcher searcher = searchers.take();
+            try {
+                searcher.setTopResultsNumber(topResultsNumber);
+                return searcher.search(query);
+            } finally {
+                searchers.add(searcher);
+                record(submission, System.nanoTime());
+            }
+        });
+    }
+
+    /**
+     * Runs a query and waits for its results.
+     *
+     * @param query String query used to search.
+     * @param topResultsNumber Maximum number of results to retrieve.
+     * @return a ranking of documents sorted by the decrementing score value.
+     * @throws java.lang.InterruptedException
+     * @throws java.util.concurrent.ExecutionException
+     */
+    public List<ScoredTextDocument> search(String query, int topResultsNumber) throws InterruptedException, ExecutionException {
+        return submit(query, topResultsNumber).get();
+    }
+
+    /**
+     * Records the latency of a query.
+     */
+    private synchronized void record(long submission, long completion) {
+        if (queriesCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, 2 * queriesCount);
+        }
+        latencies[queriesCount++] = completion - submission;
+        lastCompletion = Math.max(lastCompletion, completion);
+    }
+
+    /**
+     * Forgets the latencies recorded.
+     */
+    public synchronized void resetStatistics() {
+        queriesCount = 0;
+        firstSubmission = lastCompletion = 0;
+    }
+
+    /**
+     * Returns the number of queries finished.
+     *
+     * @return the number of queries finished.
+     */
+    public synchronized int getQueriesCount() {
+        return queriesCount;
+    }
+
+    /**
+     * Returns the number of queries finished per second, from the submission
+     * of the first query to the end of the last one.
+     *
+     * @return the throughput in queries per second.
+     */
+    public synchronized double getThroughput() {
+        long elapsed = lastCompletion - firstSubmission;
+        return elapsed > 0 ? queriesCount / (elapsed / 1e9) : 0;
+    }
+
+    /**
+     * Returns a percentile of the latencies of the queries finished.
+     *
+     * @param percentile percentile, from 0 to 100.
+     * @return the latency in nanoseconds, 0 if no query finished.
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        if (queriesCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, queriesCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * queriesCount) - 1;
+        return sorted[Math.max(0, Math.min(queriesCount - 1, rank))];
+    }
+
+    /**
+     * Returns a summary of the queries finished.
+     *
+     * @return a summary of the queries finished.
+     */
+    public synchronized String getReport() {
+        return String.format("Queries: %d\tThroughput: %.1f queries/s\n"
+                + "Latency p50: %.3f ms\tp99: %.3f ms\tmax: %.3f ms",
+                queriesCount, getThroughput(), getLatencyPercentile(50) / 1e6,
+                getLatencyPercentile(99) / 1e6, getLatencyPercentile(100) / 1e6);
+    }
+
+    /**
+     * Stops accepting queries. Queries already submitted are finished.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Main method for the query executor.
+     *
+     * Runs the queries of a file several times, first one after the other
+     * with a single TF-IDF searcher and then concurrently with the executor,
+     * checks that the results are the same, and prints the throughput and
+     * latencies of both.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the index is stored, "queries_file": File with a query
+     * per line, as "id:query", "max_concurrency": Optionally, maximum number
+     * of queries run at once, "repetitions": Optionally, times every query is
+     * run, 10 by default.
+     */
+    public static void main(String[] args) {
+        // Top results
+        final int TOP = 10;
+
+        // Input control
+        boolean inMemory = Arrays.asList(args).contains(RAMIndex.IN_MEMORY_OPTION);
+        args = Arrays.stream(args).filter(arg -> !arg.equals(RAMIndex.IN_MEMORY_OPTION)).toArray(String[]::new);
+        int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+        int repetitions = 10;
+        try {
+            if (args.length > 2) {
+                maxConcurrency = Integer.parseInt(args[2]);
+            }
+            if (args.length > 3) {
+                repetitions = Integer.parseInt(args[3]);
+            }
+        } catch (NumberFormatException ex) {
+            maxConcurrency = 0;
+        }
+        if (args.length < 2 || args.length > 4 || maxConcurrency < 1 || repetitions < 1) {
+            System.err.printf("Usage: %s index_path queries_file [max_concurrency [repetitions]] [%s]\n"
+                    + "\tindex_path: Path to the directory where the index is stored.\n"
+                    + "\tqueries_file: File with a query per line, as id:query.\n"
+                    + "\tmax_concurrency: Maximum number of queries run at once, %d by default.\n"
+                    + "\trepetitions: Times every query is run, 10 by default.\n"
+                    + "\t%s: Load the whole index in memory.\n",
+                    QueryExecutor.class.getSimpleName(), RAMIndex.IN_MEMORY_OPTION, DEFAULT_MAX_CONCURRENCY,
+                    RAMIndex.IN_MEMORY_OPTION);
+            return;
+        }
+
+        // Read the queries
+        TextParser parser = new BasicParser();
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader queriesReader = new BufferedReader(new FileReader(args[1]))) {
+            String line;
+            while ((line = queriesReader.readLine()) != null) {
+                queries.add(parser.parse(line.substring(line.indexOf(':') + 1)));
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        BasicIndex index = inMemory ? new RAMIndex() : new BasicIndex();
+        index.load(args[0]);
+        if (!index.isLoaded()) {
+            return;
+        }
+
+        // One query after the other, after a warm-up.
+        TFIDFSearcher searcher = new TFIDFSearcher();
+        searcher.build(index);
+        searcher.setTopResultsNumber(TOP);
+        List<List<ScoredTextDocument>> expected = new ArrayList<>();
+        for (String query : queries) {
+            expected.add(searcher.search(query));
+        }
+        long start = System.nanoTime();
+        for (int r = 0; r < repetitions; r++) {
+            for (String query : queries) {
+                searcher.search(query);
+            }
+        }
+        long end = System.nanoTime();
+        int n = repetitions * queries.size();
+        System.out.printf("Sequential: %d queries\tThroughput: %.1f queries/s\n", n, n / ((end - start) / 1e9));
+
+        // Concurrent queries
+        QueryExecutor executor = new QueryExecutor(index, TFIDFSearcher::new, maxConcurrency);
+        int mismatches = 0;
+        try {
+            for (String query : queries) {
+                executor.search(query, TOP);
+            }
+            executor.resetStatistics();
+            List<Future<List<ScoredTextDocument>>> futures = new ArrayList<>(n);
+            for (int r = 0; r < repetitions; r++) {
+                for (String query : queries) {
+                    futures.add(executor.submit(query, TOP));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                List<ScoredTextDocument> results = futures.get(i).get();
+                List<ScoredTextDocument> exact = expected.get(i % queries.size());
+                boolean same = results.size() == exact.size();
+                for (int j = 0; same && j < results.size(); j++) {
+                    same = results.get(j).getDocID() == exact.get(j).getDocID()
+                            && results.get(j).getScore() == exact.get(j).getScore();
+                }
+                if (!same) {
+                    mismatches++;
+                }
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            System.err.println("Exception caught while running a query: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        } finally {
+            executor.close();
+        }
+        System.out.println("Concurrent, " + maxConcurrency + " at once in "
+                + (executor.usesVirtualThreads() ? "virtual threads" : "a pool of threads") + ":");
+        System.out.println(executor.getReport());
+        System.out.println("Queries with results different from the sequential ones: " + mismatches);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.indexing.Posting;
+import es.uam.eps.bmi.search.indexing.PostingList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Postings and idf of the terms of a query, read once so that several TF-IDF
+ * scoring strategies can be tried on them.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+class QueryPostings {
+
+    /* Terms of the query */
+    final String[] terms;
+    /* Postings of every term, empty if the term is not in the index */
+    final List<PostingList> postings;
+    /* Idf of every term, 0 if the term is not in the index */
+    final double[] idfs;
+    /* Number of postings of all the terms */
+    final long postingsCount;
+    /* Number of documents of the index when the postings were read */
+    final double docsCount;
+
+    /**
+     * Reads the postings of the terms of a query.
+     *
+     * @param index index to read the postings from.
+     * @param terms terms of the query.
+     */
+    QueryPostings(Index index, String[] terms) {
+        this.terms = terms;
+        // Read with every query, as the index may have been loaded again.
+        this.docsCount = index.getDocsCount();
+        this.postings = new ArrayList<>(terms.length);
+        this.idfs = new double[terms.length];
+        long count = 0;
+        for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
+            // The document frequency is asked right after the postings, which
+            // the reader of the index still has.
+            PostingList termPostings = PostingList.of(index.getTermPostings(terms[termIndex]));
+            if (termPostings == null || termPostings.isEmpty()) {
+                postings.add(PostingList.of(Collections.<Posting>emptyList()));
+                continue;
+            }
+            postings.add(termPostings);
+            idfs[termIndex] = Math.log(docsCount / index.getTermDocFrequency(terms[termIndex])) / Math.log(2);
+            count += termPostings.size();
+        }
+        this.postingsCount = count;
+    }
+
+    /**
+     * Takes the postings of the terms of a query from those already read.
+     *
+     * @param shared postings read, with every term of the query.
+     * @param termIndexes position of every term in the shared postings.
+     * @param terms terms of the query.
+     */
+    private QueryPostings(QueryPostings shared, HashMap<String, Integer> termIndexes, String[] terms) {
+        this.terms = terms;
+        this.docsCount = shared.docsCount;
+        this.postings = new ArrayList<>(terms.length);
+        this.idfs = new double[terms.length];
+        long count = 0;
+        for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
+            int sharedIndex = termIndexes.get(terms[termIndex]);
+            postings.add(shared.postings.get(sharedIndex));
+            idfs[termIndex] = shared.idfs[sharedIndex];
+            count += postings.get(termIndex).size();
+        }
+        this.postingsCount = count;
+    }
+
+    /**
+     * Reads the postings of the terms of several queries. The postings of
+     * every term are read only once, in dictionary order, and shared by the
+     * queries with the term.
+     *
+     * @param index index to read the postings from.
+     * @param queries queries, with their terms separated by spaces.
+     * @return the postings of every query, in the same order as the queries.
+     */
+    static List<QueryPostings> readBatch(Index index, List<String> queries) {
+        List<String[]> queriesTerms = new ArrayList<>(queries.size());
+        TreeSet<String> union = new TreeSet<>();
+        for (String query : queries) {
+            String[] terms = query.split(" ");
+            queriesTerms.add(terms);
+            Collections.addAll(union, terms);
+        }
+        QueryPostings shared = new QueryPostings(index, union.toArray(new String[union.size()]));
+        HashMap<String, Integer> termIndexes = new HashMap<>();
+        for (int termIndex = 0; termIndex < shared.terms.length; ++termIndex) {
+            termIndexes.put(shared.terms[termIndex], termIndex);
+        }
+        List<QueryPostings> batch = new ArrayList<>(queries.size());
+        for (String[] terms : queriesTerms) {
+            batch.add(new QueryPostings(shared, termIndexes, terms));
+        }
+        return batch;
+    }
+}
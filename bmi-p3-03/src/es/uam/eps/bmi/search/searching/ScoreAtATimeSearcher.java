@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.indexing.ImpactIndex;
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Score-at-a-time searcher for an <code>ImpactIndex</code>. The segments of
+ * all the query terms are processed by decreasing impact level, adding the
+ * level of every segment to the score of its documents, so the documents
+ * with the highest scores are found first.<br>
+ * The search stops when all the segments are processed, or earlier when a
+ * budget of postings or time is spent, returning the best documents found so
+ * far: latency is bounded and the quality of the ranking degrades
+ * gracefully. Scores are the sum of the impact levels times the score of one
+ * level, an approximation of TF-IDF scores.<br>
+ * With any other index, queries are scored exactly by a
+ * <code>TAATSearcher</code>.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class ScoreAtATimeSearcher implements Searcher {
+
+    /* Number of postings processed between checks of the time budget */
+    private static final int TIME_CHECK_INTERVAL = 1024;
+
+    // Maximum number of results to retrieve.
+    private int TOP_RESULTS_NUMBER = 5;
+
+    // Index used to search, fallback searcher if it is not an ImpactIndex
+    private ImpactIndex index;
+    private TAATSearcher fallback;
+
+    /* Budgets of every query, 0 if unlimited */
+    private long postingsBudget = 0;
+    private long timeBudget = 0;
+
+    /* Accumulators not in use, and their size */
+    private ConcurrentLinkedQueue<TAATSearcher.Accumulator> accumulators;
+    private int accumulatorSize = 0;
+
+    /* Number of queries stopped before processing all the segments */
+    private int stoppedQueries = 0;
+
+    /**
+     * Creates a searcher using the given index.
+     *
+     * @param index Index used to create the searcher, must be loaded.
+     */
+    @Override
+    public void build(Index index) {
+        if (!(index instanceof ImpactIndex)) {
+            this.index = null;
+            fallback = new TAATSearcher();
+            fallback.build(index);
+            fallback.setTopResultsNumber(TOP_RESULTS_NUMBER);
+            return;
+        }
+        this.index = (ImpactIndex) index;
+        fallback = null;
+        List<Integer> docIds = index.getDocIds();
+        accumulatorSize = docIds.isEmpty() ? 0 : Collections.max(docIds) + 1;
+        accumulators = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Sets the maximum number of postings processed for every query.
+     *
+     * @param postingsBudget maximum number of postings, 0 if unlimited.
+     */
+    public void setPostingsBudget(long postingsBudget) {
+        this.postingsBudget = postingsBudget;
+    }
+
+    /**
+     * Sets the maximum time spent processing the postings of every query.
+     *
+     * @param timeBudget maximum time in nanoseconds, 0 if unlimited.
+     */
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Returns a ranking of documents sorted by the score value.
+     *
+     * @param query String query used to search.
+     * @return a ranking of documents sorted by the decrementing score value.
+     */
+    @Override
+    public List<ScoredTextDocument> search(String query) {
+        if (fallback != null) {
+            return fallback.search(query);
+        }
+        long start = System.nanoTime();
+        long deadline = timeBudget > 0 ? start + timeBudget : Long.MAX_VALUE;
+        long remaining = postingsBudget > 0 ? postingsBudget : Long.MAX_VALUE;
+
+        // Segments of the query terms, by decreasing level.
+        String[] terms = query.split(" ");
+        int levels = index.getLevels();
+        int segmentsCount = 0;
+        for (String term : terms) {
+            int termId = index.getTermId(term);
+            if (termId >= 0) {
+                segmentsCount += index.getSegmentsEnd(termId) - index.getSegmentsStart(termId);
+            }
+        }
+        long[] segments = new long[segmentsCount];
+        segmentsCount = 0;
+        for (String term : terms) {
+            int termId = index.getTermId(term);
+            if (termId < 0) {
+                continue;
+            }
+            for (int segment = index.getSegmentsStart(termId); segment < index.getSegmentsEnd(termId); segment++) {
+                segments[segmentsCount++] = ((long) (levels - index.getSegmentLevel(segment)) << 32) | segment;
+            }
+        }
+        Arrays.sort(segments);
+
+        TAATSearcher.Accumulator accumulator = accumulators.poll();
+        if (accumulator == null) {
+            accumulator = new TAATSearcher.Accumulator(accumulatorSize);
+        }
+        try {
+            boolean stopped = false;
+            for (int s = 0; s < segments.length && !stopped; s++) {
+                int segment = (int) segments[s];
+                int level = index.getSegmentLevel(segment);
+                int end = index.getPostingsEnd(segment);
+                for (int posting = index.getPostingsStart(segment); posting < end; posting++) {
+                    if (remaining-- == 0
+                            || (posting % TIME_CHECK_INTERVAL == 0 && System.nanoTime() >= deadline)) {
+                        stopped = true;
+                        break;
+                    }
+                    accumulator.add(index.getPostingDocId(posting), level);
+                }
+                if (!stopped && s + 1 < segments.length && System.nanoTime() >= deadline) {
+                    stopped = true;
+                }
+            }
+            if (stopped) {
+                stoppedQueries++;
+            }
+
+            // Levels to scores.
+            List<ScoredTextDocument> results = accumulator.getTopResults(TOP_RESULTS_NUMBER);
+            for (ScoredTextDocument result : results) {
+                result.setScore(result.getScore() * index.getLevelScore());
+            }
+            return results;
+        } finally {
+            accumulator.clear();
+            accumulators.offer(accumulator);
+        }
+    }
+
+    /**
+     * Sets the maximum number of results to retrieve.
+     *
+     * @param topResultsNumber Maximum number of results to retrieve.
+     */
+    @Override
+    public void setTopResultsNumber(int topResultsNumber) {
+        this.TOP_RESULTS_NUMBER = topResultsNumber;
+        if (fallback != null) {
+            fallback.setTopResultsNumber(topResultsNumber);
+        }
+    }
+
+    /**
+     * Returns the number of queries stopped by a budget before processing all
+     * their segments.
+     *
+     * @return the number of queries stopped by a budget.
+     */
+    public int getStoppedQueries() {
+        return stoppedQueries;
+    }
+
+    /**
+     * Main method for score-at-a-time searcher.
+     *
+     * Runs the queries of a file with an impact index and prints the mean
+     * search time and the fraction of the exact TF-IDF top results found,
+     * with the given budgets.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the index is stored, converted by
+     * <code>ImpactIndexConverter</code>, "queries_file": File with a query
+     * per line, as "id:query", "postings_budget": Optionally, maximum number
+     * of postings processed per query, "time_budget": Optionally, maximum
+     * time per query in microseconds.
+     */
+    public static void main(String[] args) {
+        // Top results
+        final int TOP = 10;
+
+        // Input control
+        long postingsBudget = 0;
+        long timeBudget = 0;
+        try {
+            if (args.length > 2) {
+                postingsBudget = Long.parseLong(args[2]);
+            }
+            if (args.length > 3) {
+                timeBudget = Long.parseLong(args[3]) * 1000;
+            }
+        } catch (NumberFormatException ex) {
+            postingsBudget = -1;
+        }
+        if (args.length < 2 || args.length > 4 || postingsBudget < 0 || timeBudget < 0) {
+            System.err.printf("Usage: %s index_path queries_file [postings_budget [time_budget]]\n"
+                    + "\tindex_path: Path to the directory where the index is stored.\n"
+                    + "\tqueries_file: File with a query per line, as id:query.\n"
+                    + "\tpostings_budget: Maximum postings processed per query, 0 (default) if unlimited.\n"
+                    + "\ttime_budget: Maximum time per query in microseconds, 0 (default) if unlimited.\n",
+                    ScoreAtATimeSearcher.class.getSimpleName());
+            return;
+        }
+
+        // Read the queries
+        TextParser parser = new BasicParser();
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader queriesReader = new BufferedReader(new FileReader(args[1]))) {
+            String line;
+            while ((line = queriesReader.readLine()) != null) {
+                queries.add(parser.parse(line.substring(line.indexOf(':') + 1)));
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        ImpactIndex index = new ImpactIndex();
+        index.load(args[0]);
+        if (!index.isLoaded()) {
+            return;
+        }
+        ScoreAtATimeSearcher searcher = new ScoreAtATimeSearcher();
+        searcher.build(index);
+        searcher.setTopResultsNumber(TOP);
+        searcher.setPostingsBudget(postingsBudget);
+        searcher.setTimeBudget(timeBudget);
+        TAATSearcher exact = new TAATSearcher();
+        exact.build(index);
+        exact.setTopResultsNumber(TOP);
+
+        // Run every query twice, timing the second run.
+        long elapsed = 0;
+        double found = 0;
+        for (String query : queries) {
+            searcher.search(query);
+        }
+        int warmupStopped = searcher.getStoppedQueries();
+        for (String query : queries) {
+            long start = System.nanoTime();
+            List<ScoredTextDocument> results = searcher.search(query);
+            elapsed += System.nanoTime() - start;
+
+            Set<Integer> exactIds = new HashSet<>();
+            for (ScoredTextDocument result : exact.search(query)) {
+                exactIds.add(result.getDocID());
+            }
+            int common = 0;
+            for (ScoredTextDocument result : results) {
+                if (exactIds.contains(result.getDocID())) {
+                    common++;
+                }
+            }
+            found += exactIds.isEmpty() ? 1 : (double) common / exactIds.size();
+        }
+        int n = Math.max(1, queries.size());
+        System.out.println("Mean search time: " + elapsed / 1e6 / n + " milliseconds");
+        System.out.printf("Exact top %d found: %.2f%%\n", TOP, 100 * found / n);
+        System.out.printf("Queries stopped by a budget: %d of %d\n", searcher.getStoppedQueries() - warmupStopped, queries.size());
+    }
+}
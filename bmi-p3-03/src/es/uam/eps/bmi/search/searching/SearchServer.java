@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.TextDocument;
+import es.uam.eps.bmi.search.indexing.BasicIndex;
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.indexing.IndexBuilder;
+import es.uam.eps.bmi.search.indexing.RAMIndex;
+import es.uam.eps.bmi.search.indexing.StemIndex;
+import es.uam.eps.bmi.search.indexing.StopwordIndex;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.StemParser;
+import es.uam.eps.bmi.search.parsing.StopwordParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.tartarus.snowball.ext.englishStemmer;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * SearchServer class. Serves searches over HTTP with the server built in the
+ * JDK, keeping the basic, stopword and stem indexes loaded between queries.
+ * <ul>
+ * <li><code>GET /search?q=query&amp;index=basic|stopword|stem&amp;searcher=tfidf|literal|proximal&amp;top=n</code>
+ * parses the query with the parser of the index and runs it with the
+ * searcher chosen, returning the results and the timings as JSON. The basic
+ * index and the TF-IDF searcher are used by default.</li>
+ * <li><code>GET /stats</code> returns the throughput and latencies of every
+ * pair of index and searcher as JSON.</li>
+ * </ul>
+ * Every pair of index and searcher has a <code>QueryExecutor</code>, so
+ * queries run concurrently. Responses have a length, so that HTTP/1.1
+ * connections are kept alive and pipelined requests are answered in order.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class SearchServer {
+
+    /* Default port */
+    public static final int DEFAULT_PORT = 8080;
+    /* Default and maximum number of results of a query */
+    public static final int DEFAULT_TOP_RESULTS = 10;
+    public static final int MAX_TOP_RESULTS = 1000;
+
+    /* Names of the indexes and searchers in the requests */
+    private static final String[] INDEX_NAMES = {"basic", "stopword", "stem"};
+    private static final String[] SEARCHER_NAMES = {"tfidf", "literal", "proximal"};
+
+    /* Indexes and their parsers, by name */
+    private final Map<String, Index> indexes = new LinkedHashMap<>();
+    private final Map<String, TextParser> parsers = new HashMap<>();
+    /* Executors, by index and searcher name */
+    private final Map<String, QueryExecutor> executors = new LinkedHashMap<>();
+
+    /* HTTP server and threads handling the requests */
+    private HttpServer server = null;
+    private ExecutorService handlers = null;
+
+    /**
+     * Loads the indexes stored in a folder, with the subfolders written by
+     * <code>IndexBuilder</code>. Indexes which cannot be loaded are not
+     * served.
+     *
+     * @param indexPath path to the folder with the indexes.
+     * @param maxConcurrency maximum number of queries run at once by every
+     * pair of index and searcher.
+     */
+    public SearchServer(String indexPath, int maxConcurrency) {
+        this(indexPath, maxConcurrency, false);
+    }
+
+    /**
+     * Loads the indexes stored in a folder, with the subfolders written by
+     * <code>IndexBuilder</code>, optionally keeping their postings in memory.
+     * Indexes which cannot be loaded are not served.
+     *
+     * @param indexPath path to the folder with the indexes.
+     * @param maxConcurrency maximum number of queries run at once by every
+     * pair of index and searcher.
+     * @param inMemory true to load the indexes as <code>RAMIndex</code>.
+     */
+    public SearchServer(String indexPath, int maxConcurrency, boolean inMemory) {
+        if (!indexPath.endsWith("/")) {
+            indexPath += "/";
+        }
+        load(INDEX_NAMES[0], inMemory ? new RAMIndex() : new BasicIndex(), new BasicParser(),
+                indexPath + IndexBuilder.BASIC_I_APPEND, maxConcurrency);
+        load(INDEX_NAMES[1], inMemory ? new RAMIndex() : new StopwordIndex(), new StopwordParser(),
+                indexPath + IndexBuilder.STOP_I_APPEND, maxConcurrency);
+        load(INDEX_NAMES[2], inMemory ? new RAMIndex() : new StemIndex(), new StemParser(2, new englishStemmer()),
+                indexPath + IndexBuilder.STEM_I_APPEND, maxConcurrency);
+    }
+
+    /**
+     * Loads an index and creates its executors.
+     */
+    private void load(String name, Index index, TextParser parser, String path, int maxConcurrency) {
+        index.load(path);
+        if (!index.isLoaded()) {
+            System.err.println("Index " + name + " not served: could not load " + path);
+            return;
+        }
+        indexes.put(name, index);
+        parsers.put(name, parser);
+        List<Supplier<Searcher>> factories = List.of(TFIDFSearcher::new, LiteralMatchingSearcher::new, ProximalSearcher::new);
+        for (int i = 0; i < SEARCHER_NAMES.length; i++) {
+            executors.put(name + "/" + SEARCHER_NAMES[i], new QueryExecutor(index, factories.get(i), maxConcurrency));
+        }
+    }
+
+    /**
+     * Returns true if any index is served.
+     *
+     * @return true if any index was loaded.
+     */
+    public boolean isLoaded() {
+        return !indexes.isEmpty();
+    }
+
+    /**
+     * Starts serving requests.
+     *
+     * @param port port to listen to.
+     * @param threads number of threads handling requests.
+     * @throws java.io.IOException
+     */
+    public void start(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        handlers = Executors.newFixedThreadPool(threads);
+        server.setExecutor(handlers);
+        server.createContext("/search", this::handleSearch);
+        server.createContext("/stats", this::handleStats);
+        server.start();
+    }
+
+    /**
+     * Stops serving requests and closes the executors.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            handlers.shutdown();
+        }
+        for (QueryExecutor executor : executors.values()) {
+            executor.close();
+        }
+    }
+
+    /**
+     * Answers a search request.
+     */
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        if (!checkMethod(exchange)) {
+            return;
+        }
+        Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+        String query = parameters.get("q");
+        String indexName = parameters.getOrDefault("index", INDEX_NAMES[0]);
+        String searcherName = parameters.getOrDefault("searcher", SEARCHER_NAMES[0]);
+        int top;
+        try {
+            top = parameters.containsKey("top") ? Integer.parseInt(parameters.get("top")) : DEFAULT_TOP_RESULTS;
+        } catch (NumberFormatException ex) {
+            top = -1;
+        }
+        QueryExecutor executor = executors.get(indexName + "/" + searcherName);
+        if (query == null) {
+            sendError(exchange, 400, "Missing query parameter q");
+            return;
+        }
+        if (executor == null) {
+            sendError(exchange, 400, "Unknown index or searcher: " + indexName + ", " + searcherName);
+            return;
+        }
+        if (top < 1 || top > MAX_TOP_RESULTS) {
+            sendError(exchange, 400, "top must be a number from 1 to " + MAX_TOP_RESULTS);
+            return;
+        }
+
+        // Parsers are not thread-safe.
+        TextParser parser = parsers.get(indexName);
+        String parsedQuery;
+        synchronized (parser) {
+            parsedQuery = parser.parse(query);
+        }
+        long parsed = System.nanoTime();
+        List<ScoredTextDocument> results;
+        try {
+            results = executor.search(parsedQuery, top);
+        } catch (InterruptedException | ExecutionException ex) {
+            sendError(exchange, 500, "Exception caught while running the query: " + ex.getClass().getSimpleName());
+            return;
+        }
+        long searched = System.nanoTime();
+
+        Index index = indexes.get(indexName);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"query\":").append(quote(query))
+                .append(",\"parsedQuery\":").append(quote(parsedQuery))
+                .append(",\"index\":").append(quote(indexName))
+                .append(",\"searcher\":").append(quote(searcherName))
+                .append(",\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            ScoredTextDocument result = results.get(i);
+            TextDocument document = index.getDocument(result.getDocID());
+            json.append(i > 0 ? "," : "")
+                    .append("{\"docId\":").append(result.getDocID())
+                    .append(",\"name\":").append(document == null ? "null" : quote(document.getName()))
+                    .append(",\"score\":").append(Double.isFinite(result.getScore()) ? Double.toString(result.getScore()) : "null")
+                    .append('}');
+        }
+        long end = System.nanoTime();
+        json.append("],\"timings\":{\"parseMs\":").append((parsed - start) / 1e6)
+                .append(",\"searchMs\":").append((searched - parsed) / 1e6)
+                .append(",\"totalMs\":").append((end - start) / 1e6)
+                .append("}}");
+        send(exchange, 200, json.toString());
+    }
+
+    /**
+     * Answers a statistics request.
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        if (!checkMethod(exchange)) {
+            return;
+        }
+        StringBuilder json = new StringBuilder("{");
+        boolean first = true;
+        for (Map.Entry<String, QueryExecutor> entry : executors.entrySet()) {
+            QueryExecutor executor = entry.getValue();
+            json.append(first ? "" : ",").append(quote(entry.getKey()))
+                    .append(":{\"queries\":").append(executor.getQueriesCount())
+                    .append(",\"throughput\":").append(executor.getThroughput())
+                    .append(",\"p50Ms\":").append(executor.getLatencyPercentile(50) / 1e6)
+                    .append(",\"p99Ms\":").append(executor.getLatencyPercentile(99) / 1e6)
+                    .append('}');
+            first = false;
+        }
+        json.append('}');
+        send(exchange, 200, json.toString());
+    }
+
+    /**
+     * Checks that a request is a GET, answering with an error otherwise. The
+     * body of the request is read, so that the next request of the
+     * connection can be read.
+     *
+     * @return true if the request is a GET.
+     */
+    private static boolean checkMethod(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            while (body.read(buffer) >= 0) {
+                // Discard the body.
+            }
+        }
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            sendError(exchange, 405, "Only GET requests are served");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the parameters of the query string of a request.
+     */
+    private static Map<String, String> getParameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            try {
+                parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (IllegalArgumentException | IOException ex) {
+                // Malformed parameters are ignored.
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Sends an error as JSON.
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "{\"error\":" + quote(message) + "}");
+    }
+
+    /**
+     * Sends a JSON response with its length, so the connection is kept alive.
+     */
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Returns a string as a JSON string literal.
+     */
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Returns the path where the three indexes are stored, read from the
+     * XML_INPUT file.
+     *
+     * @return the path where the three indexes are stored, null if it could
+     * not be read.
+     */
+    private static String getIndexPath() {
+        String outPath;
+        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+        try {
+            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+            Document doc = dBuilder.parse(IndexBuilder.XML_INPUT);
+            doc.getDocumentElement().normalize();
+            outPath = doc.getElementsByTagName(IndexBuilder.OUTPATH_TAG_NAME).item(0).getTextContent();
+        } catch (ParserConfigurationException | SAXException ex) {
+            System.err.println("Exception caught while configurating XML parser: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return null;
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing IO operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return null;
+        }
+        return outPath;
+    }
+
+    /**
+     * Main method for the search server.
+     *
+     * Loads the indexes and serves searches until the process is stopped.
+     *
+     * @param args The following arguments are used: "port": Optionally, port
+     * to listen to, "index_path": Optionally, path to the folder with the
+     * indexes, read from XML_INPUT by default.
+     */
+    public static void main(String[] args) {
+        // Input control
+        boolean inMemory = Arrays.asList(args).contains(RAMIndex.IN_MEMORY_OPTION);
+        args = Arrays.stream(args).filter(arg -> !arg.equals(RAMIndex.IN_MEMORY_OPTION)).toArray(String[]::new);
+        int port = DEFAULT_PORT;
+        try {
+            if (args.length > 0) {
+                port = Integer.parseInt(args[0]);
+            }
+        } catch (NumberFormatException ex) {
+            port = -1;
+        }
+        if (args.length > 2 || port < 0 || port > 65535) {
+            System.err.printf("Usage: %s [port [index_path]] [%s]\n"
+                    + "\tport: Port to listen to, %d by default.\n"
+                    + "\tindex_path: Path to the folder with the basic, stopword and stem indexes, read from %s by default.\n"
+                    + "\t%s: Load the whole indexes in memory.\n",
+                    SearchServer.class.getSimpleName(), RAMIndex.IN_MEMORY_OPTION, DEFAULT_PORT, IndexBuilder.XML_INPUT,
+                    RAMIndex.IN_MEMORY_OPTION);
+            return;
+        }
+        String indexPath = args.length > 1 ? args[1] : getIndexPath();
+        if (indexPath == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int cores = Runtime.getRuntime().availableProcessors();
+        SearchServer searchServer = new SearchServer(indexPath, cores, inMemory);
+        if (!searchServer.isLoaded()) {
+            return;
+        }
+        long end = System.nanoTime();
+        try {
+            searchServer.start(port, 2 * cores);
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            searchServer.stop();
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(searchServer::stop));
+        System.out.println("Indexes loaded in " + (end - start) / 1e6 + " milliseconds: " + searchServer.indexes.keySet());
+        System.out.println("Listening on port " + port);
+    }
+}
@@ -18,6 +18,7 @@ package es.uam.eps.bmi.search.searching;
 
 import es.uam.eps.bmi.search.ScoredTextDocument;
 import es.uam.eps.bmi.search.indexing.Index;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -43,6 +44,22 @@ public interface Searcher {
      */
     public List<ScoredTextDocument> search(String query);
 
+    /**
+     * Returns the rankings of several queries. Searchers may read the postings
+     * of the terms shared by the queries only once and score the queries in
+     * parallel; by default, queries are searched one after the other.
+     *
+     * @param queries String queries used to search.
+     * @return the ranking of every query, in the same order as the queries.
+     */
+    public default List<List<ScoredTextDocument>> searchBatch(List<String> queries) {
+        List<List<ScoredTextDocument>> results = new ArrayList<>(queries.size());
+        for (String query : queries) {
+            results.add(search(query));
+        }
+        return results;
+    }
+
     /**
      * Sets the maximum number of results to retrieve.
      *
@@ -21,6 +21,7 @@ import es.uam.eps.bmi.search.TextDocument;
 import es.uam.eps.bmi.search.indexing.BasicIndex;
 import es.uam.eps.bmi.search.indexing.Index;
 import es.uam.eps.bmi.search.indexing.IndexBuilder;
+import es.uam.eps.bmi.search.indexing.IndexWriter;
 import es.uam.eps.bmi.search.indexing.StemIndex;
 import es.uam.eps.bmi.search.indexing.StopwordIndex;
 import es.uam.eps.bmi.search.parsing.BasicParser;
@@ -59,7 +60,8 @@ public class SearcherTest {
      * Main method: Run queries with the TF-IDF and the literal searcher using
      * the three indexes (basic, stopword and stem).
      *
-     * @param args ignored.
+     * @param args Optionally, "pruned_index_path": Path to a pruned copy of
+     * the basic index (see <code>IndexPruner</code>) to compare with it.
      */
     public static void main(String[] args) {
         // Get both parhs
@@ -178,6 +180,65 @@ public class SearcherTest {
         // Measure TF-IDF cost
         System.out.println("Measures for the basic index and TF-IDF searcher:");
         printCost(basicIndex, proximalSearcher, basicParser, queriesList);
+
+        // Compare with the pruned index
+        if (args.length > 0) {
+            Index prunedIndex = new BasicIndex();
+            prunedIndex.load(args[0]);
+            if (!prunedIndex.isLoaded()) {
+                return;
+            }
+            System.out.println();
+            System.out.println("Pruned basic index compared with the basic index (TF-IDF searcher):");
+            try (BufferedReader pruningRelevanceReader = new BufferedReader(new FileReader(relevanceFile))) {
+                printPruning(basicIndex, prunedIndex, basicParser, pruningRelevanceReader, queriesList);
+            } catch (IOException ex) {
+                System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+                System.err.println(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Prints the size of an index and of its pruned copy, and the mean P@5 and
+     * P@10 values of the TF-IDF searcher with both.
+     *
+     * @param index Original index.
+     * @param prunedIndex Pruned copy of the index.
+     * @param parser Parser to parse the queries.
+     * @param relevanceReader Reader used to read the relevance list.
+     * @param queriesList A list filled with the queries.
+     * @throws java.io.IOException
+     */
+    private static void printPruning(Index index, Index prunedIndex, TextParser parser, BufferedReader relevanceReader, ArrayList<String> queriesList) throws IOException {
+        Index[] indexes = {index, prunedIndex};
+        double[] pAt5 = new double[indexes.length];
+        double[] pAt10 = new double[indexes.length];
+        long[] elapsed = new long[indexes.length];
+        Searcher searcher = new TFIDFSearcher();
+        searcher.setTopResultsNumber(10);
+
+        for (String query : queriesList) {
+            // Read the relevance documents
+            String[] relevanceDocuments = relevanceReader.readLine().split("\t");
+            List<String> relevanceDocumentsList = Arrays.asList(relevanceDocuments).subList(1, relevanceDocuments.length);
+            for (int i = 0; i < indexes.length; ++i) {
+                searcher.build(indexes[i]);
+                long start = System.nanoTime();
+                List<ScoredTextDocument> retrievedList = searcher.search(parser.parse(query));
+                elapsed[i] += System.nanoTime() - start;
+                pAt5[i] += precision(indexes[i], retrievedList, relevanceDocumentsList, 5) / queriesList.size();
+                pAt10[i] += precision(indexes[i], retrievedList, relevanceDocumentsList, 10) / queriesList.size();
+            }
+        }
+
+        String[] names = {"Basic index", "Pruned index"};
+        for (int i = 0; i < indexes.length; ++i) {
+            long size = new File(indexes[i].getPath(), IndexWriter.INDEX_FILE_NAME).length();
+            System.out.println(names[i] + "\tSize: " + size + " bytes\tP@5: " + pAt5[i] + "\tP@10: " + pAt10[i]
+                    + "\tElapsed time: " + elapsed[i] / 1e6 + " milliseconds.");
+        }
+        System.out.println("Change\tP@5: " + (pAt5[1] - pAt5[0]) + "\tP@10: " + (pAt10[1] - pAt10[0]));
     }
 
     /**
@@ -271,5 +332,16 @@ public class SearcherTest {
         long end = System.nanoTime();
         
         System.out.println("Elapsed time: " + (end-start)/1e6 + " milliseconds.");
+
+        // The same queries as a batch, parsed beforehand.
+        List<String> parsedQueries = new ArrayList<>(queriesList.size());
+        queriesList.stream().forEach((query) -> {
+            parsedQueries.add(parser.parse(query));
+        });
+        start = System.nanoTime();
+        searcher.searchBatch(parsedQueries);
+        end = System.nanoTime();
+
+        System.out.println("Elapsed time (batch): " + (end-start)/1e6 + " milliseconds.");
     }
 }
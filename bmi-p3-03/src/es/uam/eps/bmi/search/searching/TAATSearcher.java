@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.indexing.PostingList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+/**
+ * TF-IDF searcher scoring term at a time. The weights of every query term
+ * are added, in query order, into an array with the score of every document,
+ * and the top results are selected from the documents touched with a heap of
+ * docIds.<br>
+ * Every query takes an array from a pool, so that concurrent queries have
+ * their own ones and arrays are reused from query to query, even by queries
+ * run in short-lived threads: only the documents touched are reset after a
+ * query. Scores are those of
+ * <code>TFIDFSearcher</code>; among documents with the same score, the lowest
+ * docIds are returned first.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class TAATSearcher implements Searcher {
+
+    // Maximum number of results to retrieve.
+    private int TOP_RESULTS_NUMBER = 5;
+
+    // Index used to search
+    private Index index;
+
+    /* Accumulators not in use, and their size */
+    private ConcurrentLinkedQueue<Accumulator> accumulators;
+    private int accumulatorSize = 0;
+
+    /**
+     * Creates a searcher using the given index.
+     *
+     * @param index Index used to create the searcher, must be loaded.
+     */
+    @Override
+    public void build(Index index) {
+        this.index = index;
+        List<Integer> docIds = index.getDocIds();
+        accumulatorSize = docIds.isEmpty() ? 0 : Collections.max(docIds) + 1;
+        accumulators = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Returns a ranking of documents sorted by the score value.
+     *
+     * @param query String query used to search.
+     * @return a ranking of documents sorted by the decrementing score value.
+     */
+    @Override
+    public List<ScoredTextDocument> search(String query) {
+        // Separate the query string by spaces
+        String[] terms = query.split(" ");
+        if (terms.length == 0) {
+            return new ArrayList<>();
+        }
+        return search(new QueryPostings(index, terms));
+    }
+
+    /**
+     * Returns the rankings of several queries. The postings of every term of
+     * the queries are read only once, in dictionary order, and the queries
+     * are scored in parallel over them. All the postings read are kept in
+     * memory until every query is scored.
+     *
+     * @param queries String queries used to search.
+     * @return the ranking of every query, in the same order as the queries.
+     */
+    @Override
+    public List<List<ScoredTextDocument>> searchBatch(List<String> queries) {
+        return QueryPostings.readBatch(index, queries).parallelStream()
+                .map(this::search)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a ranking of documents sorted by the score value, given the
+     * postings of the query terms.
+     *
+     * @param query postings of the query terms.
+     * @return a ranking of documents sorted by the decrementing score value.
+     */
+    List<ScoredTextDocument> search(QueryPostings query) {
+        Accumulator accumulator = accumulators.poll();
+        if (accumulator == null) {
+            accumulator = new Accumulator(accumulatorSize);
+        }
+        try {
+            for (int termIndex = 0; termIndex < query.terms.length; ++termIndex) {
+                double idf = query.idfs[termIndex];
+                PostingList termPostings = query.postings.get(termIndex);
+                for (int i = 0; i < termPostings.size(); ++i) {
+                    int docId = termPostings.getDocID(i);
+                    double tf = 1 + (Math.log(termPostings.getTermFrequency(i)) / Math.log(2));
+                    accumulator.add(docId, tf * idf / index.getDocModule(docId));
+                }
+            }
+            return accumulator.getTopResults(TOP_RESULTS_NUMBER);
+        } finally {
+            accumulator.clear();
+            accumulators.offer(accumulator);
+        }
+    }
+
+    /**
+     * Sets the maximum number of results to retrieve.
+     *
+     * @param topResultsNumber Maximum number of results to retrieve.
+     */
+    @Override
+    public void setTopResultsNumber(int topResultsNumber) {
+        this.TOP_RESULTS_NUMBER = topResultsNumber;
+    }
+
+    /**
+     * Scores of the documents of a query. Also used by
+     * <code>ScoreAtATimeSearcher</code>. The arrays grow when a document
+     * beyond them is added, as the index may have been loaded again with more
+     * documents since the accumulator was created.
+     */
+    static class Accumulator {
+
+        /* Score of every document */
+        private double[] scores;
+        /* Documents with a score */
+        private boolean[] seen;
+        private int[] touched;
+        private int touchedCount = 0;
+        /* Heap of docIds used to select the top results */
+        private int[] heap = new int[0];
+
+        /**
+         * Default constructor.
+         *
+         * @param size greatest docId of the index plus one.
+         */
+        Accumulator(int size) {
+            scores = new double[size];
+            seen = new boolean[size];
+            touched = new int[size];
+        }
+
+        /**
+         * Adds a weight to the score of a document.
+         *
+         * @param docId document.
+         * @param weight weight to add.
+         */
+        void add(int docId, double weight) {
+            if (docId >= scores.length) {
+                grow(docId + 1);
+            }
+            if (!seen[docId]) {
+                seen[docId] = true;
+                touched[touchedCount++] = docId;
+            }
+            scores[docId] += weight;
+        }
+
+        /**
+         * Grows the arrays to hold at least the given number of documents.
+         */
+        private void grow(int size) {
+            size = Math.max(size, scores.length + (scores.length >> 1));
+            scores = Arrays.copyOf(scores, size);
+            seen = Arrays.copyOf(seen, size);
+            touched = Arrays.copyOf(touched, size);
+        }
+
+        /**
+         * Returns true if the first document ranks below the second: it has a
+         * lower score or, with the same score, a greater docId.
+         */
+        private boolean below(int docId1, int docId2) {
+            int comparison = Double.compare(scores[docId1], scores[docId2]);
+            return comparison < 0 || (comparison == 0 && docId1 > docId2);
+        }
+
+        /**
+         * Returns the documents with the highest scores.
+         *
+         * @param k maximum number of results.
+         * @return the top results sorted by decrementing score.
+         */
+        List<ScoredTextDocument> getTopResults(int k) {
+            // Min-heap of the k best documents seen, the worst one at the top.
+            if (heap.length < k) {
+                heap = new int[k];
+            }
+            int size = 0;
+            for (int i = 0; i < touchedCount; i++) {
+                int docId = touched[i];
+                if (size < k) {
+                    heap[size] = docId;
+                    siftUp(size++);
+                } else if (k > 0 && below(heap[0], docId)) {
+                    heap[0] = docId;
+                    siftDown(0, size);
+                }
+            }
+
+            // Take the documents out from the worst to the best.
+            ScoredTextDocument[] results = new ScoredTextDocument[size];
+            for (int last = size - 1; last >= 0; last--) {
+                int docId = heap[0];
+                results[last] = new ScoredTextDocument(docId, scores[docId]);
+                heap[0] = heap[last];
+                siftDown(0, last);
+            }
+            List<ScoredTextDocument> list = new ArrayList<>(size);
+            Collections.addAll(list, results);
+            return list;
+        }
+
+        /**
+         * Moves up the element at a position of the heap.
+         */
+        private void siftUp(int position) {
+            int docId = heap[position];
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (!below(docId, heap[parent])) {
+                    break;
+                }
+                heap[position] = heap[parent];
+                position = parent;
+            }
+            heap[position] = docId;
+        }
+
+        /**
+         * Moves down the element at a position of the heap.
+         */
+        private void siftDown(int position, int size) {
+            int docId = heap[position];
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && below(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!below(heap[child], docId)) {
+                    break;
+                }
+                heap[position] = heap[child];
+                position = child;
+            }
+            heap[position] = docId;
+        }
+
+        /**
+         * Resets the scores of the documents touched.
+         */
+        void clear() {
+            for (int i = 0; i < touchedCount; i++) {
+                scores[touched[i]] = 0;
+                seen[touched[i]] = false;
+            }
+            touchedCount = 0;
+        }
+    }
+}
@@ -21,7 +21,7 @@ import es.uam.eps.bmi.search.TextDocument;
 import es.uam.eps.bmi.search.indexing.BasicIndex;
 import es.uam.eps.bmi.search.indexing.Index;
 import es.uam.eps.bmi.search.indexing.IndexBuilder;
-import es.uam.eps.bmi.search.indexing.Posting;
+import es.uam.eps.bmi.search.indexing.PostingList;
 import es.uam.eps.bmi.search.indexing.StemIndex;
 import es.uam.eps.bmi.search.indexing.StopwordIndex;
 import es.uam.eps.bmi.search.parsing.BasicParser;
@@ -40,11 +40,10 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.Scanner;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
@@ -67,11 +66,12 @@ public class TFIDFSearcher implements Searcher {
     // Maximum number of results to retrieve.
     private int TOP_RESULTS_NUMBER = 5;
 
-    //Index used to search
-    private Index index;
+    /* Relative margin added to the bounds, against rounding errors */
+    private static final double BOUND_MARGIN = 1e-9;
 
-    // Attributes
-    private double docsCount = 0;
+    //Index used to search, bounded is null if it has no score bounds
+    private Index index;
+    private BasicIndex bounded;
 
     /**
      * Creates a searcher using the given index.
@@ -82,6 +82,7 @@ public class TFIDFSearcher implements Searcher {
     public void build(Index index) {
         // Store the index object.
         this.index = index;
+        this.bounded = index instanceof BasicIndex ? (BasicIndex) index : null;
     }
 
     /**
@@ -99,98 +100,133 @@ public class TFIDFSearcher implements Searcher {
         if (terms.length == 0) {
             return new ArrayList<>();
         }
+        return search(new QueryPostings(index, terms));
+    }
 
-        // Heap to traverse the postings by docID.
-        PriorityQueue<ScoredTextDocument> heap = new PriorityQueue<>(terms.length, (ScoredTextDocument t1, ScoredTextDocument t2) -> Integer.compare(t1.getDocID(), t2.getDocID()));
-        // Min-Heap to store the results.
-        MinHeap<ScoredTextDocument> minHeap = new MinHeap<>(TOP_RESULTS_NUMBER);
+    /**
+     * Returns the rankings of several queries. The postings of every term of
+     * the queries are read only once, in dictionary order, and the queries
+     * are scored in parallel over them. All the postings read are kept in
+     * memory until every query is scored.
+     *
+     * @param queries String queries used to search.
+     * @return the ranking of every query, in the same order as the queries.
+     */
+    @Override
+    public List<List<ScoredTextDocument>> searchBatch(List<String> queries) {
+        return QueryPostings.readBatch(index, queries).parallelStream()
+                .map(this::search)
+                .collect(Collectors.toList());
+    }
 
-        // Attributes for calculation
-        docsCount = (double) index.getDocIds().size();
+    /**
+     * Returns a ranking of documents sorted by the score value, given the
+     * postings of the query terms.<br>
+     * Documents are scored one at a time, in docId order, with the MaxScore
+     * strategy: terms are sorted by their score bound, and the terms whose
+     * bounds add up to less than the score of the last of the top results
+     * cannot make a document enter them on their own. Only the documents of
+     * the other terms are scored, and a document is dropped as soon as the
+     * bounds of the terms not checked yet cannot make it enter the top results.
+     * The scores of the terms of a document are added in query order.
+     *
+     * @param query postings of the query terms.
+     * @return a ranking of documents sorted by the decrementing score value.
+     */
+    List<ScoredTextDocument> search(QueryPostings query) {
+        String[] terms = query.terms;
+        List<PostingList> termsPostings = query.postings;
+        double[] idfs = query.idfs;
 
-        // Load term postings
-        int[] cosequentialIndexes = new int[terms.length];
-        List<List<Posting>> termsPostings = new ArrayList<>();
-        for (String term : terms) {
-            termsPostings.add(index.getTermPostings(term));
-        }
+        // Min-Heap to store the results.
+        MinHeap<ScoredTextDocument> minHeap = new MinHeap<>(TOP_RESULTS_NUMBER);
 
-        // Fill the heap for the first time.
+        // Score bounds of the terms
+        double[] bounds = new double[terms.length];
         for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
-            List<Posting> termPostings = termsPostings.get(termIndex);
-            if (termPostings != null && !termPostings.isEmpty()) {
-                // Get the posting
-                Posting posting = termPostings.get(0);
-                heap.add(docFromPosting(posting, termPostings.size()));
-                // Fill the indexes
-                ++cosequentialIndexes[termIndex];
+            if (!termsPostings.get(termIndex).isEmpty()) {
+                bounds[termIndex] = getScoreBound(terms[termIndex], idfs[termIndex]);
             }
         }
 
-        // If the heap is empty, there are not results.
-        if (heap.isEmpty()) {
-            return new ArrayList<>();
+        // Terms by increasing bound, and sum of the bounds up to every one.
+        Integer[] sortedTerms = new Integer[terms.length];
+        for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
+            sortedTerms[termIndex] = termIndex;
+        }
+        Arrays.sort(sortedTerms, (t1, t2) -> Double.compare(bounds[t1], bounds[t2]));
+        double[] boundsSums = new double[terms.length];
+        for (int i = 0; i < terms.length; ++i) {
+            boundsSums[i] = (i > 0 ? boundsSums[i - 1] : 0) + bounds[sortedTerms[i]];
         }
 
-        // Initialize the process
-        ScoredTextDocument currentDocument = heap.poll();
-
-        // Iterate the list of postings.
-        Posting[] nextPostings = new Posting[terms.length];
+        // Postings of the terms before firstEssential are only checked for
+        // the documents of the others.
+        int[] cursors = new int[terms.length];
+        double[] termScores = new double[terms.length];
+        boolean[] matched = new boolean[terms.length];
+        int firstEssential = 0;
+        double threshold = Double.NEGATIVE_INFINITY;
         while (true) {
-            // Get the next posting.
-            for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
-                List<Posting> termPostings = termsPostings.get(termIndex);
-                if (termPostings != null && !termPostings.isEmpty()) {
-                    int postingIndex = cosequentialIndexes[termIndex];
-                    if (postingIndex < termPostings.size()) {
-                        nextPostings[termIndex] = termPostings.get(postingIndex);
-                    } else {
-                        nextPostings[termIndex] = null;
-                    }
-                } else {
-                    nextPostings[termIndex] = null;
+            // Next document of the essential terms.
+            int docId = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < terms.length; ++i) {
+                int termIndex = sortedTerms[i];
+                PostingList termPostings = termsPostings.get(termIndex);
+                if (cursors[termIndex] < termPostings.size()) {
+                    docId = Math.min(docId, termPostings.getDocID(cursors[termIndex]));
                 }
             }
-
-            // Break condition.
-            if (isEmptyArray(nextPostings)) {
+            if (docId == Integer.MAX_VALUE) {
                 break;
             }
 
-            // Get the posting
-            Posting nextPosting = minArrayElement(nextPostings, (Posting t1, Posting t2) -> Integer.compare(t1.getDocID(), t2.getDocID()));
-            int termIndex = Arrays.asList(nextPostings).indexOf(nextPosting);
-            cosequentialIndexes[termIndex] += 1;
-
-            // Add the new document to the heap.
-            heap.add(docFromPosting(nextPosting, termsPostings.get(termIndex).size()));
-
-            // Update values
-            ScoredTextDocument nextDocument = heap.poll(); // Get the head document.
-            if (currentDocument.getDocID() == nextDocument.getDocID()) {
-                nextDocument.setScore(currentDocument.getScore() + nextDocument.getScore());
-            } else {
-                minHeap.add(currentDocument);
+            // Score the essential terms, then the others while they can make
+            // the document enter the results.
+            double partialScore = 0;
+            for (int i = firstEssential; i < terms.length; ++i) {
+                int termIndex = sortedTerms[i];
+                PostingList termPostings = termsPostings.get(termIndex);
+                if (cursors[termIndex] < termPostings.size() && termPostings.getDocID(cursors[termIndex]) == docId) {
+                    termScores[termIndex] = getScore(termPostings, cursors[termIndex], idfs[termIndex]);
+                    matched[termIndex] = true;
+                    partialScore += termScores[termIndex];
+                    cursors[termIndex]++;
+                }
+            }
+            boolean dropped = false;
+            for (int i = firstEssential - 1; i >= 0; --i) {
+                if (cannotEnter(partialScore, boundsSums[i], threshold)) {
+                    dropped = true;
+                    break;
+                }
+                int termIndex = sortedTerms[i];
+                PostingList termPostings = termsPostings.get(termIndex);
+                cursors[termIndex] = seek(termPostings, cursors[termIndex], docId);
+                if (cursors[termIndex] < termPostings.size() && termPostings.getDocID(cursors[termIndex]) == docId) {
+                    termScores[termIndex] = getScore(termPostings, cursors[termIndex], idfs[termIndex]);
+                    matched[termIndex] = true;
+                    partialScore += termScores[termIndex];
+                    cursors[termIndex]++;
+                }
             }
-            currentDocument = nextDocument;
-        }
 
-        // Empty the heap
-        currentDocument = heap.poll();
-        while (currentDocument != null) {
-            // Same routine until the heap is empty
-            ScoredTextDocument nextDocument = heap.poll();
-            if (nextDocument != null) {
-                if (currentDocument.getDocID() == nextDocument.getDocID()) {
-                    nextDocument.setScore(currentDocument.getScore() + nextDocument.getScore());
-                } else {
-                    minHeap.add(currentDocument);
+            double score = 0;
+            for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
+                if (matched[termIndex]) {
+                    score += termScores[termIndex];
+                    matched[termIndex] = false;
                 }
-            } else {
-                minHeap.add(currentDocument);
             }
-            currentDocument = nextDocument;
+            if (dropped || !minHeap.add(new ScoredTextDocument(docId, score)) || minHeap.size() < minHeap.maxSize()) {
+                continue;
+            }
+
+            // The results changed, some terms may not be essential anymore.
+            threshold = minHeap.peek().getScore();
+            while (firstEssential < terms.length && cannotEnter(0, boundsSums[firstEssential], threshold)) {
+                firstEssential++;
+            }
         }
 
         // Resturn the results.
@@ -200,57 +236,84 @@ public class TFIDFSearcher implements Searcher {
     }
 
     /**
-     * Returns a <code>ScoredTextDocument</code> object using a posting.
+     * Returns the TF-IDF score a posting adds to its document.
      *
-     * @param posting Posting used to construct the object.
-     * @param termPostingsSize The size of the term postings list.
-     * @return a <code>ScoredTextDocument</code> object..
+     * @param postings postings of a query term.
+     * @param position position of the posting in the list.
+     * @param idf idf of the term.
+     * @return the score the posting adds to its document.
      */
-    private ScoredTextDocument docFromPosting(Posting posting, int termPostingsSize) {
-        // Attributes for calculation
-        double tf = 1 + (Math.log(posting.getTermFrequency()) / Math.log(2));
-        double idf = Math.log(((double) docsCount) / ((double) termPostingsSize)) / Math.log(2);
-        double docMod = index.getDocModule(posting.getDocID());
-        // Add the scored document to the heap
-        return new ScoredTextDocument(posting.getDocID(), tf * idf / docMod);
+    private double getScore(PostingList postings, int position, double idf) {
+        double tf = 1 + (Math.log(postings.getTermFrequency(position)) / Math.log(2));
+        double docMod = index.getDocModule(postings.getDocID(position));
+        return tf * idf / docMod;
     }
 
     /**
-     * Returns true if an array is full of null objects.
+     * Returns a bound of the score a term adds to any document, infinite if
+     * the index has no bounds.
      *
-     * @param <T> Type of element.
-     * @param array Array to be checked.
-     * @return true if an array is full of null objects, false otherwise.
+     * @param term query term.
+     * @param idf idf of the term.
+     * @return a bound of the score the term adds to any document.
      */
-    private <T> boolean isEmptyArray(T[] array) {
-        for (T t : array) {
-            if (t != null) {
-                return false;
-            }
+    private double getScoreBound(String term, double idf) {
+        double termBound = bounded == null ? Double.POSITIVE_INFINITY : bounded.getTermBound(term);
+        if (Double.isInfinite(termBound)) {
+            return Double.POSITIVE_INFINITY;
         }
-        return true;
+        // Terms with idf 0 or less add nothing, or take something away.
+        return idf > 0 ? termBound * idf : 0;
     }
 
     /**
-     * Returns the minimum element in an array.
+     * Returns true if a document cannot enter the results, given the score of
+     * some of its terms and a bound of what the others add.
      *
-     * @param <T> Type of array elements.
-     * @param array The array whose minimum element will be returned.
-     * @param comparator Comparator to compare the elements.
-     * @return the minimum element in an array.
+     * @param partialScore score of the terms checked.
+     * @param bound bound of the score of the others.
+     * @param threshold score of the last document of the results.
+     * @return true if the document cannot score more than the threshold.
      */
-    private <T> T minArrayElement(T[] array, Comparator<? super T> comparator) {
-        T min = array[0];
-        for (int i = 1; i < array.length; ++i) {
-            if (min != null && array[i] != null) {
-                if (comparator.compare(array[i], min) < 0) {
-                    min = array[i];
-                }
-            } else if (array[i] != null) {
-                min = array[i];
+    private boolean cannotEnter(double partialScore, double bound, double threshold) {
+        double margin = BOUND_MARGIN * (Math.abs(partialScore) + bound);
+        return partialScore + bound + margin <= threshold;
+    }
+
+    /**
+     * Returns the position of the first posting of a document not lower than
+     * the given one, galloping from a position of the list.
+     *
+     * @param postings list of postings sorted by docId.
+     * @param from position to search from.
+     * @param docId docId to look for.
+     * @return the position of the first posting, from the given one, whose
+     * docId is not lower than docId, or the size of the list if none.
+     */
+    private static int seek(PostingList postings, int from, int docId) {
+        int size = postings.size();
+        if (from >= size || postings.getDocID(from) >= docId) {
+            return from;
+        }
+        // postings[low] < docId, find high with postings[high] >= docId
+        int low = from;
+        int step = 1;
+        int high = from + step;
+        while (high < size && postings.getDocID(high) < docId) {
+            low = high;
+            step <<= 1;
+            high = low + step;
+        }
+        high = Math.min(high, size);
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if (postings.getDocID(middle) < docId) {
+                low = middle;
+            } else {
+                high = middle;
             }
         }
-        return min;
+        return high;
     }
 
     /**
@@ -348,7 +411,7 @@ public class TFIDFSearcher implements Searcher {
                             TextDocument document = index.getDocument(t.getDocID());
                             if (document != null) {
                                 System.out.println("ID: " + document.getId() + "\tName: " + document.getName() + "\tScore: " + t.getScore());
-                                String content = readContent(document.getName(), parser.parse(query), MAX_READ);
+                                String content = getSnippet(index, document, parser.parse(query), MAX_READ);
                                 System.out.println("Content: " + content);
                                 System.out.println();
                             }
@@ -394,6 +457,23 @@ public class TFIDFSearcher implements Searcher {
         return outPath;
     }
 
+    /**
+     * Returns a snippet of a document. It is taken from the document store of
+     * the index when it has one, otherwise it is read from the collection.
+     *
+     * @param index Index the document belongs to.
+     * @param document The document.
+     * @param query The query string.
+     * @param maxRead Maximum characters to return.
+     * @return The snippet of the document.
+     */
+    private static String getSnippet(Index index, TextDocument document, String query, int maxRead) {
+        if (index instanceof BasicIndex && ((BasicIndex) index).hasDocumentStore()) {
+            return ((BasicIndex) index).getSnippet(document.getId(), query, maxRead);
+        }
+        return readContent(document.getName(), query, maxRead);
+    }
+
     /**
      * Reads content from a file. It will show until <code>maxRead</code>
      * characters starting from the first occurrence from some of the terms in
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.search.searching;
+
+import es.uam.eps.bmi.search.ScoredTextDocument;
+import es.uam.eps.bmi.search.indexing.Index;
+import es.uam.eps.bmi.search.indexing.PostingList;
+import es.uam.eps.bmi.search.indexing.TieredIndex;
+import es.uam.eps.bmi.search.parsing.BasicParser;
+import es.uam.eps.bmi.search.parsing.TextParser;
+import es.uam.eps.bmi.util.MinHeap;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * TF-IDF searcher for a <code>TieredIndex</code>. Documents are scored as in
+ * <code>TFIDFSearcher</code>, term at a time, in two steps:
+ * <ol>
+ * <li>The hot postings of the query terms are scored. For every document the
+ * searcher knows which terms it has been scored with, and the cold impacts of
+ * the index bound what every other term can add to its score. The ranking is
+ * final if no document seen with some terms missing, and no document not seen
+ * at all, can reach the score of the last document of the top results.</li>
+ * <li>Otherwise, the documents are scored again with all the postings of the
+ * terms that have cold postings, which are read from disk.</li>
+ * </ol>
+ * Both steps add the scores of the terms in the same order, so the scores
+ * returned are the same whatever the step the query is answered in. Results
+ * with the same score are sorted by docId.<br>
+ * With any other index every query is answered by the second step.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class TieredSearcher implements Searcher {
+
+    /* Maximum number of terms of the queries answered from the hot tier, one
+        per bit of the masks of terms scored */
+    private static final int MAX_HOT_TERMS = Long.SIZE;
+    /* Relative margin added to the bounds, against rounding errors */
+    private static final double BOUND_MARGIN = 1e-9;
+
+    // Maximum number of results to retrieve.
+    private int TOP_RESULTS_NUMBER = 5;
+
+    // Index used to search, tiered is null if it is not a TieredIndex
+    private Index index;
+    private TieredIndex tiered;
+
+    /* Score of every document, and terms it has been scored with */
+    private double[] scores;
+    private long[] scoredTerms;
+    /* Documents with a score */
+    private boolean[] seen;
+    private int[] touched;
+    private int touchedCount;
+
+    /* Number of queries answered in every step */
+    private int hotQueries = 0;
+    private int coldQueries = 0;
+
+    /**
+     * Creates a searcher using the given index.
+     *
+     * @param index Index used to create the searcher, must be loaded.
+     */
+    @Override
+    public void build(Index index) {
+        this.index = index;
+        this.tiered = index instanceof TieredIndex ? (TieredIndex) index : null;
+        List<Integer> docIds = index.getDocIds();
+        int size = docIds.isEmpty() ? 0 : Collections.max(docIds) + 1;
+        scores = new double[size];
+        scoredTerms = new long[size];
+        seen = new boolean[size];
+        touched = new int[size];
+        touchedCount = 0;
+    }
+
+    /**
+     * Returns a ranking of documents sorted by the score value.
+     *
+     * @param query String query used to search.
+     * @return a ranking of documents sorted by the decrementing score value.
+     */
+    @Override
+    public List<ScoredTextDocument> search(String query) {
+        // Separate the query string by spaces
+        String[] terms = query.split(" ");
+
+        List<ScoredTextDocument> result = null;
+        if (tiered != null && terms.length <= MAX_HOT_TERMS) {
+            result = searchHot(terms);
+        }
+        if (result == null) {
+            result = searchCold(terms);
+            coldQueries++;
+        } else {
+            hotQueries++;
+        }
+        clear();
+        return result;
+    }
+
+    /**
+     * Scores the hot postings of the query terms.
+     *
+     * @param terms query terms.
+     * @return the ranking, or null if it cannot be proven without the cold
+     * postings.
+     */
+    private List<ScoredTextDocument> searchHot(String[] terms) {
+        // Bound of what the cold postings of every term add to a score.
+        double[] bounds = new double[terms.length];
+        long coldTerms = 0;
+        double boundsSum = 0;
+        for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
+            int termId = tiered.getTermId(terms[termIndex]);
+            if (termId < 0) {
+                continue;
+            }
+            double idf = getIdf(terms[termIndex]);
+            for (int p = tiered.getHotStart(termId); p < tiered.getHotEnd(termId); p++) {
+                int docId = tiered.getHotDocId(p);
+                addScore(docId, getScore(tiered.getHotFrequency(p), idf, docId));
+                scoredTerms[docId] |= 1L << termIndex;
+            }
+            if (tiered.getColdImpact(termId) > 0) {
+                bounds[termIndex] = tiered.getColdImpact(termId) * idf * (1 + BOUND_MARGIN);
+                coldTerms |= 1L << termIndex;
+                boundsSum += bounds[termIndex];
+            }
+        }
+
+        List<ScoredTextDocument> result = getTopResults();
+        if (coldTerms == 0) { //every posting is in the hot tier
+            return result;
+        }
+
+        // Documents not seen may reach the top results.
+        if (result.size() < TOP_RESULTS_NUMBER) {
+            return null;
+        }
+        double threshold = result.get(result.size() - 1).getScore();
+        if (boundsSum >= threshold) {
+            return null;
+        }
+        // Documents seen with some terms missing may reach the top results.
+        for (int i = 0; i < touchedCount; i++) {
+            int docId = touched[i];
+            long missing = coldTerms & ~scoredTerms[docId];
+            if (missing == 0) {
+                continue;
+            }
+            double bound = scores[docId];
+            for (int termIndex = 0; termIndex < terms.length; ++termIndex) {
+                if ((missing & (1L << termIndex)) != 0) {
+                    bound += bounds[termIndex];
+                }
+            }
+            if (bound >= threshold) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Scores all the postings of the query terms. Only the terms with cold
+     * postings are read from disk.
+     *
+     * @param terms query terms.
+     * @return the ranking.
+     */
+    private List<ScoredTextDocument> searchCold(String[] terms) {
+        clear();
+        for (String term : terms) {
+            int termId = tiered == null ? -1 : tiered.getTermId(term);
+            if (termId >= 0 && tiered.getColdImpact(termId) == 0) { //all of them in memory
+                double idf = getIdf(term);
+                for (int p = tiered.getHotStart(termId); p < tiered.getHotEnd(termId); p++) {
+                    int docId = tiered.getHotDocId(p);
+                    addScore(docId, getScore(tiered.getHotFrequency(p), idf, docId));
+                }
+                continue;
+            }
+            PostingList termPostings = PostingList.of(index.getTermPostings(term));
+            if (termPostings == null || termPostings.isEmpty()) {
+                continue;
+            }
+            double idf = getIdf(term);
+            for (int p = 0; p < termPostings.size(); p++) {
+                int docId = termPostings.getDocID(p);
+                addScore(docId, getScore(termPostings.getTermFrequency(p), idf, docId));
+            }
+        }
+        return getTopResults();
+    }
+
+    /**
+     * Returns the idf of a term.
+     */
+    private double getIdf(String term) {
+        return Math.log(((double) index.getDocsCount()) / ((double) index.getTermDocFrequency(term))) / Math.log(2);
+    }
+
+    /**
+     * Returns the TF-IDF weight of a term in a document, as computed by
+     * <code>TFIDFSearcher</code>.
+     */
+    private double getScore(int frequency, double idf, int docId) {
+        double tf = 1 + (Math.log(frequency) / Math.log(2));
+        return tf * idf / index.getDocModule(docId);
+    }
+
+    /**
+     * Adds a term weight to the score of a document, growing the arrays of
+     * scores if the index has been loaded again with more documents.
+     */
+    private void addScore(int docId, double score) {
+        if (docId >= scores.length) {
+            int size = Math.max(docId + 1, scores.length + (scores.length >> 1));
+            scores = Arrays.copyOf(scores, size);
+            scoredTerms = Arrays.copyOf(scoredTerms, size);
+            seen = Arrays.copyOf(seen, size);
+            touched = Arrays.copyOf(touched, size);
+        }
+        if (!seen[docId]) {
+            seen[docId] = true;
+            touched[touchedCount++] = docId;
+        }
+        scores[docId] += score;
+    }
+
+    /**
+     * Returns the top results among the documents with a score, sorted by
+     * decrementing score and then by docId. Documents are offered in docId
+     * order, so that the lowest docIds are kept among the documents tied with
+     * the last result, in both steps.
+     */
+    private List<ScoredTextDocument> getTopResults() {
+        Arrays.sort(touched, 0, touchedCount);
+        MinHeap<ScoredTextDocument> minHeap = new MinHeap<>(TOP_RESULTS_NUMBER);
+        for (int i = 0; i < touchedCount; i++) {
+            minHeap.add(new ScoredTextDocument(touched[i], scores[touched[i]]));
+        }
+        // The order of the heap depends on the insertions, not only on the
+        // scores, so ties are sorted by docId.
+        List<ScoredTextDocument> result = minHeap.asList();
+        Collections.sort(result, Comparator.comparingDouble(ScoredTextDocument::getScore).reversed()
+                .thenComparingInt(ScoredTextDocument::getDocID));
+        return result;
+    }
+
+    /**
+     * Resets the scores of the documents.
+     */
+    private void clear() {
+        for (int i = 0; i < touchedCount; i++) {
+            scores[touched[i]] = 0;
+            scoredTerms[touched[i]] = 0;
+            seen[touched[i]] = false;
+        }
+        touchedCount = 0;
+    }
+
+    /**
+     * Returns the number of queries answered with the hot tier only.
+     *
+     * @return the number of queries answered without reading postings from
+     * disk.
+     */
+    public int getHotQueries() {
+        return hotQueries;
+    }
+
+    /**
+     * Returns the number of queries that needed the cold tier.
+     *
+     * @return the number of queries answered reading postings from disk.
+     */
+    public int getColdQueries() {
+        return coldQueries;
+    }
+
+    /**
+     * Sets the maximum number of results to retrieve.
+     *
+     * @param topResultsNumber Maximum number of results to retrieve.
+     */
+    @Override
+    public void setTopResultsNumber(int topResultsNumber) {
+        this.TOP_RESULTS_NUMBER = topResultsNumber;
+    }
+
+    /**
+     * Main method for tiered searcher.
+     *
+     * Runs the queries of a file with a tiered index of the basic kind and
+     * prints how many of them were answered without reading postings from
+     * disk.
+     *
+     * @param args The following arguments are used: "index_path": Path to the
+     * directory where the index is stored, "queries_file": File with a query
+     * per line, as "id:query", "hot_postings": Optionally, number of postings
+     * of every term in the hot tier.
+     */
+    public static void main(String[] args) {
+        // Top results
+        final int TOP = 10;
+
+        // Input control
+        if (args.length < 2 || args.length > 3) {
+            System.err.printf("Usage: %s index_path queries_file [hot_postings]\n"
+                    + "\tindex_path: Path to the directory where the index is stored.\n"
+                    + "\tqueries_file: File with a query per line, as id:query.\n"
+                    + "\thot_postings: Postings of every term in memory, %d by default.\n",
+                    TieredSearcher.class.getSimpleName(), TieredIndex.DEFAULT_HOT_POSTINGS);
+            return;
+        }
+        int hotPostings = TieredIndex.DEFAULT_HOT_POSTINGS;
+        if (args.length == 3) {
+            try {
+                hotPostings = Integer.parseInt(args[2]);
+            } catch (NumberFormatException ex) {
+                System.err.println(args[2] + ": not a number.");
+                return;
+            }
+        }
+
+        // Read the queries
+        TextParser parser = new BasicParser();
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader queriesReader = new BufferedReader(new FileReader(args[1]))) {
+            String line;
+            while ((line = queriesReader.readLine()) != null) {
+                queries.add(parser.parse(line.substring(line.indexOf(':') + 1)));
+            }
+        } catch (IOException ex) {
+            System.err.println("Exception caught while performing an I/O operation: " + ex.getClass().getSimpleName());
+            System.err.println(ex.getMessage());
+            return;
+        }
+
+        TieredIndex index = new TieredIndex(hotPostings);
+        index.load(args[0]);
+        if (!index.isLoaded()) {
+            return;
+        }
+        TieredSearcher searcher = new TieredSearcher();
+        searcher.build(index);
+        searcher.setTopResultsNumber(TOP);
+
+        long start = System.nanoTime();
+        for (String query : queries) {
+            searcher.search(query);
+        }
+        long end = System.nanoTime();
+        System.out.printf("Queries: %d\tAnswered from memory: %d (%.2f%%)\n", queries.size(),
+                searcher.getHotQueries(), 100.0 * searcher.getHotQueries() / Math.max(1, queries.size()));
+        System.out.println("Mean search time: " + (end - start) / 1e6 / Math.max(1, queries.size()) + " milliseconds");
+    }
+}
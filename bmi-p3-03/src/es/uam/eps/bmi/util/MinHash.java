@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Enrique Cabrerizo Fernández, Guillermo Ruiz Álvarez
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package es.uam.eps.bmi.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * MinHash signatures of sets of strings. The fraction of equal components of
+ * two signatures estimates the Jaccard similarity of the sets.
+ *
+ * @author Enrique Cabrerizo Fernández
+ * @author Guillermo Ruiz Álvarez
+ */
+public class MinHash {
+
+    /* Coefficients of the hash functions: h_i(x) = mix(a_i * x + b_i) */
+    private final long[] a;
+    private final long[] b;
+
+    /**
+     * Default constructor.
+     *
+     * @param numHashes number of hash functions, i.e. signature length.
+     * @param seed seed used to choose the hash functions.
+     */
+    public MinHash(int numHashes, long seed) {
+        Random random = new Random(seed);
+        this.a = new long[numHashes];
+        this.b = new long[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            a[i] = random.nextLong() | 1; // odd, so the product is a bijection
+            b[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Returns the number of components of the signatures.
+     *
+     * @return the number of components of the signatures.
+     */
+    public int size() {
+        return a.length;
+    }
+
+    /**
+     * Returns a new signature for the empty set. Elements are added to it with
+     * <code>update</code>.
+     *
+     * @return a new signature for the empty set.
+     */
+    public int[] emptySignature() {
+        int[] signature = new int[a.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        return signature;
+    }
+
+    /**
+     * Adds an element, given by its 64 bits hash, to a signature.
+     *
+     * @param signature signature to update.
+     * @param element hash of the element.
+     */
+    public void update(int[] signature, long element) {
+        for (int i = 0; i < a.length; i++) {
+            int h = mix(a[i] * element + b[i]);
+            if (h < signature[i]) {
+                signature[i] = h;
+            }
+        }
+    }
+
+    /**
+     * Returns the signature of the set of shingles (sequences of
+     * <code>shingleSize</code> consecutive tokens) of a token stream. Streams
+     * shorter than a shingle are taken as a single shingle. Empty tokens are
+     * ignored.
+     *
+     * @param tokens token stream.
+     * @param shingleSize number of tokens per shingle.
+     * @return the signature of the shingles of the stream.
+     */
+    public int[] shingleSignature(String[] tokens, int shingleSize) {
+        int[] signature = emptySignature();
+        long[] window = new long[shingleSize];
+        int seen = 0;
+        for (String token : tokens) {
+            if (token.length() == 0) {
+                continue;
+            }
+            window[seen % shingleSize] = token.hashCode();
+            seen++;
+            if (seen >= shingleSize) {
+                update(signature, shingleHash(window, seen % shingleSize));
+            }
+        }
+        if (seen > 0 && seen < shingleSize) {
+            window = Arrays.copyOf(window, seen);
+            update(signature, shingleHash(window, 0));
+        }
+        return signature;
+    }
+
+    /**
+     * Returns the estimated Jaccard similarity of the sets whose signatures
+     * are given.
+     *
+     * @param s1 first signature.
+     * @param s2 second signature.
+     * @return the fraction of equal components of both signatures.
+     */
+    public static double similarity(int[] s1, int[] s2) {
+        int equal = 0;
+        for (int i = 0; i < s1.length; i++) {
+            if (s1[i] == s2[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / s1.length;
+    }
+
+    /**
+     * Hash of the tokens of a circular window, starting at <code>first</code>.
+     */
+    private static long shingleHash(long[] window, int first) {
+        long h = 1125899906842597L;
+        for (int i = 0; i < window.length; i++) {
+            h = 31 * h + window[(first + i) % window.length];
+        }
+        return h;
+    }
+
+    /**
+     * Finalization step of MurmurHash3, keeping the 32 high bits.
+     */
+    private static int mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) (h >>> 32);
+    }
+}